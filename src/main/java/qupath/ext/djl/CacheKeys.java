@@ -0,0 +1,267 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper methods to create keys for on-disk caches.
+ * <p>
+ * Keys are based on SHA-256 hashes. File hashes are retained in memory, and only recomputed
+ * if the file size or modification time changes.
+ */
+class CacheKeys {
+
+	private static final Logger logger = LoggerFactory.getLogger(CacheKeys.class);
+
+	private static final Map<String, String> fileHashes = new ConcurrentHashMap<>();
+
+	private static String cpuSignature;
+
+	/**
+	 * Maximum depth when describing an object, to guard against very large object graphs.
+	 */
+	private static final int MAX_DESCRIBE_DEPTH = 16;
+
+	// Suppress default constructor
+	private CacheKeys() {}
+
+	/**
+	 * Create a key by hashing strings.
+	 * @param parts
+	 * @return a hex string
+	 */
+	static String create(String... parts) {
+		var digest = createDigest();
+		for (var part : parts) {
+			digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+			// Separator, so that ("ab", "c") differs from ("a", "bc")
+			digest.update((byte)0);
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Get a hash of the content of the file(s) for a URI.
+	 * If the URI refers to a directory, all regular files within it are included.
+	 * If the URI is not a file URI, the URI itself is hashed.
+	 * @param uri
+	 * @return a hex string
+	 * @throws IOException
+	 */
+	static String hash(URI uri) throws IOException {
+		if (!"file".equals(uri.getScheme()))
+			return create(uri.toString());
+		return hash(Paths.get(uri));
+	}
+
+	/**
+	 * Get a hash of the content of a file, or all regular files within a directory.
+	 * @param path
+	 * @return a hex string
+	 * @throws IOException
+	 */
+	static String hash(Path path) throws IOException {
+		List<Path> files;
+		if (Files.isDirectory(path)) {
+			try (var stream = Files.walk(path)) {
+				files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+		} else
+			files = Collections.singletonList(path);
+		var digest = createDigest();
+		for (var file : files) {
+			digest.update(path.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+			digest.update(getFileHash(file).getBytes(StandardCharsets.UTF_8));
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static String getFileHash(Path file) throws IOException {
+		var key = file.toAbsolutePath() + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+		var hash = fileHashes.get(key);
+		if (hash != null)
+			return hash;
+		var digest = createDigest();
+		var buffer = new byte[1 << 16];
+		try (InputStream stream = Files.newInputStream(file)) {
+			int n;
+			while ((n = stream.read(buffer)) >= 0)
+				digest.update(buffer, 0, n);
+		}
+		hash = HexFormat.of().formatHex(digest.digest());
+		fileHashes.put(key, hash);
+		return hash;
+	}
+
+	/**
+	 * Describe an object by its class and the values of its fields, recursively.
+	 * This can be used to distinguish differently-configured instances of the same class (e.g. translators) in a key.
+	 * <p>
+	 * Only objects built from simple values, strings, enums, arrays, collections and maps can be described.
+	 * Anything else that can't be compared reliably - such as lambdas, anonymous classes, JDK internals or 
+	 * cyclic references - means that no description is returned.
+	 * @param obj
+	 * @return a description of the object, or null if it can't be described completely
+	 */
+	static String describe(Object obj) {
+		var sb = new StringBuilder();
+		try {
+			describe(obj, sb, Collections.newSetFromMap(new IdentityHashMap<>()), 0);
+			return sb.toString();
+		} catch (IllegalAccessException | RuntimeException e) {
+			logger.debug("Unable to describe {}: {}", obj.getClass().getName(), e.getMessage());
+			return null;
+		}
+	}
+
+	private static void describe(Object obj, StringBuilder sb, Set<Object> visiting, int depth) throws IllegalAccessException {
+		if (obj == null) {
+			sb.append("null");
+			return;
+		}
+		var cls = obj.getClass();
+		if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character || obj instanceof String || obj instanceof Enum<?>) {
+			sb.append(cls.getName()).append(':').append(obj);
+			return;
+		}
+		if (depth > MAX_DESCRIBE_DEPTH || !visiting.add(obj))
+			throw new IllegalArgumentException("Object graph is cyclic or too deep");
+		try {
+			if (cls.isArray()) {
+				sb.append(cls.getName()).append('[');
+				for (int i = 0; i < Array.getLength(obj); i++) {
+					describe(Array.get(obj, i), sb, visiting, depth + 1);
+					sb.append(',');
+				}
+				sb.append(']');
+			} else if (obj instanceof List<?> list) {
+				sb.append("List[");
+				for (var item : list) {
+					describe(item, sb, visiting, depth + 1);
+					sb.append(',');
+				}
+				sb.append(']');
+			} else if (obj instanceof Set<?> set) {
+				// Sort descriptions, since the iteration order of a set may vary
+				var items = new ArrayList<String>();
+				for (var item : set) {
+					var itemSb = new StringBuilder();
+					describe(item, itemSb, visiting, depth + 1);
+					items.add(itemSb.toString());
+				}
+				Collections.sort(items);
+				sb.append("Set").append(items);
+			} else if (obj instanceof Map<?, ?> map) {
+				var entries = new ArrayList<String>();
+				for (var entry : map.entrySet()) {
+					var entrySb = new StringBuilder();
+					describe(entry.getKey(), entrySb, visiting, depth + 1);
+					entrySb.append('=');
+					describe(entry.getValue(), entrySb, visiting, depth + 1);
+					entries.add(entrySb.toString());
+				}
+				Collections.sort(entries);
+				sb.append("Map").append(entries);
+			} else {
+				if (cls.isSynthetic() || cls.isAnonymousClass() || cls.isLocalClass() || cls.getName().startsWith("java.") || cls.getName().startsWith("jdk."))
+					throw new IllegalArgumentException("Unsupported class " + cls.getName());
+				sb.append(cls.getName()).append('{');
+				for (var c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+					var fields = new ArrayList<>(Arrays.asList(c.getDeclaredFields()));
+					fields.sort(Comparator.comparing(Field::getName));
+					for (var field : fields) {
+						int modifiers = field.getModifiers();
+						if (Modifier.isStatic(modifiers) || field.isSynthetic())
+							continue;
+						field.setAccessible(true);
+						sb.append(field.getName()).append('=');
+						describe(field.get(obj), sb, visiting, depth + 1);
+						sb.append(';');
+					}
+				}
+				sb.append('}');
+			}
+		} finally {
+			visiting.remove(obj);
+		}
+	}
+
+	/**
+	 * Get a string describing the CPU, so that cached results aren't reused on a different machine.
+	 * @return
+	 */
+	static synchronized String getCpuSignature() {
+		if (cpuSignature != null)
+			return cpuSignature;
+		var sb = new StringBuilder();
+		sb.append(System.getProperty("os.name")).append(";");
+		sb.append(System.getProperty("os.arch")).append(";");
+		sb.append(Runtime.getRuntime().availableProcessors()).append(";");
+		var cpuInfo = Paths.get("/proc/cpuinfo");
+		if (Files.isReadable(cpuInfo)) {
+			try (var lines = Files.lines(cpuInfo)) {
+				lines.filter(l -> l.startsWith("model name"))
+					.findFirst()
+					.ifPresent(l -> sb.append(l.substring(l.indexOf(':') + 1).trim()));
+			} catch (IOException e) {
+				logger.debug("Unable to read CPU info: {}", e.getMessage());
+			}
+		} else {
+			var identifier = System.getenv("PROCESSOR_IDENTIFIER");
+			if (identifier != null)
+				sb.append(identifier);
+		}
+		cpuSignature = sb.toString();
+		return cpuSignature;
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Shouldn't happen, since every Java platform must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
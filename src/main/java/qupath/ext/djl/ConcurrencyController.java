@@ -0,0 +1,177 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bytedeco.javacpp.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive limit on the number of active inference workers, using additive-increase/multiplicative-decrease (AIMD).
+ * <p>
+ * Workers call {@link #acquire()} before processing a tile and {@link #release(long, int)} afterwards.
+ * Once per round (i.e. after as many tiles as the current limit), the limit is adjusted:
+ * <ul>
+ *   <li>it is halved if heap or native memory occupancy is too high, or the mean tile latency
+ *       is well above the baseline latency</li>
+ *   <li>otherwise it is increased if there are more tiles waiting than active workers - doubling
+ *       until the first decrease (as a 'slow start'), and then by one at a time</li>
+ * </ul>
+ * The baseline latency is the lowest mean latency seen so far, which drifts slowly upwards so that
+ * the controller adapts when tiles become more expensive (e.g. in denser tissue).
+ * Every change to the limit is logged, with the reason.
+ */
+class ConcurrencyController {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConcurrencyController.class);
+
+	private static final double LATENCY_TOLERANCE = 1.5;
+	private static final double BASELINE_DRIFT = 0.1;
+	private static final double HEAP_THRESHOLD = 0.85;
+	private static final double NATIVE_THRESHOLD = 0.85;
+
+	private final String name;
+	private final int minWorkers;
+	private final int maxWorkers;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	private int limit;
+	private int active;
+	private boolean slowStart = true;
+
+	private int roundCount;
+	private long roundLatencyNanos;
+	private double baselineLatencyNanos = Double.NaN;
+
+	/**
+	 * Create a controller, starting with the minimum number of workers.
+	 * @param name name used for logging
+	 * @param minWorkers minimum number of active workers
+	 * @param maxWorkers maximum number of active workers
+	 */
+	ConcurrencyController(String name, int minWorkers, int maxWorkers) {
+		this.name = name;
+		this.minWorkers = Math.max(1, minWorkers);
+		this.maxWorkers = Math.max(this.minWorkers, maxWorkers);
+		this.limit = this.minWorkers;
+	}
+
+	/**
+	 * Get the current limit on active workers.
+	 * @return
+	 */
+	int getLimit() {
+		lock.lock();
+		try {
+			return limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until a worker is permitted to start processing.
+	 * @throws InterruptedException
+	 */
+	void acquire() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (active >= limit)
+				available.await();
+			active++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record that a worker has finished processing.
+	 * @param latencyNanos time taken to process the tile
+	 * @param queueDepth number of tiles still waiting to be processed
+	 */
+	void release(long latencyNanos, int queueDepth) {
+		lock.lock();
+		try {
+			active--;
+			roundCount++;
+			roundLatencyNanos += latencyNanos;
+			if (roundCount >= limit)
+				adjust(queueDepth);
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void adjust(int queueDepth) {
+		double latency = roundLatencyNanos / (double)roundCount;
+		roundCount = 0;
+		roundLatencyNanos = 0;
+
+		int newLimit = limit;
+		String reason = null;
+		double heap = getHeapOccupancy();
+		double nativeMemory = getNativeOccupancy();
+		if (heap > HEAP_THRESHOLD) {
+			newLimit = decrease();
+			reason = String.format("heap occupancy %.0f%%", heap * 100);
+		} else if (nativeMemory > NATIVE_THRESHOLD) {
+			newLimit = decrease();
+			reason = String.format("native memory occupancy %.0f%%", nativeMemory * 100);
+		} else if (!Double.isNaN(baselineLatencyNanos) && latency > baselineLatencyNanos * LATENCY_TOLERANCE) {
+			newLimit = decrease();
+			reason = String.format("tile latency %.1f ms, baseline %.1f ms", latency / 1e6, baselineLatencyNanos / 1e6);
+		} else if (queueDepth > limit) {
+			newLimit = slowStart ? limit * 2 : limit + 1;
+			reason = String.format("tile latency %.1f ms, %d tile(s) waiting", latency / 1e6, queueDepth);
+		}
+
+		if (Double.isNaN(baselineLatencyNanos) || latency < baselineLatencyNanos)
+			baselineLatencyNanos = latency;
+		else
+			baselineLatencyNanos += (latency - baselineLatencyNanos) * BASELINE_DRIFT;
+
+		newLimit = Math.max(minWorkers, Math.min(maxWorkers, newLimit));
+		if (newLimit != limit) {
+			logger.info("{}: {} -> {} active worker(s) ({})", name, limit, newLimit, reason);
+			limit = newLimit;
+		}
+	}
+
+	private int decrease() {
+		slowStart = false;
+		return limit / 2;
+	}
+
+	private static double getHeapOccupancy() {
+		var runtime = Runtime.getRuntime();
+		return (runtime.totalMemory() - runtime.freeMemory()) / (double)runtime.maxMemory();
+	}
+
+	private static double getNativeOccupancy() {
+		long max = Pointer.maxPhysicalBytes();
+		if (max <= 0)
+			return 0;
+		return Pointer.physicalBytes() / (double)max;
+	}
+
+}
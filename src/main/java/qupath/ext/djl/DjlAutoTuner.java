@@ -0,0 +1,453 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.engine.Engine;
+import ai.djl.util.Utils;
+
+/**
+ * Auto-tuner to choose the engine, batch size and thread layout for a model.
+ * <p>
+ * Tuning runs a short timed sweep using synthetic input, measuring the throughput of each
+ * candidate configuration. To keep the sweep short, one setting is tuned at a time:
+ * first the engine, then the number of replicas and threads per replica, and finally the batch size.
+ * <p>
+ * The best configuration is stored in a properties file in the DJL cache directory, keyed by a hash
+ * of the model files, the way the model is called and a signature of the CPU, so that it only needs to be found once per machine.
+ */
+class DjlAutoTuner {
+
+	private static final Logger logger = LoggerFactory.getLogger(DjlAutoTuner.class);
+
+	private static final String FILE_NAME = "qupath-autotune.properties";
+
+	private static final long DEFAULT_TRIAL_MILLIS = 1000L;
+
+	/**
+	 * File extensions recognized when looking for the same model exported for a different engine.
+	 */
+	private static final Map<String, String> ENGINE_EXTENSIONS = Map.of(
+			".onnx", DjlTools.ENGINE_ONNX_RUNTIME,
+			".pt", DjlTools.ENGINE_PYTORCH,
+			".torchscript", DjlTools.ENGINE_PYTORCH
+			);
+
+	private static final Map<String, TuningConfig> configs = new ConcurrentHashMap<>();
+
+	private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	/**
+	 * Keys for which tuning failed during this session, so that the sweep isn't repeated every time a model is loaded.
+	 */
+	private static final Set<String> failedKeys = ConcurrentHashMap.newKeySet();
+
+	private static boolean isLoaded = false;
+
+	// Suppress default constructor
+	private DjlAutoTuner() {}
+
+	/**
+	 * Function to measure the throughput of a model using a specific configuration.
+	 */
+	@FunctionalInterface
+	interface Benchmark {
+
+		/**
+		 * Load the model using the configuration, and measure its throughput.
+		 * @param config the configuration to test
+		 * @param durationMillis approximate time to spend measuring, excluding model loading and warm-up
+		 * @return the number of inputs processed per second
+		 * @throws Exception if the configuration could not be tested
+		 */
+		double measure(TuningConfig config, long durationMillis) throws Exception;
+
+	}
+
+	/**
+	 * Configuration found by auto-tuning.
+	 */
+	static class TuningConfig {
+
+		private final String engine;
+		private final List<URI> uris;
+		private final int batchSize;
+		private final int replicas;
+		private final int threadsPerReplica;
+		private double itemsPerSecond = Double.NaN;
+
+		private TuningConfig(String engine, List<URI> uris, int batchSize, int replicas, int threadsPerReplica) {
+			this.engine = engine;
+			this.uris = Collections.unmodifiableList(new ArrayList<>(uris));
+			this.batchSize = batchSize;
+			this.replicas = replicas;
+			this.threadsPerReplica = threadsPerReplica;
+		}
+
+		private TuningConfig withLayout(int replicas, int threadsPerReplica) {
+			return new TuningConfig(engine, uris, batchSize, replicas, threadsPerReplica);
+		}
+
+		private TuningConfig withBatchSize(int batchSize) {
+			return new TuningConfig(engine, uris, batchSize, replicas, threadsPerReplica);
+		}
+
+		/**
+		 * Engine name.
+		 * @return
+		 */
+		String getEngine() {
+			return engine;
+		}
+
+		/**
+		 * URIs of the model files for the engine; these may differ from the original URIs if the
+		 * model is also available in a format for another engine.
+		 * @return
+		 */
+		URI[] getURIs() {
+			return uris.toArray(URI[]::new);
+		}
+
+		/**
+		 * Number of inputs to pass through the model at once.
+		 * @return
+		 */
+		int getBatchSize() {
+			return batchSize;
+		}
+
+		/**
+		 * Number of predictions to run concurrently.
+		 * @return
+		 */
+		int getReplicas() {
+			return replicas;
+		}
+
+		/**
+		 * Number of intra-op threads for each replica, or 0 for the engine default.
+		 * @return
+		 */
+		int getThreadsPerReplica() {
+			return threadsPerReplica;
+		}
+
+		/**
+		 * Measured throughput, or NaN if unknown.
+		 * @return
+		 */
+		double getItemsPerSecond() {
+			return itemsPerSecond;
+		}
+
+		@Override
+		public String toString() {
+			return "TuningConfig [engine=" + engine + ", batchSize=" + batchSize + ", replicas=" + replicas
+					+ ", threadsPerReplica=" + threadsPerReplica + ", itemsPerSecond=" + itemsPerSecond + "]";
+		}
+
+	}
+
+	/**
+	 * Get the cached configuration for a model, or run the auto-tuner if there is none.
+	 * <p>
+	 * Tuning for different models can run concurrently, but only one thread tunes any given model;
+	 * other threads requesting the same model wait for the result.
+	 * @param uris the model URIs
+	 * @param engine the requested engine; may be null
+	 * @param canBatch whether the model supports batch sizes &gt; 1
+	 * @param inputSignature description of how the model is called (e.g. the caller and input shape), 
+	 *                       so that different uses of the same model files are tuned separately
+	 * @param benchmark function to measure throughput for a configuration
+	 * @return the best configuration, or null if tuning failed
+	 */
+	static TuningConfig getOrTune(Collection<URI> uris, String engine, boolean canBatch, String inputSignature, Benchmark benchmark) {
+		var key = createKey(uris, engine, canBatch, inputSignature);
+		if (key == null)
+			return null;
+		synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+			var config = getCachedConfig(key);
+			if (config != null) {
+				logger.debug("Using cached auto-tuning result {}", config);
+				return config;
+			}
+			if (failedKeys.contains(key)) {
+				logger.debug("Auto-tuning already failed for {}", inputSignature);
+				return null;
+			}
+			config = tune(uris, engine, canBatch, benchmark, DEFAULT_TRIAL_MILLIS);
+			if (config == null) {
+				failedKeys.add(key);
+			} else {
+				configs.put(key, config);
+				save();
+			}
+			return config;
+		}
+	}
+
+	/**
+	 * Run a timed sweep to find the best configuration for a model.
+	 * This does not use or update the cache.
+	 * @param uris the model URIs
+	 * @param engine the requested engine; may be null
+	 * @param canBatch whether the model supports batch sizes &gt; 1
+	 * @param benchmark function to measure throughput for a configuration
+	 * @param trialMillis approximate time to spend measuring each configuration
+	 * @return the best configuration, or null if no configuration could be measured
+	 */
+	static TuningConfig tune(Collection<URI> uris, String engine, boolean canBatch, Benchmark benchmark, long trialMillis) {
+		long startTime = System.currentTimeMillis();
+
+		// Choose the engine, using one replica with the engine's default threads
+		TuningConfig best = null;
+		for (var candidate : getEngineCandidates(uris, engine)) {
+			best = better(best, measure(candidate, benchmark, trialMillis));
+		}
+		if (best == null) {
+			logger.warn("Auto-tuning failed - no configuration could be measured");
+			return null;
+		}
+
+		// Choose the number of replicas, dividing the available cores between them
+		int nCores = Runtime.getRuntime().availableProcessors();
+		for (int replicas = 2; replicas <= nCores; replicas *= 2) {
+			var candidate = best.withLayout(replicas, Math.max(1, nCores / replicas));
+			var measured = measure(candidate, benchmark, trialMillis);
+			if (measured == null || measured.itemsPerSecond <= best.itemsPerSecond)
+				break;
+			best = measured;
+		}
+
+		// Choose the batch size, stopping when throughput no longer improves
+		if (canBatch) {
+			for (int batchSize = 2; batchSize <= 16; batchSize *= 2) {
+				var measured = measure(best.withBatchSize(batchSize), benchmark, trialMillis);
+				if (measured == null || measured.itemsPerSecond <= best.itemsPerSecond)
+					break;
+				best = measured;
+			}
+		}
+
+		logger.info("Auto-tuning completed in {} ms: {}", System.currentTimeMillis() - startTime, best);
+		return best;
+	}
+
+	/**
+	 * Measure the throughput of replicas, using all replicas concurrently.
+	 * Each replica first runs the task once to warm up, and then repeatedly for the specified duration.
+	 * @param <I>
+	 * @param <O>
+	 * @param replicas the replicas to measure
+	 * @param itemsPerCall number of inputs processed each time the task is called (i.e. the batch size)
+	 * @param durationMillis approximate time to spend measuring
+	 * @param task task that runs one prediction, given the replica index and a predictor
+	 * @return the total number of inputs processed per second
+	 * @throws Exception
+	 */
+	static <I, O> double measureThroughput(ModelReplicas<I, O> replicas, int itemsPerCall, long durationMillis, 
+			ModelReplicas.ReplicaTask<Integer, I, O, ?> task) throws Exception {
+		var indices = new ArrayList<Integer>();
+		for (int i = 0; i < replicas.size(); i++)
+			indices.add(i);
+		long durationNanos = durationMillis * 1_000_000L;
+		var rates = replicas.invokeAll(indices, (ind, predictor) -> {
+			task.apply(ind, predictor);
+			long start = System.nanoTime();
+			long n = 0;
+			do {
+				task.apply(ind, predictor);
+				n++;
+			} while (System.nanoTime() - start < durationNanos);
+			return n * itemsPerCall * 1e9 / (System.nanoTime() - start);
+		}, null);
+		return rates.stream().mapToDouble(d -> d).sum();
+	}
+
+	private static TuningConfig measure(TuningConfig config, Benchmark benchmark, long trialMillis) {
+		try {
+			config.itemsPerSecond = benchmark.measure(config, trialMillis);
+			logger.debug("Auto-tuning trial: {}", config);
+			return config;
+		} catch (Exception e) {
+			logger.debug("Auto-tuning trial failed for {}: {}", config, e.getMessage());
+			return null;
+		}
+	}
+
+	private static TuningConfig better(TuningConfig current, TuningConfig candidate) {
+		if (candidate == null)
+			return current;
+		if (current == null || candidate.itemsPerSecond > current.itemsPerSecond)
+			return candidate;
+		return current;
+	}
+
+	/**
+	 * Get the engines that could be used for a model.
+	 * This includes the requested engine, and any other engine for which the same model is
+	 * available with the same base name but a different file extension (e.g. model.onnx and model.pt).
+	 */
+	private static List<TuningConfig> getEngineCandidates(Collection<URI> uris, String engine) {
+		var list = new ArrayList<TuningConfig>();
+		var selected = DjlTools.selectEngine(engine, uris.toArray(URI[]::new));
+		list.add(new TuningConfig(selected == null ? engine : selected, new ArrayList<>(uris), 1, 1, 0));
+		if (uris.size() != 1)
+			return list;
+		var uri = uris.iterator().next();
+		if (!"file".equals(uri.getScheme()))
+			return list;
+		var path = Paths.get(uri);
+		var name = path.getFileName().toString();
+		int ind = name.lastIndexOf('.');
+		if (ind < 0)
+			return list;
+		var baseName = name.substring(0, ind);
+		var ext = name.substring(ind).toLowerCase(Locale.ROOT);
+		for (var entry : ENGINE_EXTENSIONS.entrySet()) {
+			var otherEngine = entry.getValue();
+			if (entry.getKey().equals(ext) || otherEngine.equals(list.get(0).getEngine()) || !Engine.hasEngine(otherEngine))
+				continue;
+			var other = path.resolveSibling(baseName + entry.getKey());
+			if (Files.isRegularFile(other)) {
+				logger.debug("Found {} for auto-tuning with {}", other, otherEngine);
+				list.add(new TuningConfig(otherEngine, List.of(other.toUri()), 1, 1, 0));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Remove all cached configurations, and delete the cache file.
+	 */
+	static synchronized void clear() {
+		configs.clear();
+		failedKeys.clear();
+		try {
+			Files.deleteIfExists(getCacheFile());
+		} catch (IOException e) {
+			logger.warn("Unable to delete auto-tuning cache: {}", e.getMessage());
+		}
+	}
+
+	private static TuningConfig getCachedConfig(String key) {
+		ensureLoaded();
+		return configs.get(key);
+	}
+
+	/**
+	 * Create a key from the model files, requested engine, batching support, input signature, CPU and DJL version.
+	 */
+	private static String createKey(Collection<URI> uris, String engine, boolean canBatch, String inputSignature) {
+		try {
+			var parts = new ArrayList<String>();
+			for (var uri : uris)
+				parts.add(CacheKeys.hash(uri));
+			parts.add(engine == null ? "" : engine);
+			parts.add(Boolean.toString(canBatch));
+			parts.add(inputSignature == null ? "" : inputSignature);
+			parts.add(CacheKeys.getCpuSignature());
+			parts.add(Engine.getDjlVersion());
+			return CacheKeys.create(parts.toArray(String[]::new)).substring(0, 32);
+		} catch (IOException e) {
+			logger.warn("Unable to create auto-tuning key: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static synchronized void ensureLoaded() {
+		if (isLoaded)
+			return;
+		isLoaded = true;
+		var file = getCacheFile();
+		Properties props;
+		try {
+			props = PropertiesFiles.read(file);
+		} catch (IOException e) {
+			logger.warn("Unable to read auto-tuning cache: {}", e.getMessage());
+			return;
+		}
+		for (var name : props.stringPropertyNames()) {
+			if (!name.endsWith(".engine"))
+				continue;
+			var key = name.substring(0, name.length() - ".engine".length());
+			try {
+				var uris = Arrays.stream(props.getProperty(key + ".uris", "").split("\\s+"))
+						.filter(s -> !s.isBlank())
+						.map(URI::create)
+						.collect(Collectors.toList());
+				var engine = props.getProperty(name);
+				var config = new TuningConfig(
+						engine.isBlank() ? null : engine,
+						uris,
+						Integer.parseInt(props.getProperty(key + ".batchSize", "1")),
+						Integer.parseInt(props.getProperty(key + ".replicas", "1")),
+						Integer.parseInt(props.getProperty(key + ".threads", "0")));
+				config.itemsPerSecond = Double.parseDouble(props.getProperty(key + ".itemsPerSecond", "NaN"));
+				configs.put(key, config);
+			} catch (IllegalArgumentException e) {
+				logger.debug("Invalid auto-tuning cache entry for {}", key);
+			}
+		}
+		logger.debug("Read {} auto-tuning cache entries from {}", configs.size(), file);
+	}
+
+	private static synchronized void save() {
+		ensureLoaded();
+		var props = new Properties();
+		for (var entry : configs.entrySet()) {
+			var key = entry.getKey();
+			var config = entry.getValue();
+			props.setProperty(key + ".engine", config.engine == null ? "" : config.engine);
+			props.setProperty(key + ".uris", config.uris.stream().map(URI::toString).collect(Collectors.joining(" ")));
+			props.setProperty(key + ".batchSize", Integer.toString(config.batchSize));
+			props.setProperty(key + ".replicas", Integer.toString(config.replicas));
+			props.setProperty(key + ".threads", Integer.toString(config.threadsPerReplica));
+			props.setProperty(key + ".itemsPerSecond", Double.toString(config.itemsPerSecond));
+		}
+		try {
+			PropertiesFiles.write(getCacheFile(), props, "QuPath DJL auto-tuning cache");
+		} catch (IOException e) {
+			logger.warn("Unable to write auto-tuning cache: {}", e.getMessage());
+		}
+	}
+
+	private static Path getCacheFile() {
+		return Utils.getCacheDir().resolve(FILE_NAME);
+	}
+
+}
@@ -16,29 +16,44 @@
 
 package qupath.ext.djl;
 
-import ai.djl.inference.Predictor;
+import ai.djl.MalformedModelException;
 import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDArrays;
 import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.ndarray.types.LayoutType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.repository.zoo.ModelNotFoundException;
 import ai.djl.repository.zoo.ZooModel;
 import ai.djl.translate.NoBatchifyTranslator;
 import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.io.UriResource;
 import qupath.opencv.dnn.DnnModel;
 import qupath.opencv.dnn.DnnShape;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 class DjlDnnModel implements DnnModel, AutoCloseable, UriResource {
@@ -54,15 +69,43 @@ class DjlDnnModel implements DnnModel, AutoCloseable, UriResource {
 	
 	private boolean lazyInitialize;
 
-	private transient boolean failed;
-	private transient ZooModel<Mat[], Mat[]> model;
-	private transient Predictor<Mat[], Mat[]> predictor;
+	private transient volatile boolean failed;
+	private transient volatile ZooModel<Mat[], Mat[]> model;
+	private transient volatile PredictorPool<Mat[], Mat[]> predictors;
+	private transient volatile PredictorPool<List<Mat>, List<Mat>> batchPredictors;
+	private transient volatile boolean batchFailed;
+	private transient volatile DynamicBatcher<Mat, Mat> batcher;
+	private transient volatile Map<String, ConversionPlan> conversionPlans;
+	private transient DjlAutoTuner.TuningConfig tuning;
+	
+	private static final String KEY_PLAN = "conversionPlan";
+	
+	/**
+	 * Maximum number of conversion plans to retain, e.g. for full tiles and differently-sized tiles at the image edge.
+	 */
+	private static final int MAX_PLANS = 8;
+	
+	/**
+	 * Direct buffers used to write channels-first inputs for each input index, reused by the same thread.
+	 * This is safe because the NDArrays created from them belong to the predictor context, and are closed 
+	 * before the thread can make another prediction. Buffers grow as needed, so mixed tile sizes don't 
+	 * require new allocations once the largest size has been seen.
+	 */
+	private static final ThreadLocal<ByteBuffer[]> inputBuffers = new ThreadLocal<>();
 
 	/**
 	 * Default layout for an OpenCV Mat
 	 */
 	private static final String DEFAULT_MAT_LAYOUT = getLayout(LayoutType.HEIGHT, LayoutType.WIDTH, LayoutType.CHANNEL);
 
+	/**
+	 * Create a model, optionally loading it immediately.
+	 * <p>
+	 * If auto-tuning is turned on and there is no cached result for the model, the tuning sweep runs 
+	 * during initialization. For a model that isn't initialized lazily, this means the first construction 
+	 * blocks the calling thread for the length of the sweep (typically several seconds).
+	 * @see DjlTools#setAutoTuning(boolean)
+	 */
 	DjlDnnModel(String engine, Collection<URI> uris, String ndLayout, Map<String, DnnShape> inputs, Map<String, DnnShape> outputs, boolean lazyInitialize) {
 		this.engine = engine;
 		this.uris = new ArrayList<>(uris);
@@ -77,87 +120,328 @@ class DjlDnnModel implements DnnModel, AutoCloseable, UriResource {
 			ensureInitialized();
 	}
 
-	private void ensureInitialized() {
-		if (model != null)
+	/**
+	 * Load the model if needed. Threads that arrive while another thread is initializing wait for it to finish.
+	 * If auto-tuning is needed, the sweep runs on the initializing thread while holding the lock, so all of these 
+	 * threads are blocked until it completes.
+	 */
+	void ensureInitialized() {
+		// Predictors are assigned last, so if we have them then initialization is complete
+		if (predictors != null || failed)
 			return;
-		if (!failed && model == null) {
-			synchronized (this) {
-				if (!failed && model == null) {
+		synchronized (this) {
+			if (predictors != null || failed)
+				return;
+			try {
+				logger.debug("Initializing DjlDnnModel");
+				// Load with the default settings first, since the input shapes are needed for auto-tuning
+				model = loadModel(Mat[].class, Mat[].class, new ModelMatTranslator(), null);
+				// TODO: Better handling of missing inputs/outputs - we may need to run a prediction for this to work
+				if (this.inputs == null || this.inputs.isEmpty()) {
+					var description = model.describeInput();
+					if (description != null && !description.isEmpty())
+						inputs = description.stream().collect(Collectors.toMap(p -> p.getKey(), p -> DjlTools.convertShape(p.getValue())));
+					else
+						inputs = Map.of(DnnModel.DEFAULT_INPUT_NAME, DnnShape.UNKNOWN_SHAPE);
+				}
+
+				if (this.outputs == null || this.outputs.isEmpty()) {
 					try {
-						logger.debug("Initializing DjlDnnModel");
-						model = DjlTools.loadModel(engine,
-								Mat[].class, Mat[].class,
-								new ModelMatTranslator(),
-								uris.toArray(URI[]::new));
-//						if (ndLayout != null && ndLayout.contains("N"))
-						predictor = model.newPredictor();
-
-
-						// TODO: Better handling of missing inputs/outputs - we may need to run a prediction for this to work
-						if (this.inputs == null || this.inputs.isEmpty()) {
-							var description = model.describeInput();
-							if (description != null && !description.isEmpty())
-								inputs = description.stream().collect(Collectors.toMap(p -> p.getKey(), p -> DjlTools.convertShape(p.getValue())));
-							else
-								inputs = Map.of(DnnModel.DEFAULT_INPUT_NAME, DnnShape.UNKNOWN_SHAPE);
-						}
+						var description = model.describeOutput();
+						if (description != null && !description.isEmpty())
+							outputs = description.stream().collect(Collectors.toMap(p -> p.getKey(), p -> DjlTools.convertShape(p.getValue())));
+					} catch (Exception e) {
+						logger.debug(e.getMessage(), e);
+					}
+					if (this.outputs == null || this.outputs.isEmpty())
+						outputs = Map.of(DnnModel.DEFAULT_OUTPUT_NAME, DnnShape.UNKNOWN_SHAPE);
+				}
+				
+				if (DjlTools.isAutoTuning()) {
+					tuning = DjlAutoTuner.getOrTune(uris, engine, canBatch(), createInputSignature(), this::benchmark);
+					if (tuning != null && !isDefaultLoad(tuning)) {
+						logger.debug("Reloading model for auto-tuned configuration {}", tuning);
+						var tuned = loadModel(Mat[].class, Mat[].class, new ModelMatTranslator(), tuning);
+						model.close();
+						model = tuned;
+					}
+				}
+				
+				// Predictors aren't thread-safe, so use a pool rather than synchronizing on one.
+				// Predictors are created lazily, so we only create as many as we need.
+				var zooModel = model;
+				var pool = new PredictorPool<Mat[], Mat[]>(() -> zooModel.newPredictor(), getPoolSize());
+				
+				// Optionally coalesce concurrent single predictions into batches
+				int maxBatchSize = tuning == null ? DjlTools.getDynamicBatchSize() : tuning.getBatchSize();
+				if (maxBatchSize > 1 && canBatch() && outputs.size() == 1) {
+					logger.debug("Enabling dynamic batching (max batch size {})", maxBatchSize);
+					batcher = new DynamicBatcher<>(this::predictGrouped, 
+							maxBatchSize, DjlTools.getDynamicBatchDelayMillis(), pool.getMaxSize());
+				}
+				predictors = pool;
+			} catch (Exception e) {
+				failed = true;
+				if (model != null) {
+					model.close();
+					model = null;
+				}
+				logger.debug("Failed to create DjlDnnModel");
+				throw new RuntimeException(e);
+			}
+		}
+	}
 
-						if (this.outputs == null || this.outputs.isEmpty()) {
-							try {
-								var description = model.describeOutput();
-								if (description != null && !description.isEmpty())
-									outputs = description.stream().collect(Collectors.toMap(p -> p.getKey(), p -> DjlTools.convertShape(p.getValue())));
-							} catch (Exception e) {
-								logger.debug(e.getMessage(), e);
-							}
-							if (this.outputs == null || this.outputs.isEmpty())
-								outputs = Map.of(DnnModel.DEFAULT_OUTPUT_NAME, DnnShape.UNKNOWN_SHAPE);
+	/**
+	 * Check whether initialization has completed successfully.
+	 */
+	boolean isInitialized() {
+		return predictors != null;
+	}
+
+	/**
+	 * Describe the layout and input shapes, so that auto-tuning results are only reused for the same inputs.
+	 */
+	private String createInputSignature() {
+		var sb = new StringBuilder("DjlDnnModel:").append(ndLayout);
+		for (var entry : new TreeMap<>(inputs).entrySet()) {
+			var shape = entry.getValue() == null ? null : entry.getValue().getShape();
+			sb.append(";").append(entry.getKey()).append("=").append(Arrays.toString(shape));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Check whether the model loaded with the default settings can be used for an auto-tuned configuration, 
+	 * i.e. it uses the same engine and files, and the configuration doesn't need any per-model thread options.
+	 */
+	private boolean isDefaultLoad(DjlAutoTuner.TuningConfig config) {
+		var defaultUris = uris.toArray(URI[]::new);
+		return Objects.equals(config.getEngine(), DjlTools.selectEngine(engine, defaultUris))
+				&& Arrays.equals(config.getURIs(), defaultUris)
+				&& ModelReplicas.getThreadOptions(config.getEngine(), config.getThreadsPerReplica()).isEmpty();
+	}
+	
+	/**
+	 * Get the maximum number of predictions to run concurrently.
+	 */
+	private int getPoolSize() {
+		if (tuning != null)
+			return tuning.getReplicas();
+		return Math.max(1, ThreadTools.getParallelism());
+	}
+	
+	/**
+	 * Load the model, using the auto-tuned engine and thread settings if available.
+	 */
+	<I, O> ZooModel<I, O> loadModel(Class<I> inputClass, Class<O> outputClass, Translator<I, O> translator, DjlAutoTuner.TuningConfig config) throws ModelNotFoundException, MalformedModelException, IOException {
+		if (config == null)
+			return DjlTools.loadModel(engine, inputClass, outputClass, translator, uris.toArray(URI[]::new));
+		var options = ModelReplicas.getThreadOptions(config.getEngine(), config.getThreadsPerReplica());
+		if (options.isEmpty() && config.getReplicas() > 1 && config.getThreadsPerReplica() > 0)
+			ModelReplicas.logThreadBudgetUnsupported(config.getEngine(), config.getThreadsPerReplica());
+		return DjlTools.loadModel(config.getEngine(), inputClass, outputClass, translator, options, config.getURIs());
+	}
+	
+	/**
+	 * Measure the throughput for an auto-tuning configuration, using constant input of the expected shape.
+	 */
+	private double benchmark(DjlAutoTuner.TuningConfig config, long durationMillis) throws Exception {
+		var input = createSyntheticInput();
+		try {
+			if (config.getBatchSize() > 1) {
+				if (input.length != 1)
+					throw new UnsupportedOperationException("Batching is only supported for a single input");
+				var batch = Collections.nCopies(config.getBatchSize(), input[0]);
+				@SuppressWarnings("unchecked")
+				var listClass = (Class<List<Mat>>)(Class<?>)List.class;
+				try (var trial = loadModel(listClass, listClass, new BatchMatTranslator(), config);
+						var replicas = ModelReplicas.share(trial, config.getReplicas())) {
+					return DjlAutoTuner.measureThroughput(replicas, batch.size(), durationMillis, (i, predictor) -> {
+						try (var scope = new PointerScope()) {
+							return predictor.predict(batch).size();
 						}
-					} catch (Exception e) {
-						failed = true;
-						logger.debug("Failed to create DjlDnnModel");
-						throw new RuntimeException(e);
+					});
+				}
+			} else {
+				try (var trial = loadModel(Mat[].class, Mat[].class, new ModelMatTranslator(), config);
+						var replicas = ModelReplicas.share(trial, config.getReplicas())) {
+					return DjlAutoTuner.measureThroughput(replicas, 1, durationMillis, (i, predictor) -> {
+						try (var scope = new PointerScope()) {
+							return predictor.predict(input).length;
+						}
+					});
+				}
+			}
+		} finally {
+			for (var mat : input)
+				mat.close();
+		}
+	}
+	
+	/**
+	 * Create constant input Mats based on the input shapes, using 512x512x3 for any unknown sizes.
+	 */
+	private Mat[] createSyntheticInput() {
+		if (ndLayout == null || inputs == null || inputs.isEmpty())
+			throw new UnsupportedOperationException("The layout and input shapes are needed to create synthetic input");
+		var mats = new Mat[inputs.size()];
+		int i = 0;
+		for (var shape : inputs.values()) {
+			int height = 512, width = 512, channels = 3;
+			var dims = shape == null ? null : shape.getShape();
+			if (dims != null && dims.length == ndLayout.length()) {
+				for (int d = 0; d < dims.length; d++) {
+					if (dims[d] <= 0)
+						continue;
+					switch (ndLayout.charAt(d)) {
+					case 'H': height = (int)dims[d]; break;
+					case 'W': width = (int)dims[d]; break;
+					case 'C': channels = (int)dims[d]; break;
+					default: break;
 					}
 				}
 			}
+			mats[i++] = new Mat(height, width, opencv_core.CV_32FC(channels), Scalar.all(0.5));
 		}
+		return mats;
 	}
 
 	@Override
 	public Map<String, Mat> predict(Map<String, Mat> blobs) {
-		synchronized (predictor) {
-			try {
-				var result = predictor.predict(blobs.values().stream().toArray(Mat[]::new));
-				if (result.length == 1)
-					return Map.of(DnnModel.DEFAULT_OUTPUT_NAME, result[0]);
-				else if (result.length == 0)
-					return Map.of();
-				else {
-					// Try to handle multiple outputs, naming them sequentially
-					Map<String, Mat> output = new LinkedHashMap<>();
-					for (int i = 0; i < result.length; i++) {
-						output.put(DEFAULT_OUTPUT_NAME + i, result[i]);
-					}
-					return output;
+		ensureInitialized();
+		// Coalesce single inputs with those from other threads, if requested
+		var batcher = this.batcher;
+		if (batcher != null && blobs.size() == 1)
+			return Map.of(DnnModel.DEFAULT_OUTPUT_NAME, batcher.predict(blobs.values().iterator().next()));
+		return predictWithPool(blobs);
+	}
+	
+	private Map<String, Mat> predictWithPool(Map<String, Mat> blobs) {
+		var pool = predictors;
+		if (pool == null)
+			throw new IllegalStateException("DjlDnnModel is not initialized (it may have failed or been closed)");
+		try {
+			var result = pool.predict(blobs.values().stream().toArray(Mat[]::new));
+			if (result.length == 1)
+				return Map.of(DnnModel.DEFAULT_OUTPUT_NAME, result[0]);
+			else if (result.length == 0)
+				return Map.of();
+			else {
+				// Try to handle multiple outputs, naming them sequentially
+				Map<String, Mat> output = new LinkedHashMap<>();
+				for (int i = 0; i < result.length; i++) {
+					output.put(DEFAULT_OUTPUT_NAME + i, result[i]);
 				}
-			} catch (TranslateException e) {
-				throw new RuntimeException(e);
+				return output;
 			}
+		} catch (TranslateException e) {
+			throw new RuntimeException(e);
 		}
 	}
+	
+	/**
+	 * Predict a single output, bypassing any dynamic batching.
+	 */
+	private Mat predictSingle(Mat mat) {
+		var output = predictWithPool(Map.of(DnnModel.DEFAULT_INPUT_NAME, mat));
+		return output.isEmpty() ? null : output.values().iterator().next();
+	}
 
 	@Override
 	public Mat predict(Mat mat) {
 		return DnnModel.super.predict(mat);
 	}
 
+	/**
+	 * Predict outputs for a list of inputs.
+	 * <p>
+	 * If the layout includes a batch dimension (N), inputs with the same size and type are 
+	 * stacked into a single tensor and passed through the model in one forward pass.
+	 * Otherwise (or if batching fails), each input is predicted separately.
+	 */
 	@Override
 	public List<Mat> batchPredict(List<? extends Mat> mats) {
-		return DnnModel.super.batchPredict(mats);
+		if (mats.size() <= 1 || !canBatch())
+			return DnnModel.super.batchPredict(mats);
+		ensureInitialized();
+		return predictGrouped(mats);
+	}
+	
+	private List<Mat> predictGrouped(List<? extends Mat> mats) {
+		// Group inputs with the same dimensions & type, retaining the original order for the output
+		Map<String, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < mats.size(); i++) {
+			var mat = mats.get(i);
+			var key = mat.rows() + "x" + mat.cols() + "x" + mat.type();
+			groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+		}
+		
+		var output = new Mat[mats.size()];
+		for (var inds : groups.values()) {
+			var batch = inds.stream().map(i -> (Mat)mats.get(i)).collect(Collectors.toList());
+			var batchOutput = predictBatch(batch);
+			for (int i = 0; i < inds.size(); i++) {
+				output[inds.get(i)] = batchOutput.get(i);
+			}
+		}
+		return Arrays.asList(output);
+	}
+	
+	private boolean canBatch() {
+		return !batchFailed && ndLayout != null && ndLayout.indexOf('N') >= 0;
+	}
+	
+	/**
+	 * Predict outputs for inputs that all have the same size and type, bypassing any dynamic batching.
+	 */
+	private List<Mat> predictBatch(List<Mat> batch) {
+		if (batch.size() == 1)
+			return Collections.singletonList(predictSingle(batch.get(0)));
+		if (canBatch()) {
+			try {
+				var result = getBatchPredictors().predict(batch);
+				if (result.size() == batch.size())
+					return result;
+				logger.warn("Batch prediction returned {} outputs for {} inputs - will predict individually", result.size(), batch.size());
+			} catch (Exception e) {
+				logger.warn("Batch prediction failed - will predict individually ({})", e.getMessage());
+				logger.debug(e.getMessage(), e);
+			}
+			batchFailed = true;
+		}
+		return batch.stream().map(this::predictSingle).collect(Collectors.toList());
+	}
+	
+	private PredictorPool<List<Mat>, List<Mat>> getBatchPredictors() {
+		if (batchPredictors == null) {
+			synchronized (this) {
+				if (batchPredictors == null) {
+					if (model == null)
+						throw new IllegalStateException("DjlDnnModel is not initialized (it may have failed or been closed)");
+					var zooModel = model;
+					var translator = new BatchMatTranslator();
+					batchPredictors = new PredictorPool<>(() -> zooModel.newPredictor(translator), getPoolSize());
+				}
+			}
+		}
+		return batchPredictors;
 	}
 
 	@Override
 	public synchronized void close() throws Exception {
+		if (batcher != null) {
+			batcher.close();
+			batcher = null;
+		}
+		if (predictors != null) {
+			predictors.close();
+			predictors = null;
+		}
+		if (batchPredictors != null) {
+			batchPredictors.close();
+			batchPredictors = null;
+		}
 		if (model != null) {
 			model.close();
 			model = null;
@@ -202,31 +486,182 @@ class DjlDnnModel implements DnnModel, AutoCloseable, UriResource {
 	
 	
 
+	/**
+	 * Get the conversion plan for the specified inputs, creating a new plan only if no plan has 
+	 * been created for inputs with the same sizes and types.
+	 * A small number of plans are retained, so that tiles of different sizes don't repeatedly replace each other's plans.
+	 */
+	private ConversionPlan getConversionPlan(Mat... input) {
+		var plans = conversionPlans;
+		if (plans == null) {
+			synchronized (this) {
+				if (conversionPlans == null) {
+					conversionPlans = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+						private static final long serialVersionUID = 1L;
+						@Override
+						protected boolean removeEldestEntry(Map.Entry<String, ConversionPlan> eldest) {
+							return size() > MAX_PLANS;
+						}
+					});
+				}
+				plans = conversionPlans;
+			}
+		}
+		var key = ConversionPlan.createKey(input);
+		var plan = plans.get(key);
+		if (plan == null) {
+			plan = new ConversionPlan(ndLayout, input);
+			logger.debug("Created conversion plan for inputs {} with layouts {}", key, Arrays.toString(plan.inputLayouts));
+			plans.put(key, plan);
+		}
+		return plan;
+	}
+	
+	/**
+	 * Get a direct buffer for channels-first input, for use by the current thread.
+	 * @param index the input index
+	 * @param nBytes the number of bytes required
+	 * @return a buffer with native byte order and exactly nBytes remaining
+	 */
+	private static ByteBuffer getInputBuffer(int index, int nBytes) {
+		var buffers = inputBuffers.get();
+		if (buffers == null || buffers.length <= index) {
+			buffers = buffers == null ? new ByteBuffer[index + 1] : Arrays.copyOf(buffers, index + 1);
+			inputBuffers.set(buffers);
+		}
+		var buffer = buffers[index];
+		if (buffer == null || buffer.capacity() < nBytes) {
+			buffer = ByteBuffer.allocateDirect(nBytes).order(ByteOrder.nativeOrder());
+			buffers[index] = buffer;
+		}
+		return buffer.duplicate().clear().limit(nBytes).slice().order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Conversion plan for a specific set of input sizes and types.
+	 * This means we only need to determine layouts, shapes and data types once, rather than for every tile.
+	 * Output layouts are determined from the first output, and then reused.
+	 */
+	private static class ConversionPlan {
+		
+		private final String ndLayout;
+		private final String[] inputLayouts;
+		private final Shape[] inputShapes;
+		private final DataType[] inputDataTypes;
+		private final boolean[] inputPlanar;
+		
+		private volatile String[] outputLayouts;
+		
+		private ConversionPlan(String ndLayout, Mat... input) {
+			this.ndLayout = ndLayout;
+			int n = input.length;
+			inputLayouts = new String[n];
+			inputShapes = new Shape[n];
+			inputDataTypes = new DataType[n];
+			inputPlanar = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				var mat = input[i];
+				// Try to figure out the layout
+				var layout = ndLayout == null ? estimateInputLayout(mat) : ndLayout;
+				var dataType = DjlTools.getDataType(mat);
+				if (dataType == DataType.UNKNOWN)
+					throw new IllegalArgumentException("Unsupported data type for " + mat);
+				inputLayouts[i] = layout;
+				inputShapes[i] = DjlTools.getShape(mat, layout);
+				inputDataTypes[i] = dataType;
+				inputPlanar[i] = DjlTools.isPlanarLayout(layout, inputShapes[i]);
+			}
+		}
+		
+		private static String createKey(Mat... input) {
+			var sb = new StringBuilder();
+			for (var mat : input)
+				sb.append(mat.rows()).append('x').append(mat.cols()).append('x').append(mat.type()).append(';');
+			return sb.toString();
+		}
+		
+		private NDList toNDList(NDManager manager, Mat... input) {
+			var list = new NDList(input.length);
+			for (int i = 0; i < input.length; i++) {
+				var mat = input[i];
+				ByteBuffer buffer = null;
+				if (inputPlanar[i])
+					buffer = getInputBuffer(i, Math.toIntExact(mat.total() * mat.elemSize()));
+				list.add(DjlTools.matToNDArray(manager, mat, inputShapes[i], inputDataTypes[i], inputPlanar[i], buffer));
+			}
+			return list;
+		}
+		
+		private Mat[] toMats(NDList list) {
+			var layouts = outputLayouts;
+			if (layouts == null || layouts.length != list.size()) {
+				layouts = new String[list.size()];
+				for (int i = 0; i < layouts.length; i++) {
+					var array = list.get(i);
+					if (ndLayout == null || ndLayout.length() != array.getShape().dimension())
+						layouts[i] = estimateOutputLayout(array);
+					else
+						layouts[i] = ndLayout;
+				}
+				outputLayouts = layouts;
+			}
+			var output = new Mat[list.size()];
+			for (int i = 0; i < output.length; i++) {
+				output[i] = DjlTools.ndArrayToMat(list.get(i), layouts[i]);
+			}
+			return output;
+		}
+		
+	}
+
 	private class ModelMatTranslator implements NoBatchifyTranslator<Mat[], Mat[]> {
 
 		@Override
 		public Mat[] processOutput(TranslatorContext ctx, NDList list) throws Exception {
-			String layout;
-			if ((ndLayout == null || ndLayout.length() != list.get(0).getShape().dimension()) && !list.isEmpty())
-				layout = estimateOutputLayout(list.get(0));
-			else
-				layout = ndLayout;
-			var output = list.stream().map(b -> DjlTools.ndArrayToMat(b, layout)).toArray(Mat[]::new);
-			return output;
+			var plan = (ConversionPlan)ctx.getAttachment(KEY_PLAN);
+			return plan.toMats(list);
 		}
 
 		@Override
 		public NDList processInput(TranslatorContext ctx, Mat... input) throws Exception {
-			NDList list = new NDList();
-			String layout = ndLayout;
+			var plan = getConversionPlan(input);
+			ctx.setAttachment(KEY_PLAN, plan);
+			return plan.toNDList(ctx.getNDManager(), input);
+		}
+	}
+
+	/**
+	 * Translator that stacks a list of same-sized inputs along the batch dimension, 
+	 * and splits the first output back into one Mat per input.
+	 */
+	private class BatchMatTranslator implements NoBatchifyTranslator<List<Mat>, List<Mat>> {
+
+		@Override
+		public NDList processInput(TranslatorContext ctx, List<Mat> input) throws Exception {
+			int axis = ndLayout.indexOf('N');
+			var manager = ctx.getNDManager();
+			var arrays = new NDList(input.size());
 			for (var mat : input) {
-				// Try to figure out the layout
-				if (layout == null) {
-					layout = estimateInputLayout(mat);
+				arrays.add(DjlTools.matToNDArray(manager, mat, ndLayout));
+			}
+			return new NDList(NDArrays.concat(arrays, axis));
+		}
+
+		@Override
+		public List<Mat> processOutput(TranslatorContext ctx, NDList list) throws Exception {
+			var array = list.get(0);
+			var shape = array.getShape();
+			if (ndLayout.length() != shape.dimension())
+				throw new IllegalArgumentException("Can't find batch dimension for output shape " + shape + " with layout " + ndLayout);
+			int axis = ndLayout.indexOf('N');
+			int n = (int)shape.get(axis);
+			var output = new ArrayList<Mat>(n);
+			try (var parts = array.split(n, axis)) {
+				for (var part : parts) {
+					output.add(DjlTools.ndArrayToMat(part, ndLayout));
 				}
-				list.add(DjlTools.matToNDArray(ctx.getNDManager(), mat, layout));
 			}
-			return list;
+			return output;
 		}
 	}
 
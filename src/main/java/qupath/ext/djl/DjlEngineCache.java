@@ -0,0 +1,261 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.engine.Engine;
+import ai.djl.util.Utils;
+
+/**
+ * Persistent cache of engine availability, so that we don't need to initialize every engine
+ * each time QuPath starts just to find out if it is available.
+ * <p>
+ * Entries are stored in a small properties file in the DJL cache directory.
+ * Each entry records the engine's cache directory and its last modified time; if the directory
+ * has changed (e.g. because a new native library was downloaded or the directory was deleted),
+ * the entry is ignored. The whole cache is ignored if the DJL version changes.
+ */
+public class DjlEngineCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(DjlEngineCache.class);
+
+	private static final String FILE_NAME = "qupath-engines.properties";
+
+	private static final String KEY_DJL_VERSION = "djl.version";
+
+	private static final Map<String, EngineInfo> entries = new ConcurrentHashMap<>();
+
+	private static boolean isLoaded = false;
+
+	// Suppress default constructor
+	private DjlEngineCache() {}
+
+	/**
+	 * Cached information about an engine.
+	 */
+	public static class EngineInfo {
+
+		private final String name;
+		private final boolean available;
+		private final String version;
+		private final String path;
+		private final long lastModified;
+
+		private EngineInfo(String name, boolean available, String version, String path, long lastModified) {
+			this.name = name;
+			this.available = available;
+			this.version = version;
+			this.path = path;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Name of the engine.
+		 * @return
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Whether the engine could be loaded when the entry was created.
+		 * @return
+		 */
+		public boolean isAvailable() {
+			return available;
+		}
+
+		/**
+		 * Engine version, or null if unknown.
+		 * @return
+		 */
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * Path to the directory containing the engine's native libraries.
+		 * @return
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		private boolean isValid() {
+			return lastModified == getLastModified(getEngineDir(name));
+		}
+
+		@Override
+		public String toString() {
+			return "EngineInfo [name=" + name + ", available=" + available + ", version=" + version + ", path=" + path + "]";
+		}
+
+	}
+
+	/**
+	 * Get the cached information for an engine, if it is still valid.
+	 * @param name the engine name
+	 * @return the cached information, or null if there is no valid entry
+	 */
+	public static EngineInfo getEngineInfo(String name) {
+		ensureLoaded();
+		var info = entries.get(name);
+		if (info == null)
+			return null;
+		if (info.isValid())
+			return info;
+		logger.debug("Cached engine info is out of date for {}", name);
+		entries.remove(name, info);
+		return null;
+	}
+
+	/**
+	 * Check if the cache indicates that an engine is available.
+	 * @param name the engine name
+	 * @return true if there is a valid cache entry for the engine, and the engine was available
+	 */
+	public static boolean isAvailable(String name) {
+		var info = getEngineInfo(name);
+		return info != null && info.isAvailable();
+	}
+
+	/**
+	 * Get the cached version of an engine.
+	 * @param name the engine name
+	 * @return the version if known, or null otherwise
+	 */
+	public static String getVersion(String name) {
+		var info = getEngineInfo(name);
+		return info == null ? null : info.getVersion();
+	}
+
+	/**
+	 * Record the result of an attempt to load an engine, and write the cache to disk.
+	 * @param name the engine name
+	 * @param engine the engine, or null if it could not be loaded
+	 */
+	static void update(String name, Engine engine) {
+		ensureLoaded();
+		var dir = getEngineDir(name);
+		String version = null;
+		if (engine != null) {
+			try {
+				version = engine.getVersion();
+			} catch (Exception e) {
+				logger.debug("Unable to get version for {}: {}", name, e.getMessage());
+			}
+		}
+		var info = new EngineInfo(name, engine != null, version, dir.toString(), getLastModified(dir));
+		entries.put(name, info);
+		save();
+	}
+
+	/**
+	 * Remove all cached entries, and delete the cache file.
+	 */
+	public static synchronized void clear() {
+		entries.clear();
+		try {
+			Files.deleteIfExists(getCacheFile());
+		} catch (IOException e) {
+			logger.warn("Unable to delete engine cache: {}", e.getMessage());
+		}
+	}
+
+	private static synchronized void ensureLoaded() {
+		if (isLoaded)
+			return;
+		isLoaded = true;
+		var file = getCacheFile();
+		Properties props;
+		try {
+			props = PropertiesFiles.read(file);
+		} catch (IOException e) {
+			logger.warn("Unable to read engine cache: {}", e.getMessage());
+			return;
+		}
+		if (props.isEmpty())
+			return;
+		if (!Engine.getDjlVersion().equals(props.getProperty(KEY_DJL_VERSION))) {
+			logger.debug("Ignoring engine cache created for DJL {}", props.getProperty(KEY_DJL_VERSION));
+			return;
+		}
+		for (var name : Engine.getAllEngines()) {
+			var available = props.getProperty(name + ".available");
+			if (available == null)
+				continue;
+			try {
+				var info = new EngineInfo(
+						name,
+						Boolean.parseBoolean(available),
+						props.getProperty(name + ".version"),
+						props.getProperty(name + ".path"),
+						Long.parseLong(props.getProperty(name + ".modified", "-1")));
+				entries.put(name, info);
+			} catch (NumberFormatException e) {
+				logger.debug("Invalid engine cache entry for {}", name);
+			}
+		}
+		logger.debug("Read {} engine cache entries from {}", entries.size(), file);
+	}
+
+	private static synchronized void save() {
+		var props = new Properties();
+		props.setProperty(KEY_DJL_VERSION, Engine.getDjlVersion());
+		for (var info : entries.values()) {
+			props.setProperty(info.name + ".available", Boolean.toString(info.available));
+			if (info.version != null)
+				props.setProperty(info.name + ".version", info.version);
+			props.setProperty(info.name + ".path", info.path);
+			props.setProperty(info.name + ".modified", Long.toString(info.lastModified));
+		}
+		try {
+			PropertiesFiles.write(getCacheFile(), props, "QuPath DJL engine cache");
+		} catch (IOException e) {
+			logger.warn("Unable to write engine cache: {}", e.getMessage());
+		}
+	}
+
+	private static Path getCacheFile() {
+		return Utils.getCacheDir().resolve(FILE_NAME);
+	}
+
+	private static Path getEngineDir(String name) {
+		// Names seem to be lower case in practice
+		return Utils.getEngineCacheDir(name.toLowerCase());
+	}
+
+	private static long getLastModified(Path path) {
+		try {
+			if (Files.isDirectory(path))
+				return Files.getLastModifiedTime(path).toMillis();
+		} catch (IOException e) {
+			logger.debug("Unable to get last modified time for {}", path);
+		}
+		return -1L;
+	}
+
+}
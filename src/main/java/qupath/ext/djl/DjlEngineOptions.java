@@ -0,0 +1,162 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.reflect.TypeToken;
+
+import ai.djl.repository.zoo.Criteria;
+import javafx.beans.property.StringProperty;
+import qupath.lib.gui.prefs.PathPrefs;
+import qupath.lib.io.GsonTools;
+
+/**
+ * Per-engine options that are applied whenever a model is loaded through {@link DjlTools}.
+ * <p>
+ * Options with keys starting with {@code ai.djl.} are treated as engine properties, and set as
+ * system properties before the engine is initialized.
+ * All other options are passed to {@link Criteria.Builder#optOption(String, String)}.
+ * <p>
+ * Options are stored in QuPath's preferences, so they persist between sessions.
+ */
+class DjlEngineOptions {
+
+	private static final Logger logger = LoggerFactory.getLogger(DjlEngineOptions.class);
+
+	private static final String PROPERTY_PREFIX = "ai.djl.";
+
+	private static final StringProperty optionsPref = PathPrefs.createPersistentPreference("djl.engineOptions", "");
+
+	private static final Map<String, Map<String, String>> options = readOptions();
+
+	// Suppress default constructor
+	private DjlEngineOptions() {}
+
+	/**
+	 * Set an option for an engine.
+	 * @param engineName
+	 * @param key
+	 * @param value the value, or null if the option should be removed
+	 */
+	static synchronized void setOption(String engineName, String key, String value) {
+		var engineOptions = options.computeIfAbsent(engineName, e -> new LinkedHashMap<>());
+		if (value == null)
+			engineOptions.remove(key);
+		else
+			engineOptions.put(key, value);
+		if (engineOptions.isEmpty())
+			options.remove(engineName);
+		if (isEngineProperty(key)) {
+			if (value == null)
+				System.clearProperty(key);
+			else
+				System.setProperty(key, value);
+			if (DjlTools.loadedEngines.contains(engineName))
+				logger.warn("{} is already initialized - {} will only be used after restarting QuPath", engineName, key);
+		}
+		writeOptions();
+	}
+
+	/**
+	 * Get an unmodifiable copy of all the options for an engine.
+	 * @param engineName
+	 * @return
+	 */
+	static synchronized Map<String, String> getOptions(String engineName) {
+		var engineOptions = options.getOrDefault(engineName, Collections.emptyMap());
+		return Collections.unmodifiableMap(new LinkedHashMap<>(engineOptions));
+	}
+
+	/**
+	 * Remove all options for an engine.
+	 * Any engine properties will remain set until QuPath is restarted.
+	 * @param engineName
+	 */
+	static synchronized void clearOptions(String engineName) {
+		if (options.remove(engineName) != null)
+			writeOptions();
+	}
+
+	/**
+	 * Set any engine properties as system properties.
+	 * This should be called before the engine is initialized.
+	 * @param engineName
+	 */
+	static void applyEngineProperties(String engineName) {
+		for (var entry : getOptions(engineName).entrySet()) {
+			if (isEngineProperty(entry.getKey()))
+				System.setProperty(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Set the engine properties for all engines as system properties.
+	 * This should be called before loading a model when the engine isn't known in advance, 
+	 * since DJL may then initialize any engine.
+	 */
+	static synchronized void applyAllEngineProperties() {
+		for (var engineName : options.keySet())
+			applyEngineProperties(engineName);
+	}
+
+	/**
+	 * Add all model options for an engine to a criteria builder.
+	 * @param engineName
+	 * @param builder
+	 */
+	static void applyModelOptions(String engineName, Criteria.Builder<?, ?> builder) {
+		for (var entry : getOptions(engineName).entrySet()) {
+			if (!isEngineProperty(entry.getKey())) {
+				logger.debug("Setting {} option {}={}", engineName, entry.getKey(), entry.getValue());
+				builder.optOption(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static boolean isEngineProperty(String key) {
+		return key.startsWith(PROPERTY_PREFIX);
+	}
+
+	private static Map<String, Map<String, String>> readOptions() {
+		var json = optionsPref.get();
+		Map<String, Map<String, String>> map = new LinkedHashMap<>();
+		if (json != null && !json.isBlank()) {
+			try {
+				Map<String, Map<String, String>> stored = GsonTools.getInstance().fromJson(json,
+						new TypeToken<Map<String, Map<String, String>>>() {}.getType());
+				if (stored != null) {
+					for (var entry : stored.entrySet())
+						map.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+				}
+			} catch (Exception e) {
+				logger.warn("Unable to read DJL engine options: {}", e.getMessage());
+			}
+		}
+		return map;
+	}
+
+	private static void writeOptions() {
+		optionsPref.set(options.isEmpty() ? "" : GsonTools.getInstance().toJson(options));
+	}
+
+}
@@ -56,6 +56,10 @@ public class DjlExtension implements QuPathExtension, GitHubProject {
 		// Use this instead of a ServiceLoader for now, because we can't rely upon 
 		// the context class loader finding the builder
 		DnnModels.registerBuilder(builder);
+		// Allow prediction servers to be stored in projects
+		DjlZoo.registerServerBuilder();
+		// Load any engines we know are available in the background, so they are ready when needed
+		DjlTools.prefetchEngines();
 		var menu = qupath.getMenu("Extensions>Deep Java Library", true);
 		MenuTools.addMenuItems(
 				menu,
@@ -8,35 +8,64 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ai.djl.MalformedModelException;
+import ai.djl.inference.Predictor;
 import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.ImageFactory;
 import ai.djl.modality.cv.output.DetectedObjects;
 import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
 import ai.djl.repository.zoo.ModelNotFoundException;
-import ai.djl.repository.zoo.ZooModel;
 import ai.djl.translate.TranslateException;
 import ai.djl.translate.Translator;
+import ai.djl.util.Progress;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.GeometryTools;
 import qupath.lib.roi.ROIs;
 import org.locationtech.jts.geom.Geometry;
 
 public class DjlObjectDetector implements AutoCloseable {
     
     private static final Logger logger = LoggerFactory.getLogger(DjlObjectDetector.class);
-    private ZooModel<Image, DetectedObjects> model;
+    
+    /**
+     * Maximum number of tiles to read while waiting for the model to load.
+     */
+    private static final int MAX_PREFETCH_TILES = 16;
+    
+    private static final ExecutorService loadPool = Executors.newCachedThreadPool(
+            ThreadTools.createThreadFactory("djl-model-loader", true));
+    
+    private final String engine;
+    private final URI modelUri;
+    private final Translator<Image, DetectedObjects> translator;
+    private volatile ModelReplicas<Image, DetectedObjects> replicas;
+    private final AtomicReference<CompletableFuture<DjlObjectDetector>> loading = new AtomicReference<>();
+    private int threadsPerReplica;
+    private DjlAutoTuner.TuningConfig tuning;
     private int inputSize;
     private double overlapPercentage;
     private double iouThreshold;
@@ -77,15 +106,153 @@ public class DjlObjectDetector implements AutoCloseable {
                             int inputSize, double overlapPercentage, double iouThreshold, 
                             double defaultConfidenceThreshold) 
             throws ModelNotFoundException, MalformedModelException, IOException {
+        this(engine, modelUri, translator, inputSize, overlapPercentage, iouThreshold, defaultConfidenceThreshold, false);
+        loadModel(null);
+    }
+    
+    /**
+     * Create a detector without loading the model. The flag is only needed to distinguish this from the public constructor.
+     */
+    private DjlObjectDetector(String engine, URI modelUri, Translator<Image, DetectedObjects> translator, 
+                            int inputSize, double overlapPercentage, double iouThreshold, 
+                            double defaultConfidenceThreshold, boolean lazy) {
         this.inputSize = inputSize;
         this.overlapPercentage = Math.min(Math.max(overlapPercentage, 0.0), 1.0);
         this.iouThreshold = Math.min(Math.max(iouThreshold, 0.0), 1.0);
         this.defaultConfidenceThreshold = Math.min(Math.max(defaultConfidenceThreshold, 0.0), 1.0);
         this.confidenceThresholds = new HashMap<>();
-        initializeModel(modelUri, engine, translator);
+        this.engine = engine;
+        this.modelUri = modelUri;
+        this.translator = translator;
         System.setProperty("logging.level.qupath.ext.djl", "DEBUG");
     }
     
+    /**
+     * Create a DjlObjectDetector that doesn't load its model until it is first needed by 
+     * {@link #detect(ImageData, Collection)} (or {@link #loadAsync(Progress)} is called).
+     * When detection starts, tiles are planned and prefetched while the model loads.
+     * 
+     * @param engine the DJL engine to use (e.g. "PyTorch", "TensorFlow")
+     * @param modelUri the URI to the model file
+     * @param translator the translator to use with the model
+     * @param inputSize the expected input size for the model (e.g. 640 for YOLOv8)
+     * @param overlapPercentage the percentage of overlap between tiles (0.0 to 1.0)
+     * @param iouThreshold the threshold for Non-Maximum Suppression (0.0 to 1.0)
+     * @param defaultConfidenceThreshold the default confidence threshold to apply to all classes
+     * @return the detector, without a loaded model
+     */
+    public static DjlObjectDetector createLazy(String engine, URI modelUri, Translator<Image, DetectedObjects> translator, 
+                            int inputSize, double overlapPercentage, double iouThreshold, 
+                            double defaultConfidenceThreshold) {
+        return new DjlObjectDetector(engine, modelUri, translator, inputSize, overlapPercentage, iouThreshold, defaultConfidenceThreshold, true);
+    }
+    
+    /**
+     * Create a DjlObjectDetector, loading its model in a background thread.
+     * <p>
+     * The returned future can be cancelled; this interrupts loading where possible, and any 
+     * model that has already been loaded is closed.
+     * 
+     * @param engine the DJL engine to use (e.g. "PyTorch", "TensorFlow")
+     * @param modelUri the URI to the model file
+     * @param translator the translator to use with the model
+     * @param inputSize the expected input size for the model (e.g. 640 for YOLOv8)
+     * @param overlapPercentage the percentage of overlap between tiles (0.0 to 1.0)
+     * @param iouThreshold the threshold for Non-Maximum Suppression (0.0 to 1.0)
+     * @param defaultConfidenceThreshold the default confidence threshold to apply to all classes
+     * @param progress optional progress monitor for downloading and loading the model; may be null
+     * @return a future that completes with the detector once its model has been loaded
+     * @see #loadAsync(Progress)
+     */
+    public static CompletableFuture<DjlObjectDetector> createAsync(String engine, URI modelUri, Translator<Image, DetectedObjects> translator, 
+                            int inputSize, double overlapPercentage, double iouThreshold, 
+                            double defaultConfidenceThreshold, Progress progress) {
+        return createLazy(engine, modelUri, translator, inputSize, overlapPercentage, iouThreshold, defaultConfidenceThreshold)
+                .loadAsync(progress);
+    }
+    
+    /**
+     * Start loading the model in a background thread, if it isn't loaded already.
+     * <p>
+     * Repeated calls return the same future while loading is in progress.
+     * Cancelling the future interrupts loading where possible; the detector can then be loaded again later.
+     * 
+     * @param progress optional progress monitor for downloading and loading the model; may be null
+     * @return a future that completes with this detector once its model has been loaded
+     */
+    public CompletableFuture<DjlObjectDetector> loadAsync(Progress progress) {
+        while (true) {
+            var current = loading.get();
+            if (current != null)
+                return current;
+            if (replicas != null)
+                return CompletableFuture.completedFuture(this);
+            var future = new CompletableFuture<DjlObjectDetector>();
+            if (!loading.compareAndSet(null, future))
+                continue;
+            var cancellable = new CancellableProgress(progress, future);
+            Future<?> task = loadPool.submit(() -> {
+                try {
+                    var loaded = loadModel(cancellable);
+                    if (future.isCancelled())
+                        closeReplicas(loaded);
+                    else
+                        future.complete(this);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    loading.compareAndSet(future, null);
+                }
+            });
+            future.whenComplete((d, t) -> {
+                if (future.isCancelled()) {
+                    logger.debug("Cancelling model loading for {}", modelUri);
+                    task.cancel(true);
+                    loading.compareAndSet(future, null);
+                }
+            });
+            return future;
+        }
+    }
+    
+    /**
+     * Check whether the model has been loaded.
+     * 
+     * @return true if the model is loaded, false if it is still loading (or hasn't been requested yet)
+     */
+    public boolean isLoaded() {
+        return replicas != null;
+    }
+    
+    /**
+     * Load the model (and apply auto-tuning, if required), unless it is loaded already.
+     * 
+     * @return the replicas created by this call, or null if the model was already loaded
+     */
+    private synchronized ModelReplicas<Image, DetectedObjects> loadModel(Progress progress) throws ModelNotFoundException, MalformedModelException, IOException {
+        if (replicas != null)
+            return null;
+        if (DjlTools.isAutoTuning())
+            tuning = DjlAutoTuner.getOrTune(List.of(modelUri), engine, false,
+                    "DjlObjectDetector:" + inputSize + "x" + inputSize, this::benchmark);
+        if (tuning != null)
+            initializeModel(tuning.getReplicas(), tuning.getThreadsPerReplica(), progress);
+        else
+            initializeModel(DjlTools.getReplicaCount(), DjlTools.getThreadsPerReplica(), progress);
+        return replicas;
+    }
+    
+    /**
+     * Close replicas created by a cancelled load, unless they have already been replaced 
+     * (e.g. by a later load or a change of mode), in which case they are no longer ours to close.
+     */
+    private synchronized void closeReplicas(ModelReplicas<Image, DetectedObjects> loaded) {
+        if (loaded == null || loaded != replicas)
+            return;
+        replicas.close();
+        replicas = null;
+    }
+    
     /**
      * Set a custom confidence threshold for a specific class.
      * 
@@ -118,21 +285,79 @@ public class DjlObjectDetector implements AutoCloseable {
         logger.debug("Set default confidence threshold to {}", defaultConfidenceThreshold);
     }
     
-    private void initializeModel(URI modelUri, String engine, Translator<Image, DetectedObjects> translator) throws ModelNotFoundException, MalformedModelException, IOException {
-        if (model != null)
+    /**
+     * Use throughput mode, where several model replicas process different tiles in parallel.
+     * This generally gives the best overall speed for CPU inference on large regions.
+     * The model is reloaded if the number of replicas or threads has changed.
+     * 
+     * @param nReplicas the number of replicas (and tiles processed in parallel)
+     * @param threadsPerReplica the number of intra-op threads per replica, or 0 to use the engine default; 
+     *                          this is only used by engines that support setting threads per model (e.g. OnnxRuntime)
+     * @throws ModelNotFoundException
+     * @throws MalformedModelException
+     * @throws IOException
+     * @see DjlTools#setThroughputMode(int, int)
+     */
+    public synchronized void setThroughputMode(int nReplicas, int threadsPerReplica) throws ModelNotFoundException, MalformedModelException, IOException {
+        initializeModel(Math.max(1, nReplicas), Math.max(0, threadsPerReplica), null);
+    }
+    
+    /**
+     * Use latency mode, where a single model replica processes one tile at a time.
+     * This is generally best for interactive use.
+     * 
+     * @throws ModelNotFoundException
+     * @throws MalformedModelException
+     * @throws IOException
+     */
+    public synchronized void setLatencyMode() throws ModelNotFoundException, MalformedModelException, IOException {
+        initializeModel(1, 0, null);
+    }
+    
+    /**
+     * Check whether the detector is using throughput mode.
+     * 
+     * @return true if more than one model replica is used
+     */
+    public synchronized boolean isThroughputMode() {
+        return replicas != null && replicas.size() > 1;
+    }
+    
+    private synchronized void initializeModel(int nReplicas, int threadsPerReplica, Progress progress) throws ModelNotFoundException, MalformedModelException, IOException {
+        if (replicas != null && replicas.size() == nReplicas && this.threadsPerReplica == threadsPerReplica)
             return;
-            
-        model = DjlTools.loadModel(
-            engine,
+        
+        if (replicas != null) {
+            replicas.close();
+            replicas = null;
+        }
+        replicas = ModelReplicas.load(
+            tuning == null ? engine : tuning.getEngine(),
             Image.class,
             DetectedObjects.class,
             translator,
-            modelUri
+            nReplicas,
+            threadsPerReplica,
+            progress,
+            tuning == null ? new URI[] {modelUri} : tuning.getURIs()
         );
+        this.threadsPerReplica = threadsPerReplica;
+        logger.debug("Using {} with {} model replica(s)", nReplicas > 1 ? "throughput mode" : "latency mode", nReplicas);
     }
 
 
-    private List<RegionRequest> createTiledRequests(String imagePath, double downsample, int x, int y, int width, int height) {
+    /**
+     * Measure the throughput for an auto-tuning configuration, using a blank image of the input size.
+     */
+    private double benchmark(DjlAutoTuner.TuningConfig config, long durationMillis) throws Exception {
+        var image = ImageFactory.getInstance().fromImage(new BufferedImage(inputSize, inputSize, BufferedImage.TYPE_INT_RGB));
+        try (var trial = ModelReplicas.load(config.getEngine(), Image.class, DetectedObjects.class, translator,
+                config.getReplicas(), config.getThreadsPerReplica(), config.getURIs())) {
+            return DjlAutoTuner.measureThroughput(trial, 1, durationMillis, (i, predictor) -> predictor.predict(image));
+        }
+    }
+
+    private List<RegionRequest> createTiledRequests(String imagePath, double downsample, int x, int y, int width, int height, int z, int t) {
         List<RegionRequest> requests = new ArrayList<>();
         
         int stride = (int) (inputSize * (1 - overlapPercentage));
@@ -143,7 +368,7 @@ public class DjlObjectDetector implements AutoCloseable {
                 int tileHeight = Math.min(inputSize, y + height - tileY);
                 
                 RegionRequest request = RegionRequest.createInstance(
-                    imagePath, downsample, tileX, tileY, tileWidth, tileHeight);
+                    imagePath, downsample, tileX, tileY, tileWidth, tileHeight, z, t);
                 requests.add(request);
             }
         }
@@ -436,6 +661,15 @@ public class DjlObjectDetector implements AutoCloseable {
         return false;
     }
 
+    private List<PathObject> detectTile(ImageServer<BufferedImage> server, RegionRequest request, Predictor<Image, DetectedObjects> predictor) throws IOException, TranslateException {
+        var img = server.readRegion(request);
+        logger.debug("Tile dimensions before resize: {}x{}", img.getWidth(), img.getHeight());
+        var djlImage = ImageFactory.getInstance().fromImage(img).resize(inputSize, inputSize, true);
+        var detections = predictor.predict(djlImage);
+        // Apply NMS directly to raw detections
+        return applyNMS(detections.items(), request);
+    }
+
     /**
      * Detect objects across an entire image.
      * 
@@ -450,6 +684,11 @@ public class DjlObjectDetector implements AutoCloseable {
 
     /**
      * Detect objects within specified parent objects in an image.
+     * <p>
+     * Parents without a ROI cover every z-slice and timepoint. In throughput mode, tiles from all parents and planes 
+     * are processed in parallel by the model replicas. In latency mode, tiles on the same plane are processed one at a time, 
+     * but different z-slices and timepoints are processed in parallel. In both modes, overlapping detections are then 
+     * merged for each plane in parallel.
      * 
      * @param imageData the image data to process
      * @param parentObjects the parent objects within which to detect
@@ -464,22 +703,25 @@ public class DjlObjectDetector implements AutoCloseable {
         var server = imageData.getServer();
         double downsampleBase = server.getDownsampleForResolution(0);
         
+        // Start loading the model (if needed), so that it can overlap with tile planning
+        var pending = replicas == null ? loadAsync(null) : null;
+        
         var map = new HashMap<PathObject, List<PathObject>>();
         var allDetections = new ArrayList<PathObject>();
-        Set<RegionRequest> processedRegions = new HashSet<>();
+        // Processed regions are stored separately for each plane, which also keeps the overlap check short for z-stacks and time series
+        Map<ImagePlane, Set<RegionRequest>> processedRegions = new HashMap<>();
         
         // First create combined area of all parent ROIs
+        // Parents without ROIs (e.g. the root object) cover the entire image, for all z-slices and timepoints
+        var imageArea = GeometryTools.createRectangle(0, 0, server.getWidth(), server.getHeight());
         Geometry combinedArea = null;
         for (var parent : parentObjects) {
-            var roi = parent.getROI();
-            if (roi == null) {
-                continue;
-            }
+            var geometry = getParentGeometry(parent, imageArea);
             
             if (combinedArea == null) {
-                combinedArea = roi.getGeometry();
+                combinedArea = geometry;
             } else {
-                combinedArea = combinedArea.union(roi.getGeometry());
+                combinedArea = combinedArea.union(geometry);
             }
         }
         
@@ -488,52 +730,95 @@ public class DjlObjectDetector implements AutoCloseable {
             throw new IllegalArgumentException("No valid ROIs in parent objects");
         }
         
-        // First pass: detect objects in each parent region
+        // Plan the tiles for each parent region
+        Map<PathObject, List<RegionRequest>> tilesByParent = new LinkedHashMap<>();
         for (var parent : parentObjects) {
             parent.clearChildObjects();
                 
             List<RegionRequest> requests;
             var roi = parent.getROI();
             if (roi == null) {
-                throw new IllegalArgumentException("ROI cannot be null");
+                requests = new ArrayList<>();
+                for (int t = 0; t < server.nTimepoints(); t++) {
+                    for (int z = 0; z < server.nZSlices(); z++) {
+                        requests.addAll(createTiledRequests(server.getPath(), downsampleBase,
+                                0, 0, server.getWidth(), server.getHeight(), z, t));
+                    }
+                }
+            } else {
+                requests = createTiledRequests(server.getPath(), downsampleBase,
+                        (int)roi.getBoundsX(), (int)roi.getBoundsY(), 
+                        (int)roi.getBoundsWidth(), (int)roi.getBoundsHeight(), roi.getZ(), roi.getT());
             }
-            
-            requests = createTiledRequests(server.getPath(), downsampleBase,
-                    (int)roi.getBoundsX(), (int)roi.getBoundsY(), 
-                    (int)roi.getBoundsWidth(), (int)roi.getBoundsHeight());
 
-            List<PathObject> parentDetections = new ArrayList<>();
-                
-            // Process each tile individually
+            List<RegionRequest> tiles = new ArrayList<>();
             for (var request : requests) {
-                if (isRegionProcessed(request, processedRegions)) {
+                var planeRegions = processedRegions.computeIfAbsent(request.getImagePlane(), p -> new HashSet<>());
+                if (isRegionProcessed(request, planeRegions)) {
                     logger.debug("Skipping overlapping region at {},{}", request.getX(), request.getY());
                     continue;
                 }
-                processedRegions.add(request);
-                
-                if (Thread.currentThread().isInterrupted()) {
-                    logger.warn("Detection interrupted! Discarding {} detection(s)", allDetections.size());
-                    return Optional.empty();
-                }
-                    
-                var img = server.readRegion(request);
-                logger.debug("Tile dimensions before resize: {}x{}", img.getWidth(), img.getHeight());
-                var djlImage = ImageFactory.getInstance().fromImage(img).resize(inputSize, inputSize, true);
-                try(var predictor = model.newPredictor()) {
-                    var detections = predictor.predict(djlImage);
-                    // Apply NMS directly to raw detections
-                    parentDetections.addAll(applyNMS(detections.items(), request));
+                planeRegions.add(request);
+                tiles.add(request);
+            }
+            tilesByParent.put(parent, tiles);
+        }
+        
+        var replicas = awaitModel(pending, server, tilesByParent.values());
+        if (replicas == null) {
+            logger.warn("Detection interrupted while loading the model");
+            return Optional.empty();
+        }
+        
+        // First pass: detect objects in each parent region, processing the tiles of all parents (and so all planes) together
+        List<RegionRequest> allTiles = new ArrayList<>();
+        for (var tiles : tilesByParent.values())
+            allTiles.addAll(tiles);
+        ModelReplicas.ReplicaTask<RegionRequest, Image, DetectedObjects, List<PathObject>> task = (request, predictor) -> detectTile(server, request, predictor);
+        List<List<PathObject>> tileDetections;
+        try {
+            if (replicas.size() > 1) {
+                // Throughput mode: process tiles in parallel, one per replica
+                tileDetections = replicas.invokeAll(allTiles, task);
+            } else {
+                // Latency mode: process one tile at a time within each plane, but z-slices and timepoints in parallel.
+                // The extra replicas share the predictor's model, so don't duplicate its weights.
+                int nPlanes = PlaneTasks.groupByPlane(allTiles, RegionRequest::getImagePlane).size();
+                int maxConcurrentPlanes = PlaneTasks.getMaxConcurrentPlanes(nPlanes);
+                if (maxConcurrentPlanes <= 1) {
+                    tileDetections = replicas.invokeByPlane(allTiles, RegionRequest::getImagePlane, task);
+                } else {
+                    try (var planeReplicas = ModelReplicas.share(replicas.getModel(), maxConcurrentPlanes)) {
+                        tileDetections = planeReplicas.invokeByPlane(allTiles, RegionRequest::getImagePlane, task);
+                    }
                 }
             }
-            
-            // Store all detections with their parent
-            map.put(parent, parentDetections);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Detection interrupted! Discarding {} detection(s)", allDetections.size());
+            return Optional.empty();
+        }
+        // Results are in the same order as the tiles, so can be assigned back to their parents
+        int ind = 0;
+        for (var entry : tilesByParent.entrySet()) {
+            List<PathObject> parentDetections = new ArrayList<>();
+            for (int i = 0; i < entry.getValue().size(); i++)
+                parentDetections.addAll(tileDetections.get(ind++));
+            map.put(entry.getKey(), parentDetections);
             allDetections.addAll(parentDetections);
         }
         
-        // Second pass: merge all overlapping detections across all parents
-        List<PathObject> mergedDetections = mergeOverlappingDetections(allDetections);
+        // Second pass: merge all overlapping detections across all parents, separately for each plane
+        var detectionsByPlane = PlaneTasks.groupByPlane(allDetections, d -> d.getROI().getImagePlane());
+        List<PathObject> mergedDetections = new ArrayList<>();
+        try {
+            for (var merged : PlaneTasks.invokeAll(new ArrayList<>(detectionsByPlane.values()), PlaneTasks.getMaxConcurrentPlanes(detectionsByPlane.size()), this::mergeOverlappingDetections))
+                mergedDetections.addAll(merged);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Detection interrupted! Discarding {} detection(s)", allDetections.size());
+            return Optional.empty();
+        }
         
         // Filter out detections that are not within the combined area
         List<PathObject> filteredDetections = new ArrayList<>();
@@ -550,13 +835,15 @@ public class DjlObjectDetector implements AutoCloseable {
         
         for (var parent : parentObjects) {
             var roi = parent.getROI();
+            var parentGeometry = getParentGeometry(parent, imageArea);
             List<PathObject> childObjects = new ArrayList<>();
             
             // For each filtered detection, check if it overlaps with this parent
             for (var detection : filteredDetections) {
                 var detectionRoi = detection.getROI();
-                // Add to this parent if the detection overlaps with the parent ROI
-                if (detectionRoi.getGeometry().intersects(roi.getGeometry())) {
+                // Add to this parent if the detection overlaps with the parent ROI, on the same plane
+                if ((roi == null || roi.getImagePlane().equals(detectionRoi.getImagePlane())) &&
+                        detectionRoi.getGeometry().intersects(parentGeometry)) {
                     childObjects.add(detection);
                     // Only add to finalResults if not already processed
                     if (!processedDetections.contains(detection)) {
@@ -575,11 +862,125 @@ public class DjlObjectDetector implements AutoCloseable {
         return Optional.of(finalResults);
     }
 
+    /**
+     * Get the geometry of a parent object, or the entire image if the parent has no ROI.
+     */
+    private static Geometry getParentGeometry(PathObject parent, Geometry imageArea) {
+        var roi = parent.getROI();
+        return roi == null ? imageArea : roi.getGeometry();
+    }
+
+    /**
+     * Wait for the model to finish loading, prefetching tiles in the meantime.
+     * Reading the tiles here means that they should already be in the server's tile cache when needed for detection.
+     * 
+     * @param pending the model loading task, or null if the model was already loaded
+     * @param server the server to read tiles from
+     * @param tiles the tiles that will be needed
+     * @return the model replicas, or null if the thread was interrupted
+     * @throws IOException if the model could not be loaded, or loading was cancelled
+     */
+    private ModelReplicas<Image, DetectedObjects> awaitModel(CompletableFuture<DjlObjectDetector> pending, 
+            ImageServer<BufferedImage> server, Collection<List<RegionRequest>> tiles) throws IOException {
+        if (pending != null) {
+            int nPrefetched = 0;
+            outer:
+            for (var list : tiles) {
+                for (var request : list) {
+                    if (pending.isDone() || nPrefetched >= MAX_PREFETCH_TILES || Thread.currentThread().isInterrupted())
+                        break outer;
+                    try {
+                        server.readRegion(request);
+                        nPrefetched++;
+                    } catch (IOException e) {
+                        logger.debug("Unable to prefetch tile {}: {}", request, e.getMessage());
+                        break outer;
+                    }
+                }
+            }
+            logger.debug("Prefetched {} tile(s) while loading model", nPrefetched);
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (CancellationException e) {
+                throw new IOException("Model loading was cancelled", e);
+            } catch (ExecutionException e) {
+                var cause = e.getCause();
+                if (cause instanceof IOException ioe)
+                    throw ioe;
+                throw new IOException("Unable to load model " + modelUri, cause);
+            }
+        }
+        var current = replicas;
+        if (current == null)
+            throw new IOException("Model " + modelUri + " is not loaded");
+        return current;
+    }
+
     @Override
-    public void close() throws Exception {
-        if (model != null) {
-            model.close();
-            model = null;
+    public synchronized void close() throws Exception {
+        if (replicas != null) {
+            replicas.close();
+            replicas = null;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Progress wrapper that stops loading when the associated future has been cancelled.
+     * DJL reports progress regularly while downloading and loading models, so throwing an exception here 
+     * provides a way to stop even when the underlying operation is not interruptible.
+     */
+    private static class CancellableProgress implements Progress {
+        
+        private final Progress progress;
+        private final Future<?> future;
+        
+        private CancellableProgress(Progress progress, Future<?> future) {
+            this.progress = progress;
+            this.future = future;
+        }
+        
+        private void checkCancelled() {
+            if (future.isCancelled())
+                throw new CancellationException("Model loading cancelled");
+        }
+
+        @Override
+        public void reset(String message, long max, String trailingMessage) {
+            checkCancelled();
+            if (progress != null)
+                progress.reset(message, max, trailingMessage);
+        }
+
+        @Override
+        public void start(long initialProgress) {
+            checkCancelled();
+            if (progress != null)
+                progress.start(initialProgress);
+        }
+
+        @Override
+        public void end() {
+            if (progress != null)
+                progress.end();
+        }
+
+        @Override
+        public void increment(long increment) {
+            checkCancelled();
+            if (progress != null)
+                progress.increment(increment);
+        }
+
+        @Override
+        public void update(long progress, String message) {
+            checkCancelled();
+            if (this.progress != null)
+                this.progress.update(progress, message);
+        }
+        
+    }
+
+}
@@ -18,30 +18,34 @@ package qupath.ext.djl;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ai.djl.Device;
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.PointerScope;
-import org.bytedeco.javacpp.indexer.BooleanIndexer;
-import org.bytedeco.javacpp.indexer.ByteIndexer;
-import org.bytedeco.javacpp.indexer.DoubleIndexer;
-import org.bytedeco.javacpp.indexer.FloatIndexer;
-import org.bytedeco.javacpp.indexer.HalfIndexer;
-import org.bytedeco.javacpp.indexer.IntIndexer;
-import org.bytedeco.javacpp.indexer.LongIndexer;
-import org.bytedeco.javacpp.indexer.UByteIndexer;
-import org.bytedeco.javacpp.indexer.UShortIndexer;
 import org.bytedeco.opencv.global.opencv_core;
-import org.bytedeco.opencv.global.opencv_dnn;
 import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,9 +68,10 @@ import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
 import ai.djl.util.Pair;
 import ai.djl.util.PairList;
+import ai.djl.util.Progress;
+import qupath.lib.common.ThreadTools;
 import qupath.opencv.dnn.DnnModel;
 import qupath.opencv.dnn.DnnShape;
-import qupath.opencv.tools.OpenCVTools;
 
 /**
  * Tools to help work with Deep Java Library within QuPath.
@@ -132,7 +137,7 @@ public class DjlTools {
 	 * This enables us to check for available (and downloaded) engines without 
 	 * having to try to instantiate a new one.
 	 */
-	public static Set<String> loadedEngines = new HashSet<>();
+	public static Set<String> loadedEngines = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Default devices for each engine.
@@ -201,27 +206,110 @@ public class DjlTools {
 	
 	/**
 	 * Check if an engine is available and ready for use without any additional downloading.
-	 * This first checks whether an engine with the given name has already been seen 
-	 * by this class; if so, the method returns true without attempting to instantiate 
-	 * the engine.
-	 * Otherwise, the method returns true only if {@code hasEngine(name)} is false or if 
-	 * {@code getEngine(name, false)} is not null.
+	 * This method does not block: if the engine has already been loaded (or has failed to load), 
+	 * the result is returned immediately.
+	 * Otherwise, an offline request for the engine is started in the background and 
+	 * the method returns the availability recorded in a previous session (if known), 
+	 * or false otherwise.
+	 * <p>
+	 * Use {@link #checkEngineAvailable(String)} to wait for the result.
 	 * @param name
-	 * @return
+	 * @return true if the engine is known to be available, false otherwise
 	 * @see #hasEngine(String)
 	 * @see #getEngine(String, boolean)
+	 * @see #checkEngineAvailable(String)
 	 */
 	public static boolean isEngineAvailable(String name) {
 		if (loadedEngines.contains(name))
 			return true;
 		if (!hasEngine(name))
 			return false;
-		logger.debug("Need to try to get engine to test availability");
-		return getEngine(name, false) != null;
+		var future = requestEngine(name, false);
+		if (future.isDone())
+			return future.getNow(null) != null;
+		// Engine is still loading, but we may know from a previous session that it is available
+		return DjlEngineCache.isAvailable(name);
+	}
+	
+	/**
+	 * Check if an engine is available and ready for use without any additional downloading, 
+	 * returning a future that completes when the answer is known.
+	 * @param name
+	 * @return a future that completes with true if the engine can be loaded, false otherwise
+	 * @see #isEngineAvailable(String)
+	 */
+	public static CompletableFuture<Boolean> checkEngineAvailable(String name) {
+		if (loadedEngines.contains(name))
+			return CompletableFuture.completedFuture(Boolean.TRUE);
+		if (!hasEngine(name))
+			return CompletableFuture.completedFuture(Boolean.FALSE);
+		return requestEngine(name, false).handle((engine, e) -> engine != null);
+	}
+	
+	/**
+	 * Start loading all engines that were available in a previous session, in the background.
+	 * This means that the native libraries should already be loaded whenever an engine is 
+	 * first needed.
+	 * @return a future that completes when all engines have been requested
+	 * @see DjlEngineCache
+	 */
+	public static CompletableFuture<Void> prefetchEngines() {
+		return CompletableFuture.runAsync(() -> {
+			var futures = Engine.getAllEngines().stream()
+					.filter(DjlEngineCache::isAvailable)
+					.map(name -> requestEngine(name, false))
+					.toArray(CompletableFuture[]::new);
+			logger.debug("Prefetching {} engine(s)", futures.length);
+			CompletableFuture.allOf(futures).join();
+		}, engineExecutor);
 	}
 	
-	private static final Object lock = new Object();
+	/**
+	 * Property used by DJL to control whether native libraries and models may be downloaded.
+	 */
+	static final String PROP_OFFLINE = "ai.djl.offline";
 	
+	/**
+	 * DJL only reads the offline mode from a system property. 
+	 * Offline is the steady state, so any number of engine and model requests can run 
+	 * concurrently (read lock). Only explicit downloads switch the property off, which 
+	 * requires exclusive access (write lock) until the property has been restored.
+	 */
+	private static final ReadWriteLock offlineModeLock = new ReentrantReadWriteLock();
+	
+	static {
+		// Respect the property if it has been set explicitly, otherwise prevent downloads by default
+		if (System.getProperty(PROP_OFFLINE) == null)
+			System.setProperty(PROP_OFFLINE, "true");
+	}
+	
+	/**
+	 * Executor used to resolve engines in the background.
+	 */
+	private static final ExecutorService engineExecutor = Executors.newCachedThreadPool(
+			ThreadTools.createThreadFactory("djl-engine-request", true));
+	
+	/**
+	 * Requests for each engine, by name.
+	 * Each engine is resolved independently, so loading one engine doesn't block another.
+	 */
+	private static final Map<String, EngineRequest> engineRequests = new ConcurrentHashMap<>();
+	
+	private static class EngineRequest {
+		
+		private final boolean downloadIfNeeded;
+		private final CompletableFuture<Engine> future;
+		
+		private EngineRequest(boolean downloadIfNeeded, CompletableFuture<Engine> future) {
+			this.downloadIfNeeded = downloadIfNeeded;
+			this.future = future;
+		}
+		
+		private boolean isFailed() {
+			return future.isDone() && future.getNow(null) == null;
+		}
+		
+	}
 	
 	/**
 	 * Get an {@link Engine} by name.
@@ -230,6 +318,9 @@ public class DjlTools {
 	 * whether the native libraries for the engine are downloaded if required.
 	 * This avoids unexpectedly long blocking calls for an engine request if the native 
 	 * libraries need to be downloaded.
+	 * <p>
+	 * This blocks until the engine is available; see {@link #requestEngine(String, boolean)} 
+	 * for a non-blocking alternative.
 	 * 
 	 * @param name the name of the engine
 	 * @param downloadIfNeeded if true, download the necessary native libraries if needed.
@@ -243,35 +334,140 @@ public class DjlTools {
 		if (!hasEngine(name)) {
 			throw new IllegalArgumentException("Requested engine " + name + " is not available!");
 		}
-				
-		synchronized (lock) {
-			var offlineStatus = System.getProperty("ai.djl.offline");
-			try {
-				if (downloadIfNeeded)
-					System.setProperty("ai.djl.offline", "false");
+		try {
+			return requestEngine(name, downloadIfNeeded).get();
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for engine {}", name);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			logger.warn("Unable to get engine {} ({})", name, e.getCause().getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Request an {@link Engine} by name, without blocking.
+	 * <p>
+	 * Each engine is loaded at most once at a time, and requests for different engines can 
+	 * proceed concurrently. 
+	 * If the engine has already been loaded successfully, the returned future is already complete.
+	 * A failed offline request is remembered, so that later offline requests return quickly; 
+	 * requests that permit downloading always retry after a failure.
+	 * 
+	 * @param name the name of the engine
+	 * @param downloadIfNeeded if true, download the necessary native libraries if needed.
+	 * @return a future that completes with the engine, or with null if the engine cannot be loaded
+	 * @throws IllegalArgumentException if {@link #hasEngine(String)} returns false
+	 */
+	public static CompletableFuture<Engine> requestEngine(String name, boolean downloadIfNeeded) throws IllegalArgumentException {
+		if (!hasEngine(name)) {
+			throw new IllegalArgumentException("Requested engine " + name + " is not available!");
+		}
+		var request = engineRequests.compute(name, (n, previous) -> {
+			if (previous == null || (downloadIfNeeded && previous.isFailed()))
+				return new EngineRequest(downloadIfNeeded, 
+						CompletableFuture.supplyAsync(() -> loadEngine(n, downloadIfNeeded), engineExecutor));
+			return previous;
+		});
+		// If an offline request is still pending, retry with downloads enabled if it fails
+		if (downloadIfNeeded && !request.downloadIfNeeded && !request.future.isDone()) {
+			return request.future.thenCompose(engine -> engine == null ? requestEngine(name, true) : CompletableFuture.completedFuture(engine));
+		}
+		return request.future;
+	}
+	
+	/**
+	 * Submit a task that requests or waits for engines, using the same executor as {@link #requestEngine(String, boolean)}.
+	 * This is intended for callers (e.g. the user interface) that need to wait for engines in the background, 
+	 * so that all engine requests share a single pool.
+	 * @param <T>
+	 * @param task the task to run
+	 * @return a future for the result of the task
+	 */
+	public static <T> Future<T> submitEngineTask(Callable<T> task) {
+		return engineExecutor.submit(task);
+	}
+	
+	private static Engine loadEngine(String name, boolean downloadIfNeeded) {
+		try {
+			// Some options can only be applied before the engine is initialized
+			DjlEngineOptions.applyEngineProperties(name);
+			var engine = callWithOfflineMode(!downloadIfNeeded, () -> Engine.getEngine(name));
+			if (engine != null)
+				loadedEngines.add(name);
+			DjlEngineCache.update(name, engine);
+			return engine;
+		} catch (Exception e) {
+			DjlEngineCache.update(name, null);
+			if (downloadIfNeeded) {
+				logger.error("Unable to get engine " + name + ": " + e.getMessage(), e);
+			} else {
+				var msg = e.getLocalizedMessage();
+				if (msg == null)
+					logger.warn("Unable to get engine {}", name);
 				else
-					System.setProperty("ai.djl.offline", "true");
-				var engine = Engine.getEngine(name);
-				if (engine != null)
-					loadedEngines.add(name);
-				return engine;
-			} catch (Exception e) {
-				if (downloadIfNeeded) {
-					logger.error("Unable to get engine " + name + ": " + e.getMessage(), e);
-				} else {
-					var msg = e.getLocalizedMessage();
-					if (msg == null)
-						logger.warn("Unable to get engine {}", name);
-					else
-						logger.warn("Unable to get engine {} ({})", name, e.getMessage());
-				}
-				return null;
-			} finally {
-				System.setProperty("ai.djl.offline", offlineStatus);
+					logger.warn("Unable to get engine {} ({})", name, e.getMessage());
 			}
+			return null;
 		}
 	}
 	
+	/**
+	 * Call a function with DJL's offline mode set as specified.
+	 * <p>
+	 * Offline calls use the steady-state mode without modifying any system properties, 
+	 * and run concurrently with one another. Calls that need downloads switch offline mode off 
+	 * only for the duration of the call, and block all other calls while they do so.
+	 * If offline mode has been turned off explicitly, all calls run concurrently.
+	 * @param <T>
+	 * @param offline true if DJL should not download anything, false otherwise
+	 * @param callable the function to call
+	 * @return the output of the function
+	 * @throws Exception if the function throws an exception
+	 */
+	static <T> T callWithOfflineMode(boolean offline, Callable<T> callable) throws Exception {
+		var readLock = offlineModeLock.readLock();
+		readLock.lock();
+		try {
+			if (offline || !isOfflineMode())
+				return callable.call();
+		} finally {
+			readLock.unlock();
+		}
+		var writeLock = offlineModeLock.writeLock();
+		writeLock.lock();
+		var previous = System.getProperty(PROP_OFFLINE);
+		try {
+			System.setProperty(PROP_OFFLINE, Boolean.toString(offline));
+			return callable.call();
+		} finally {
+			if (previous == null)
+				System.clearProperty(PROP_OFFLINE);
+			else
+				System.setProperty(PROP_OFFLINE, previous);
+			writeLock.unlock();
+		}
+	}
+	
+	private static boolean isOfflineMode() {
+		return Boolean.parseBoolean(System.getProperty(PROP_OFFLINE));
+	}
+	
+	/**
+	 * Call a function that loads a model (or resolves model criteria), with DJL's offline mode set as specified.
+	 * This is the same as {@link #callWithOfflineMode(boolean, Callable)}, but rethrows the exceptions 
+	 * expected when loading a model.
+	 */
+	static <T> T callModelTask(boolean offline, Callable<T> callable) throws ModelNotFoundException, MalformedModelException, IOException {
+		try {
+			return callWithOfflineMode(offline, callable);
+		} catch (ModelNotFoundException | MalformedModelException | IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
 	
 	
 	static DnnShape convertShape(Shape shape) {
@@ -283,6 +479,66 @@ public class DjlTools {
 	}
 
 	static <P, Q> ZooModel<P, Q> loadModel(String engineName, Class<P> inputClass, Class<Q> outputClass, Translator<P, Q> translator, URI... uris) throws ModelNotFoundException, MalformedModelException, IOException {
+		return loadModel(engineName, inputClass, outputClass, translator, Collections.emptyMap(), uris);
+	}
+	
+	/**
+	 * Load a model, passing additional options to the criteria.
+	 * These are applied after (and so override) any options set with {@link #setEngineOption(String, String, String)}.
+	 * @param <P>
+	 * @param <Q>
+	 * @param engineName
+	 * @param inputClass
+	 * @param outputClass
+	 * @param translator
+	 * @param options
+	 * @param uris
+	 * @return
+	 * @throws ModelNotFoundException
+	 * @throws MalformedModelException
+	 * @throws IOException
+	 */
+	static <P, Q> ZooModel<P, Q> loadModel(String engineName, Class<P> inputClass, Class<Q> outputClass, Translator<P, Q> translator, Map<String, String> options, URI... uris) throws ModelNotFoundException, MalformedModelException, IOException {
+		return loadModel(engineName, inputClass, outputClass, translator, options, null, uris);
+	}
+	
+	/**
+	 * Load a model, passing additional options to the criteria and reporting progress.
+	 * @param <P>
+	 * @param <Q>
+	 * @param engineName
+	 * @param inputClass
+	 * @param outputClass
+	 * @param translator
+	 * @param options
+	 * @param progress optional progress monitor; if null, progress is logged with a {@link ProgressBar}
+	 * @param uris
+	 * @return
+	 * @throws ModelNotFoundException
+	 * @throws MalformedModelException
+	 * @throws IOException
+	 */
+	static <P, Q> ZooModel<P, Q> loadModel(String engineName, Class<P> inputClass, Class<Q> outputClass, Translator<P, Q> translator, Map<String, String> options, Progress progress, URI... uris) throws ModelNotFoundException, MalformedModelException, IOException {
+		uris = resolveArchives(uris);
+		// Engine properties only take effect if they are set before the engine is initialized - 
+		// which may happen here, if the engine hasn't been requested through DjlTools
+		var selectedEngine = selectEngine(engineName, uris);
+		if (selectedEngine == null)
+			DjlEngineOptions.applyAllEngineProperties();
+		else
+			DjlEngineOptions.applyEngineProperties(selectedEngine);
+		if (optimizedModelCache && uris.length == 1) {
+			var optimized = OptimizedModelCache.getOptimizedModel(selectedEngine, uris[0]);
+			if (optimized != null) {
+				var optimizedOptions = new LinkedHashMap<>(options);
+				optimizedOptions.putAll(OptimizedModelCache.getLoadOptions(selectedEngine));
+				return loadModel(selectedEngine, inputClass, outputClass, translator, optimizedOptions, progress, joinUrls(optimized));
+			}
+		}
+		return loadModel(engineName, inputClass, outputClass, translator, options, progress, joinUrls(uris));
+	}
+	
+	private static String joinUrls(URI... uris) {
 		var sb = new StringBuilder();
 		boolean isFirst = true;
 		for (var uri : uris) {
@@ -290,43 +546,74 @@ public class DjlTools {
 				isFirst = false;
 			else
 				sb.append(",");
-			// TODO: Handle unzipping zipped models to a temporary directory, if needed
-			var s = uri.toString();
-			if (s.toLowerCase().startsWith("jar:file:") || s.toLowerCase().endsWith(".zip")) {
-				logger.warn("Model URI is zipped - please unzip the model and recreate it");
-			}
 			sb.append(uri.toString());
 		}
-		return loadModel(engineName, inputClass, outputClass, translator, sb.toString());
+		return sb.toString();
+	}
+	
+	/**
+	 * Replace any URIs for zipped models (or models within a jar) with the URIs of extracted copies.
+	 * Each archive is only extracted once, into a cache directory.
+	 * @param uris
+	 * @return
+	 * @throws IOException if an archive could not be extracted
+	 */
+	static URI[] resolveArchives(URI... uris) throws IOException {
+		var resolved = new URI[uris.length];
+		for (int i = 0; i < uris.length; i++)
+			resolved[i] = ModelArchives.resolve(uris[i]);
+		return resolved;
+	}
+	
+	/**
+	 * Get the name of the engine that will be used to load a model.
+	 * @param engineName the requested engine name; may be null if the engine should be determined from the URIs
+	 * @param uris
+	 * @return the engine name, or null if the engine couldn't be determined (in which case DJL will choose)
+	 */
+	static String selectEngine(String engineName, URI... uris) {
+		try {
+			uris = resolveArchives(uris);
+		} catch (IOException e) {
+			logger.debug("Unable to resolve model archive: {}", e.getMessage());
+		}
+		var sb = new StringBuilder();
+		for (var uri : uris) {
+			if (sb.length() > 0)
+				sb.append(",");
+			sb.append(uri.toString());
+		}
+		return selectEngine(engineName, sb.toString());
 	}
 
-	private static <P, Q> ZooModel<P, Q> loadModel(String engineName, Class<P> inputClass, Class<Q> outputClass, Translator<P, Q> translator, String urls) throws ModelNotFoundException, MalformedModelException, IOException {
-		var builder = Criteria.builder()
-				.setTypes(inputClass, outputClass)
-				.optModelUrls(urls)
-				.optTranslator(translator)
-				.optProgress(new ProgressBar());
-		
-		String selectedEngine = null;
+	private static String selectEngine(String engineName, String urls) {
 		if (engineName != null) {
 			if (Engine.getAllEngines().contains(engineName)) {
-				selectedEngine = engineName;
+				return engineName;
 			}
 		}
 		
 		// Try to figure out the engine name
-		if (selectedEngine == null) {
-			var urlString = urls.toString().toLowerCase();
-			if (urlString.endsWith(".onnx") && Engine.hasEngine("OnnxRuntime"))
-				selectedEngine = "OnnxRuntime";
-			else if ((urlString.endsWith("pytorch") || urlString.endsWith(".pt")) && Engine.hasEngine("PyTorch"))
-				selectedEngine = "PyTorch";
-			else if (urlString.endsWith(".tflite") && Engine.hasEngine("TFLite"))
-				selectedEngine = "TFLite";
-			else if ((urlString.endsWith(".pb") || urlString.endsWith("tf_savedmodel.zip") || urlString.endsWith("tf_savedmodel")) && Engine.hasEngine("TensorFlow"))
-				selectedEngine = "TensorFlow";
-		}
+		var urlString = urls.toString().toLowerCase();
+		if (urlString.endsWith(".onnx") && Engine.hasEngine("OnnxRuntime"))
+			return "OnnxRuntime";
+		else if ((urlString.endsWith("pytorch") || urlString.endsWith(".pt")) && Engine.hasEngine("PyTorch"))
+			return "PyTorch";
+		else if (urlString.endsWith(".tflite") && Engine.hasEngine("TFLite"))
+			return "TFLite";
+		else if ((urlString.endsWith(".pb") || urlString.endsWith("tf_savedmodel.zip") || urlString.endsWith("tf_savedmodel")) && Engine.hasEngine("TensorFlow"))
+			return "TensorFlow";
+		return null;
+	}
 
+	private static <P, Q> ZooModel<P, Q> loadModel(String engineName, Class<P> inputClass, Class<Q> outputClass, Translator<P, Q> translator, Map<String, String> options, Progress progress, String urls) throws ModelNotFoundException, MalformedModelException, IOException {
+		var builder = Criteria.builder()
+				.setTypes(inputClass, outputClass)
+				.optModelUrls(urls)
+				.optTranslator(translator)
+				.optProgress(progress == null ? new ProgressBar() : progress);
+		
+		String selectedEngine = selectEngine(engineName, urls);
 		if (selectedEngine != null) {
 			builder.optEngine(selectedEngine);
 			var device = defaultDevices.getOrDefault(selectedEngine, null);
@@ -334,10 +621,13 @@ public class DjlTools {
 				builder.optDevice(device);
 				builder.optOption("mapLocation", "true");
 			}
+			DjlEngineOptions.applyModelOptions(selectedEngine, builder);
 		}
+		for (var entry : options.entrySet())
+			builder.optOption(entry.getKey(), entry.getValue());
 		
 		var criteria = builder.build();
-		return ModelZoo.loadModel(criteria);		
+		return callModelTask(true, () -> ModelZoo.loadModel(criteria));
 	}
 
 
@@ -369,6 +659,378 @@ public class DjlTools {
 		return defaultDevices.getOrDefault(engineName, null);
 	}
 
+	/**
+	 * Set an option for an engine, which is applied whenever a model is loaded using that engine.
+	 * The option is stored in QuPath's preferences, so will persist between sessions.
+	 * <p>
+	 * Keys starting with {@code ai.djl.} are treated as engine properties, and set as system properties.
+	 * These are usually only read when the engine is initialized, and so changes may require QuPath to be restarted.
+	 * Other keys are passed as options to the model {@link Criteria}, e.g. 
+	 * {@code setEngineOption("OnnxRuntime", "optLevel", "ALL_OPT")}.
+	 * 
+	 * @param engineName the engine name
+	 * @param key the option key
+	 * @param value the option value, or null to remove the option
+	 * @see #setEngineThreads(String, int, int)
+	 */
+	public static void setEngineOption(String engineName, String key, String value) {
+		Objects.requireNonNull(engineName, "Engine name must not be null");
+		Objects.requireNonNull(key, "Option key must not be null");
+		DjlEngineOptions.setOption(engineName, key, value);
+	}
+	
+	/**
+	 * Get all the options set for an engine.
+	 * @param engineName the engine name
+	 * @return an unmodifiable map of option keys and values
+	 * @see #setEngineOption(String, String, String)
+	 */
+	public static Map<String, String> getEngineOptions(String engineName) {
+		return DjlEngineOptions.getOptions(engineName);
+	}
+	
+	/**
+	 * Remove all the options set for an engine.
+	 * @param engineName the engine name
+	 */
+	public static void clearEngineOptions(String engineName) {
+		DjlEngineOptions.clearOptions(engineName);
+	}
+	
+	/**
+	 * Set the number of threads an engine should use.
+	 * <p>
+	 * By default, engines generally use all available cores for each model. 
+	 * This can oversubscribe the CPU when QuPath also processes tiles in parallel, 
+	 * in which case it may help to reduce the number of threads per model.
+	 * <p>
+	 * Currently, this is supported for OnnxRuntime (session options) and PyTorch 
+	 * (engine properties).
+	 * <p>
+	 * <b>Important!</b> For PyTorch, the setting is global: it applies to every PyTorch model in the session, 
+	 * including those used in latency mode, and it can't be changed or undone once PyTorch has been 
+	 * initialized (QuPath must be restarted).
+	 * 
+	 * @param engineName the engine name
+	 * @param intraOpThreads number of threads used within an operation, or &le; 0 to use the engine default
+	 * @param interOpThreads number of threads used to run operations in parallel, or &le; 0 to use the engine default
+	 * @throws IllegalArgumentException if the engine doesn't support setting the number of threads
+	 */
+	public static void setEngineThreads(String engineName, int intraOpThreads, int interOpThreads) throws IllegalArgumentException {
+		String keyIntra, keyInter;
+		if (ENGINE_ONNX_RUNTIME.equals(engineName)) {
+			keyIntra = "intraOpNumThreads";
+			keyInter = "interOpNumThreads";
+		} else if (ENGINE_PYTORCH.equals(engineName)) {
+			keyIntra = "ai.djl.pytorch.num_threads";
+			keyInter = "ai.djl.pytorch.num_interop_threads";
+		} else {
+			throw new IllegalArgumentException("Setting the number of threads is not supported for " + engineName);
+		}
+		setEngineOption(engineName, keyIntra, intraOpThreads > 0 ? Integer.toString(intraOpThreads) : null);
+		setEngineOption(engineName, keyInter, interOpThreads > 0 ? Integer.toString(interOpThreads) : null);
+	}
+	
+	private static volatile int dynamicBatchSize = 1;
+	
+	private static volatile long dynamicBatchDelayMillis = 5L;
+	
+	/**
+	 * Request that concurrent single-input predictions for a {@link DnnModel} are combined 
+	 * into batches, similar to the dynamic batching used by an inference server.
+	 * <p>
+	 * Each call to predict waits up to {@code maxDelayMillis} for calls from other threads, 
+	 * and all inputs with the same size are then passed through the model in a single forward pass.
+	 * This is only used if the model layout has a batch dimension (N) and a single output.
+	 * <p>
+	 * The setting applies to models that are initialized after it is changed.
+	 * @param maxBatchSize maximum number of inputs per batch; use 1 to turn off dynamic batching
+	 * @param maxDelayMillis maximum time to wait for other inputs before running a batch
+	 */
+	public static void setDynamicBatching(int maxBatchSize, long maxDelayMillis) {
+		dynamicBatchSize = Math.max(1, maxBatchSize);
+		dynamicBatchDelayMillis = Math.max(0L, maxDelayMillis);
+	}
+	
+	/**
+	 * Get the maximum batch size used for dynamic batching.
+	 * @return the maximum batch size, or 1 if dynamic batching is turned off
+	 * @see #setDynamicBatching(int, long)
+	 */
+	public static int getDynamicBatchSize() {
+		return dynamicBatchSize;
+	}
+	
+	/**
+	 * Get the maximum time to wait for other inputs when using dynamic batching.
+	 * @return
+	 * @see #setDynamicBatching(int, long)
+	 */
+	public static long getDynamicBatchDelayMillis() {
+		return dynamicBatchDelayMillis;
+	}
+
+	private static volatile int replicaCount = 1;
+	
+	private static volatile int threadsPerReplica = 0;
+	
+	/**
+	 * Request that models are applied in throughput mode, using several model replicas 
+	 * that each process a different tile at the same time.
+	 * <p>
+	 * For CPU inference, several replicas that each use a few threads usually give a higher 
+	 * overall throughput than a single replica that uses all cores.
+	 * Replicas share the model weights where possible; where the engine requires a separate 
+	 * model instance for each replica (e.g. OnnxRuntime), each replica is limited to 
+	 * {@code threadsPerReplica} intra-op threads.
+	 * <p>
+	 * The thread limit is only applied to engines that support setting threads per model. 
+	 * For engines where threads are shared by all models (e.g. PyTorch) it is ignored; 
+	 * use {@link #setEngineThreads(String, int, int)} instead, bearing in mind that this is global.
+	 * <p>
+	 * This is used by {@link DjlObjectDetector} and {@link DjlZoo#detect(ZooModel, qupath.lib.images.ImageData)}.
+	 * @param nReplicas number of replicas; use 1 to use latency mode
+	 * @param threadsPerReplica intra-op threads for each replica, or &le; 0 to use the engine default
+	 * @see #setLatencyMode()
+	 */
+	public static void setThroughputMode(int nReplicas, int threadsPerReplica) {
+		replicaCount = Math.max(1, nReplicas);
+		DjlTools.threadsPerReplica = Math.max(0, threadsPerReplica);
+	}
+	
+	/**
+	 * Request that models are applied in latency mode, using a single replica to process 
+	 * one tile at a time using all available threads.
+	 * This is the default, and is generally best for interactive use.
+	 * @see #setThroughputMode(int, int)
+	 */
+	public static void setLatencyMode() {
+		replicaCount = 1;
+		threadsPerReplica = 0;
+	}
+	
+	/**
+	 * Query whether throughput mode is being used.
+	 * @return true if more than one replica should be used, false if using latency mode
+	 * @see #setThroughputMode(int, int)
+	 */
+	public static boolean isThroughputMode() {
+		return replicaCount > 1;
+	}
+	
+	/**
+	 * Get the number of replicas used in throughput mode.
+	 * @return the number of replicas, or 1 if using latency mode
+	 * @see #setThroughputMode(int, int)
+	 */
+	public static int getReplicaCount() {
+		return replicaCount;
+	}
+	
+	/**
+	 * Get the number of intra-op threads requested for each replica in throughput mode.
+	 * @return the number of threads, or 0 if the engine default should be used
+	 * @see #setThroughputMode(int, int)
+	 */
+	public static int getThreadsPerReplica() {
+		return threadsPerReplica;
+	}
+
+	private static volatile boolean optimizedModelCache = false;
+	
+	/**
+	 * Request that engine-optimized models are cached, so that graph optimizations don't need to be 
+	 * repeated each time a model is loaded.
+	 * <p>
+	 * Currently, this is only supported for OnnxRuntime models on the CPU. The first time an {@code .onnx} 
+	 * model is loaded, an optimized copy is written to the DJL cache directory - keyed by the hash of the 
+	 * model file, the engine version and the CPU. Later loads use the optimized copy with graph 
+	 * optimization turned off.
+	 * @param doCache
+	 * @see #clearOptimizedModelCache()
+	 */
+	public static void setOptimizedModelCache(boolean doCache) {
+		optimizedModelCache = doCache;
+	}
+	
+	/**
+	 * Query whether engine-optimized models are cached.
+	 * @return
+	 * @see #setOptimizedModelCache(boolean)
+	 */
+	public static boolean isOptimizedModelCache() {
+		return optimizedModelCache;
+	}
+	
+	/**
+	 * Delete all cached engine-optimized models.
+	 * @see #setOptimizedModelCache(boolean)
+	 */
+	public static void clearOptimizedModelCache() {
+		OptimizedModelCache.clear();
+	}
+
+	private static volatile long predictionCacheSize = 0;
+	
+	/**
+	 * Set the maximum size of the disk cache used for tiles predicted by image-to-image models.
+	 * <p>
+	 * If the size is &gt; 0, each predicted tile is written to the DJL cache directory - keyed by the hash of
+	 * the model, the source image and the tile coordinates - so that it doesn't need to be predicted again
+	 * when the tile is revisited, or when the prediction server is rebuilt.
+	 * When the cache exceeds the maximum size, the least recently used tiles are deleted.
+	 * @param maxBytes the maximum size in bytes; 0 to turn off the cache
+	 * @see #clearPredictionCache()
+	 */
+	public static void setPredictionCacheSize(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("Prediction cache size must be >= 0");
+		predictionCacheSize = maxBytes;
+	}
+	
+	/**
+	 * Get the maximum size of the disk cache used for predicted tiles.
+	 * @return the maximum size in bytes, or 0 if the cache is turned off
+	 * @see #setPredictionCacheSize(long)
+	 */
+	public static long getPredictionCacheSize() {
+		return predictionCacheSize;
+	}
+	
+	/**
+	 * Delete all cached tile predictions.
+	 * @see #setPredictionCacheSize(long)
+	 */
+	public static void clearPredictionCache() {
+		TilePredictionCache.clear();
+	}
+
+	private static volatile boolean adaptiveConcurrency = false;
+	
+	private static volatile int adaptiveConcurrencyMin = 1;
+	
+	private static volatile int adaptiveConcurrencyMax = Integer.MAX_VALUE;
+	
+	/**
+	 * Request that the number of active workers in throughput mode is adjusted while tiles are processed.
+	 * <p>
+	 * Processing starts with the minimum number of workers. The number is increased while tiles are waiting 
+	 * and latency remains stable, and halved if the tile latency rises well above its baseline or 
+	 * heap or native memory use is high. Each change is logged with its reason.
+	 * @param adaptive
+	 * @see #setThroughputMode(int, int)
+	 * @see #setAdaptiveConcurrencyBounds(int, int)
+	 */
+	public static void setAdaptiveConcurrency(boolean adaptive) {
+		adaptiveConcurrency = adaptive;
+	}
+	
+	/**
+	 * Query whether the number of active workers is adjusted adaptively.
+	 * @return
+	 * @see #setAdaptiveConcurrency(boolean)
+	 */
+	public static boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+	
+	/**
+	 * Set the bounds for the number of active workers when using adaptive concurrency.
+	 * The maximum is also limited by the number of replicas.
+	 * @param minWorkers minimum number of active workers
+	 * @param maxWorkers maximum number of active workers
+	 * @see #setAdaptiveConcurrency(boolean)
+	 */
+	public static void setAdaptiveConcurrencyBounds(int minWorkers, int maxWorkers) {
+		if (maxWorkers < minWorkers)
+			throw new IllegalArgumentException("Maximum workers must be >= minimum workers");
+		adaptiveConcurrencyMin = Math.max(1, minWorkers);
+		adaptiveConcurrencyMax = Math.max(1, maxWorkers);
+	}
+	
+	/**
+	 * Get the minimum number of active workers when using adaptive concurrency.
+	 * @return
+	 */
+	public static int getAdaptiveConcurrencyMin() {
+		return adaptiveConcurrencyMin;
+	}
+	
+	/**
+	 * Get the maximum number of active workers when using adaptive concurrency.
+	 * @return
+	 */
+	public static int getAdaptiveConcurrencyMax() {
+		return adaptiveConcurrencyMax;
+	}
+	
+	private static volatile double simplifyTolerance = 0;
+	
+	/**
+	 * Set the tolerance used to simplify ROIs created from segmentation masks.
+	 * <p>
+	 * Traced contours contain a vertex for every pixel step along the boundary, which can make 
+	 * objects expensive to store and display. If the tolerance is &gt; 0, a topology-preserving 
+	 * simplification is applied in the pixel coordinates of the mask, so that each geometry remains valid. 
+	 * Each class is simplified separately, so neighboring objects of different classes may overlap slightly 
+	 * (or have small gaps between them) after simplification. The number of vertices before and after 
+	 * simplification is logged.
+	 * @param tolerance the distance tolerance, in mask pixels; 0 to disable simplification
+	 */
+	public static void setSimplifyTolerance(double tolerance) {
+		if (!Double.isFinite(tolerance) || tolerance < 0)
+			throw new IllegalArgumentException("Simplify tolerance must be >= 0");
+		simplifyTolerance = tolerance;
+	}
+	
+	/**
+	 * Get the tolerance used to simplify ROIs created from segmentation masks.
+	 * @return the distance tolerance in mask pixels, or 0 if simplification is disabled
+	 * @see #setSimplifyTolerance(double)
+	 */
+	public static double getSimplifyTolerance() {
+		return simplifyTolerance;
+	}
+	
+	private static volatile boolean autoTuning = false;
+	
+	/**
+	 * Request that the engine, batch size and thread layout are tuned automatically for each model.
+	 * <p>
+	 * When a {@link DjlObjectDetector} or {@link DnnModel} is initialized, a short timed sweep is run 
+	 * using synthetic input, and the fastest configuration is used.
+	 * The result is cached on disk for the model and CPU, so the sweep only runs once per machine.
+	 * Cached results are only applied while auto-tuning is turned on.
+	 * <p>
+	 * The sweep runs on the thread that initializes the model, and blocks it until complete. 
+	 * Since {@link #createDnnModel(String, URI, String, Map, Map)} initializes models immediately, 
+	 * the first call for each model may take several seconds longer when auto-tuning is turned on.
+	 * <p>
+	 * If the model is also available with the same name for another engine (e.g. {@code model.onnx} and 
+	 * {@code model.pt}), both engines are compared.
+	 * @param doAutoTune
+	 * @see #clearAutoTuningCache()
+	 */
+	public static void setAutoTuning(boolean doAutoTune) {
+		autoTuning = doAutoTune;
+	}
+	
+	/**
+	 * Query whether auto-tuning is turned on.
+	 * @return
+	 * @see #setAutoTuning(boolean)
+	 */
+	public static boolean isAutoTuning() {
+		return autoTuning;
+	}
+	
+	/**
+	 * Remove all auto-tuning results from the cache, so that models are tuned again when they are next initialized.
+	 */
+	public static void clearAutoTuningCache() {
+		DjlAutoTuner.clear();
+	}
+
 //	static ZooModel<Mat, Mat> loadModelCV(URI uri, String ndLayout) throws ModelNotFoundException, MalformedModelException, IOException {
 //		var criteria = Criteria.builder()
 //				.setTypes(Mat.class, Mat.class)
@@ -399,40 +1061,92 @@ public class DjlTools {
 		if (dataType == DataType.UNKNOWN)
 			throw new IllegalArgumentException("Unsupported data type for " + mat);
 		var shape = getShape(mat, ndLayout);
+		return matToNDArray(manager, mat, shape, dataType, isPlanarLayout(ndLayout, shape));
+	}
+	
+	/**
+	 * Check if a layout requires channels to be stored as separate planes, i.e. channels-first 
+	 * with more than one channel.
+	 * @param ndLayout the layout; HW must appear together (in that order)
+	 * @param shape the shape of the array, corresponding to the layout
+	 * @return true if the channels should be stored as planes, false if the storage order is the same as for OpenCV
+	 * @throws IllegalArgumentException if the layout is not supported
+	 */
+	static boolean isPlanarLayout(String ndLayout, Shape shape) throws IllegalArgumentException {
 		int indC = ndLayout.indexOf("C");
 		int indHW = ndLayout.indexOf("HW");
 		if (indHW < 0)
 			throw new IllegalArgumentException("Expected layout contains HW, but provided layout is " + ndLayout);
-		// Copy all at once is using the same storage order as OpenCV
-		// TODO: Check what this order is!!!
-		NDArray array = null;
-		if (indC > indHW || shape.get(indC) == 1) {
-			// Channels-last, or single-channel
-			var buffer = mat.createBuffer();
-			array = manager.create(buffer, shape, dataType);			
-		} else if ("NCHW".equals(ndLayout) || "CHW".equals(ndLayout)) {
-			// Channels-first - an OpenCV blob is defined to have the order NCHW
-			array = manager.create(opencv_dnn.blobFromImage(mat).createBuffer(), shape, dataType);
+		// Any dimensions other than C, H and W are singletons, so only the position of C matters
+		return indC >= 0 && indC < indHW && shape.get(indC) > 1;
+	}
+	
+	/**
+	 * Convert an Opencv {@link Mat} to a Deep Java Library {@link NDArray}, using a precomputed 
+	 * shape and data type.
+	 * @param manager an {@link NDManager}, required to create the NDArray
+	 * @param mat the mat to convert
+	 * @param shape the output shape
+	 * @param dataType the output data type, which must match the Mat depth
+	 * @param isPlanar true if the channels should be stored as planes (channels-first)
+	 * @return an NDArray containing the values in the Mat
+	 * @see #isPlanarLayout(String, Shape)
+	 */
+	static NDArray matToNDArray(NDManager manager, Mat mat, Shape shape, DataType dataType, boolean isPlanar) {
+		return matToNDArray(manager, mat, shape, dataType, isPlanar, null);
+	}
+	
+	/**
+	 * Convert an Opencv {@link Mat} to a Deep Java Library {@link NDArray}, using a precomputed 
+	 * shape and data type, and optionally a reusable buffer for channels-first data.
+	 * @param manager an {@link NDManager}, required to create the NDArray
+	 * @param mat the mat to convert
+	 * @param shape the output shape
+	 * @param dataType the output data type, which must match the Mat depth
+	 * @param isPlanar true if the channels should be stored as planes (channels-first)
+	 * @param planarBuffer direct buffer with native byte order and exactly the number of bytes needed for the Mat, 
+	 *                     used to store channels-first data; if null, a new buffer is allocated. 
+	 *                     Because engines may use the buffer directly, it must not be reused until the NDArray has been closed.
+	 * @return an NDArray containing the values in the Mat
+	 */
+	static NDArray matToNDArray(NDManager manager, Mat mat, Shape shape, DataType dataType, boolean isPlanar, ByteBuffer planarBuffer) {
+		// Buffers are only meaningful if the Mat is stored in a single block of memory
+		if (!mat.isContinuous())
+			mat = mat.clone();
+		if (isPlanar) {
+			return createPlanarNDArray(manager, mat, shape, dataType, planarBuffer);
 		} else {
-			// Really awkward strategy to handle channels in an uncommon place (shouldn't actually occur?)
-			var shapeDims = shape.getShape().clone();
-			shapeDims[indC] = 1;
-			var shapeChannel = new Shape(shapeDims, shape.getLayout());
-
-			for (var mat2 : OpenCVTools.splitChannels(mat)) {
-				var buffer = mat2.createBuffer();
-				var arrayTemp = manager.create(buffer, shapeChannel, dataType);
-				if (array == null)
-					array = arrayTemp;
-				else {
-					var arrayTemp2 = array.concat(arrayTemp, indC);
-					array.close();
-					arrayTemp.close();
-					array = arrayTemp2;
-				}
+			// Channels-last, or single-channel - copy all at once using the same storage order as OpenCV
+			var buffer = mat.createBuffer();
+			return manager.create(buffer, shape, dataType);
+		}
+	}
+	
+	/**
+	 * Create an NDArray with channels-first (planar) memory order from a multichannel Mat.
+	 * <p>
+	 * Each channel is written by OpenCV directly into a direct buffer that is then used to create the NDArray.
+	 * This avoids creating an intermediate (float) blob or per-channel arrays, and retains the original data type.
+	 */
+	private static NDArray createPlanarNDArray(NDManager manager, Mat mat, Shape shape, DataType dataType, ByteBuffer buffer) {
+		int nChannels = mat.channels();
+		long planeBytes = mat.total() * mat.elemSize1();
+		int nBytes = Math.toIntExact(planeBytes * nChannels);
+		if (buffer == null)
+			buffer = manager.allocateDirect(nBytes);
+		else if (!buffer.isDirect() || buffer.remaining() != nBytes)
+			throw new IllegalArgumentException("Expected a direct buffer with " + nBytes + " bytes, but found " + buffer);
+		try (var scope = new PointerScope()) {
+			var pointer = new BytePointer(buffer);
+			int planeType = opencv_core.CV_MAKETYPE(mat.depth(), 1);
+			var planes = new MatVector(nChannels);
+			for (int c = 0; c < nChannels; c++) {
+				// Mat::create won't reallocate these, since the size and type already match
+				planes.put(c, new Mat(mat.rows(), mat.cols(), planeType, new BytePointer(pointer).position(c * planeBytes)));
 			}
+			opencv_core.split(mat, planes);
 		}
-		return array;
+		return manager.create(buffer, shape, dataType);
 	}
 	
 	/**
@@ -477,157 +1191,147 @@ public class DjlTools {
 		for (int i = 0; i < dims.length; i++) {
 			dims[i] = (int)shape.get(i + nLeading);
 		}
+		// Squeezing doesn't change the memory order, so we only need to update the layout
 		if (doSqueeze) {
-			array = array.squeeze();
 			ndLayout = ndLayout.substring(nLeading, ndLayout.length()-nTrailing);
 		}
 		
-		// If we have multiple channels, we might need to handle them separately
 		int indH = ndLayout.indexOf("H");
 		int indW = ndLayout.indexOf("W");
 		int indC = ndLayout.indexOf("C");
 		int height    = indH >= 0 && indH < dims.length ? dims[indH] : 1;
 		int width     = indW >= 0 && indW < dims.length ? dims[indW] : 1;
 		int nChannels = indC >= 0 && indC < dims.length ? dims[indC] : 1;
-		if (nChannels > 1 && indC >= 0 && indC < indH) {
-			Mat mat = new Mat();
-			try (var scope = new PointerScope()) {
-				List<Mat> channels = new ArrayList<>();
-				try (var list = array.split(nChannels, indC)) {
-					for (var ndChannel : list) {
-						channels.add(ndArrayToMat(ndChannel, ndLayout, false));
-						ndChannel.close();
-					}
-				}
-				OpenCVTools.mergeChannels(channels, mat);
-			}
-			return mat;
+		boolean isPlanar = nChannels > 1 && indC >= 0 && indC < indH;
+		boolean isImage = dims.length <= 3 && width * height * nChannels == array.size();
+		if (isPlanar && !isImage)
+			throw new IllegalArgumentException("Can't convert channels-first array with shape " + shape + " to Mat");
+		
+		var bytes = getBytes(array);
+		// OpenCV doesn't support 64-bit integers, so convert these to 64-bit float
+		if (dataType == DataType.INT64) {
+			bytes = widenLongsToDoubles(bytes);
+			dataType = DataType.FLOAT64;
 		}
 		
 		Mat mat;
 		var cvDepth = getMatDepth(dataType);
-		if (dims.length <= 3 && width * height * nChannels == array.size()) {
+		if (isImage) {
 			mat = new Mat(height, width, opencv_core.CV_MAKETYPE(cvDepth, nChannels));
 		} else {
 			mat = new Mat(dims, cvDepth);
 		}
-		try (var indexer = mat.createIndexer()) {
-			if (indexer instanceof ByteIndexer) {
-				((ByteIndexer) indexer).put(0L, array.toByteArray());
-			} else if (indexer instanceof UByteIndexer) {
-				((UByteIndexer) indexer).put(0L, getInts(array));
-			} else if (indexer instanceof UShortIndexer) {
-				((UShortIndexer) indexer).put(0L, getInts(array));
-			} else if (indexer instanceof IntIndexer) {
-				((IntIndexer) indexer).put(0L, getInts(array));
-			} else if (indexer instanceof FloatIndexer) {
-				((FloatIndexer) indexer).put(0L, getFloats(array));
-			} else if (indexer instanceof HalfIndexer) {
-				((HalfIndexer) indexer).put(0L,getFloats(array));
-			} else if (indexer instanceof DoubleIndexer) {
-				((DoubleIndexer) indexer).put(0L, getDoubles(array));
-			} else if (indexer instanceof LongIndexer) {
-				((LongIndexer) indexer).put(0L, getLongs(array));
-			} else if (indexer instanceof BooleanIndexer) {
-				((BooleanIndexer) indexer).put(0L, getBooleans(array));
-			} else
-				throw new IllegalArgumentException("Unable to convert array " + array + " to Mat");
+		long nBytes = mat.total() * mat.elemSize();
+		if (bytes.remaining() != nBytes)
+			throw new IllegalArgumentException("Unable to convert array " + array + " to Mat - expected " + nBytes + " bytes but found " + bytes.remaining());
+		
+		if (isPlanar) {
+			// Interleave the channels in a single pass
+			mergePlanes(bytes, mat);
+		} else {
+			// Memory order already matches OpenCV
+			mat.data().capacity(nBytes).asByteBuffer().put(bytes);
 		}
 		return mat;
 	}
-
+	
 	/**
-	 * Extract array values as longs, converting if necessary.
-	 * @param array
+	 * Direct buffers used temporarily when converting an NDArray to a Mat.
+	 * These are only used within a single conversion (the values are always copied into the Mat), 
+	 * and so can be reused by the same thread.
+	 * They are never used to create an NDArray, since engines may retain a reference to the buffer.
+	 */
+	private static final ThreadLocal<ByteBuffer> scratchBuffers = new ThreadLocal<>();
+	
+	/**
+	 * Get a direct buffer for temporary use by the current thread, with native byte order.
+	 * The buffer grows as needed, so after the first conversion of a given size no further allocation is needed.
+	 * @param nBytes the number of bytes needed; the limit of the buffer is set to this
 	 * @return
 	 */
-	public static long[] getLongs(NDArray array) {
-		if (array.getDataType() == DataType.INT64) {
-			try {
-				return array.toLongArray();
-			} catch (Exception e) {
-				logger.error("Exception requesting longs from NDArray");
-			}
+	private static ByteBuffer getScratchBuffer(int nBytes) {
+		var buffer = scratchBuffers.get();
+		if (buffer == null || buffer.capacity() < nBytes) {
+			buffer = ByteBuffer.allocateDirect(nBytes).order(ByteOrder.nativeOrder());
+			scratchBuffers.set(buffer);
 		}
-		return array.toType(DataType.INT64, true).toLongArray();
+		buffer.clear().limit(nBytes);
+		return buffer;
 	}
-
+	
 	/**
-	 * Extract array values as booleans, converting if necessary.
-	 * @param array
-	 * @return
+	 * Get the bytes of an array in native order.
+	 * If this fails (e.g. because the array is on a device that doesn't support reading it directly), 
+	 * the bytes are read from a copy on the CPU.
 	 */
-	private static boolean[] getBooleans(NDArray array) {
-		if (array.getDataType() == DataType.BOOLEAN) {
-			try {
-				return array.toBooleanArray();
-			} catch (Exception e) {
-				logger.error("Exception requesting ints from NDArray");
+	private static ByteBuffer getBytes(NDArray array) {
+		try {
+			return array.toByteBuffer().order(ByteOrder.nativeOrder());
+		} catch (Exception e) {
+			logger.debug("Unable to read bytes from {} ({}), copying to CPU", array.getDevice(), e.getMessage());
+			try (var copy = array.toDevice(Device.cpu(), true)) {
+				var bytes = copy.toByteBuffer();
+				// Copy, since the buffer may no longer be valid once the array is closed
+				var output = ByteBuffer.allocate(bytes.remaining()).order(ByteOrder.nativeOrder());
+				output.put(bytes.order(ByteOrder.nativeOrder())).flip();
+				return output;
 			}
 		}
-		return array.toType(DataType.BOOLEAN, true).toBooleanArray();
 	}
-
+	
 	/**
-	 * Extract array values as ints, converting if necessary.
-	 * @param array
-	 * @return
+	 * Copy values from 64-bit integers to 64-bit floats, without using a Java array.
+	 * Values with a magnitude greater than 2^53 are rounded to the nearest representable double.
 	 */
-	private static int[] getInts(NDArray array) {
-		if (array.getDataType() == DataType.INT32) {
-			try {
-				return array.toIntArray();
-			} catch (Exception e) {
-				logger.error("Exception requesting ints from NDArray");
-			}
-		} else if (array.getDataType() == DataType.UINT8) {
-			try {
-				return array.toUint8Array();
-			} catch (Exception e) {
-				logger.error("Exception requesting ints from NDArray");
-			}
-		}
-		return array.toType(DataType.INT32, true).toIntArray();
+	private static ByteBuffer widenLongsToDoubles(ByteBuffer bytes) {
+		var longs = bytes.asLongBuffer();
+		var output = getScratchBuffer(longs.remaining() * Double.BYTES);
+		var doubles = output.asDoubleBuffer();
+		while (longs.hasRemaining())
+			doubles.put(longs.get());
+		return output;
 	}
-
+	
 	/**
-	 * Extract array values as doubles, converting if necessary.
-	 * @param array
-	 * @return
+	 * Merge channels stored as consecutive planes into an interleaved Mat.
+	 * The Mat must already have the correct size and type.
 	 */
-	private static double[] getDoubles(NDArray array) {
-		if (array.getDataType() == DataType.FLOAT64) {
-			try {
-				return array.toDoubleArray();
-			} catch (Exception e) {
-				logger.error("Exception requesting doubles from NDArray");
-			}
-		} else if (array.getDataType() == DataType.INT64) {
-			try {
-				return Arrays.stream(array.toLongArray()).mapToDouble(i -> i).toArray();
-			} catch (Exception e) {
-				logger.error("Exception requesting doubles from NDArray (from longs)");
+	private static void mergePlanes(ByteBuffer bytes, Mat mat) {
+		if (!bytes.isDirect()) {
+			var direct = getScratchBuffer(bytes.remaining());
+			direct.put(bytes).flip();
+			bytes = direct;
+		}
+		int nChannels = mat.channels();
+		long planeBytes = mat.total() * mat.elemSize1();
+		try (var scope = new PointerScope()) {
+			var pointer = new BytePointer(bytes);
+			int planeType = opencv_core.CV_MAKETYPE(mat.depth(), 1);
+			var planes = new MatVector(nChannels);
+			for (int c = 0; c < nChannels; c++) {
+				planes.put(c, new Mat(mat.rows(), mat.cols(), planeType, new BytePointer(pointer).position(c * planeBytes)));
 			}
+			// Mat::create won't reallocate the output, since the size and type already match
+			opencv_core.merge(planes, mat);
 		}
-		// If the device is MPS, we can't convert to float64 - so make sure we're on the CPU
-		return array.toDevice(Device.cpu(), false).toType(DataType.FLOAT64, true).toDoubleArray();
 	}
 
 	/**
-	 * Extract array values as floats, converting if necessary.
+	 * Extract array values as longs, converting if necessary.
 	 * @param array
 	 * @return
 	 */
-	private static float[] getFloats(NDArray array) {
-		if (array.getDataType() == DataType.FLOAT32 || array.getDataType() == DataType.FLOAT16) {
+	public static long[] getLongs(NDArray array) {
+		if (array.getDataType() == DataType.INT64) {
 			try {
-				return array.toFloatArray();
+				return array.toLongArray();
 			} catch (Exception e) {
-				logger.error("Exception requesting floats from NDArray", e);
+				logger.error("Exception requesting longs from NDArray");
 			}
 		}
-		return array.toType(DataType.FLOAT32, true).toFloatArray();
+		return array.toType(DataType.INT64, true).toLongArray();
 	}
+
 	
 	
 	static class MatTranslator implements Translator<Mat, Mat> {
@@ -714,7 +1418,7 @@ public class DjlTools {
 		case INT32:
 			return opencv_core.CV_32S;
 		case INT64:
-			return opencv_core.CV_64F;
+			return opencv_core.CV_64F; // OpenCV has no 64-bit integer type
 		case INT8:
 			return opencv_core.CV_8S;
 		case UINT8:
@@ -16,10 +16,7 @@
 
 package qupath.ext.djl;
 
-import java.awt.image.BandedSampleModel;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferFloat;
-import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.URI;
@@ -31,13 +28,20 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,11 +58,14 @@ import ai.djl.modality.cv.output.CategoryMask;
 import ai.djl.modality.cv.output.DetectedObjects;
 import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
 import ai.djl.modality.cv.output.Joints;
+import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.ndarray.types.LayoutType;
 import ai.djl.ndarray.types.Shape;
 import ai.djl.modality.cv.output.Landmark;
 import ai.djl.modality.cv.output.Mask;
+import ai.djl.modality.cv.output.Rectangle;
 import ai.djl.modality.cv.translator.BigGANTranslator;
 import ai.djl.repository.Artifact;
 import ai.djl.repository.zoo.Criteria;
@@ -66,7 +73,10 @@ import ai.djl.repository.zoo.ModelNotFoundException;
 import ai.djl.repository.zoo.ModelZoo;
 import ai.djl.repository.zoo.ZooModel;
 import ai.djl.training.util.ProgressBar;
+import ai.djl.translate.Batchifier;
 import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
 import ai.djl.translate.TranslatorFactory;
 import ai.djl.util.ClassLoaderUtils;
 import ai.djl.util.Pair;
@@ -74,12 +84,15 @@ import ai.djl.util.PairList;
 import qupath.lib.analysis.images.ContourTracing;
 import qupath.lib.analysis.images.SimpleImage;
 import qupath.lib.geom.Point2;
+import qupath.lib.io.GsonTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.AbstractTileableImageServer;
 import qupath.lib.images.servers.GeneratingImageServer;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerBuilder.AbstractServerBuilder;
 import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
 import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.ImageServers;
 import qupath.lib.images.servers.TileRequest;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
@@ -104,6 +117,16 @@ public class DjlZoo {
 	
 	private final static Logger logger = LoggerFactory.getLogger(DjlZoo.class);
 	
+	/**
+	 * Minimum proportion of the smaller object covered by the intersection for detections to be considered duplicates.
+	 */
+	private final static double DUPLICATE_OVERLAP = 0.5;
+	
+	/**
+	 * Probability threshold used to convert instance masks to ROIs.
+	 */
+	private final static double MASK_THRESHOLD = 0.5;
+	
 	/**
 	 * Print all available zoo models to the log.
 	 */
@@ -229,8 +252,9 @@ public class DjlZoo {
 	 */
 	public static ZooModel<?, ?> loadModel(Artifact artifact, boolean allowDownload) throws ModelNotFoundException, MalformedModelException, IOException {
 		var criteria = buildCriteria(artifact, allowDownload);
-		var model = criteria.loadModel();
-		return model;
+		// The engine is chosen by DJL, so make sure engine properties are set before it is initialized
+		DjlEngineOptions.applyAllEngineProperties();
+		return DjlTools.callModelTask(!allowDownload, () -> criteria.loadModel());
 	}
 	
 	/**
@@ -244,67 +268,63 @@ public class DjlZoo {
 	 * @throws IOException
 	 */
 	public static Criteria<?, ?> buildCriteria(Artifact artifact, boolean allowDownload) throws ModelNotFoundException, MalformedModelException, IOException {
-		var before = System.getProperty("ai.djl.offline");
-		try {
-			if (allowDownload)
-				System.setProperty("ai.djl.offline", "false");
-			
-			
-			var application = artifact.getMetadata().getApplication();
-			var builder = Criteria.builder()
-					.optApplication(application)
-					.optArtifactId(artifact.getMetadata().getArtifactId())
-					.optProgress(new ProgressBar())
-					.optArguments(artifact.getArguments())
-					.optGroupId(artifact.getMetadata().getGroupId())
-					.optFilters(artifact.getProperties())
-					;
-			
-			var factoryClass = artifact.getArguments().getOrDefault("translatorFactory", null);
-			if (factoryClass instanceof String) {
-				var factory = getTranslatorFactory((String)factoryClass);
-				var supportedTypes = factory.getSupportedTypes();
-				var preferredTypes = supportedTypes.stream()
-					.filter(p -> preferredInputs.contains(p.getKey()) && preferredOutputs.contains(p.getValue()))
-					.sorted(Comparator.comparingInt((Pair<Type, Type> p) -> preferredInputs.indexOf(p.getKey()))
-							.thenComparingInt(p -> preferredOutputs.indexOf(p.getValue())))
-					.findFirst()
-					.orElse(null);
-				if (preferredTypes == null) {
-					if (supportedTypes.size() == 1)
-						preferredTypes = supportedTypes.iterator().next();
-					logger.warn("No supported types found in " + factoryClass + " -\n"
-							+ "Please call .builder().setTypes(inputClass, outputClass).build() to specify these directly");
-				}
-				if (preferredTypes != null)
-					builder = builder.setTypes((Class<?>)preferredTypes.getKey(), (Class<?>)preferredTypes.getValue());
-			} else {
-				logger.warn("No translatorFactory specified - will try to choose suitable input/output class based on the application.\n" 
-							+ "If this fails, please call .builder().setTypes(inputClass, outputClass).build() to specify these directly");
-				if (application == Application.CV.IMAGE_CLASSIFICATION) {
-					builder = builder.setTypes(Image.class, Classifications.class);
-				} else if (application == Application.CV.SEMANTIC_SEGMENTATION) {
-					builder = builder.setTypes(Image.class, CategoryMask.class);
-				} else if (application == Application.CV.IMAGE_GENERATION) {
-					builder = builder.setTypes(Image.class, Image.class);				
-				} else if (application == Application.CV.OBJECT_DETECTION) {
-					builder = builder.setTypes(Image.class, DetectedObjects.class);				
-				} else if (application == Application.CV.INSTANCE_SEGMENTATION) {
-					builder = builder.setTypes(Image.class, DetectedObjects.class);
-				} else if (application == Application.CV.WORD_RECOGNITION) {
-					builder = builder.setTypes(Image.class, DetectedObjects.class);
-				} else if (application == Application.CV.POSE_ESTIMATION) {
-					builder = builder.setTypes(Image.class, Joints.class);
-				} else
-					builder = builder.setTypes(NDList.class, NDList.class);
+		if (!allowDownload)
+			return buildCriteria(artifact);
+		return DjlTools.callModelTask(false, () -> buildCriteria(artifact));
+	}
+	
+	private static Criteria<?, ?> buildCriteria(Artifact artifact) {
+		var application = artifact.getMetadata().getApplication();
+		var builder = Criteria.builder()
+				.optApplication(application)
+				.optArtifactId(artifact.getMetadata().getArtifactId())
+				.optProgress(new ProgressBar())
+				.optArguments(artifact.getArguments())
+				.optGroupId(artifact.getMetadata().getGroupId())
+				.optFilters(artifact.getProperties())
+				;
+		
+		var factoryClass = artifact.getArguments().getOrDefault("translatorFactory", null);
+		if (factoryClass instanceof String) {
+			var factory = getTranslatorFactory((String)factoryClass);
+			var supportedTypes = factory.getSupportedTypes();
+			var preferredTypes = supportedTypes.stream()
+				.filter(p -> preferredInputs.contains(p.getKey()) && preferredOutputs.contains(p.getValue()))
+				.sorted(Comparator.comparingInt((Pair<Type, Type> p) -> preferredInputs.indexOf(p.getKey()))
+						.thenComparingInt(p -> preferredOutputs.indexOf(p.getValue())))
+				.findFirst()
+				.orElse(null);
+			if (preferredTypes == null) {
+				if (supportedTypes.size() == 1)
+					preferredTypes = supportedTypes.iterator().next();
+				logger.warn("No supported types found in " + factoryClass + " -\n"
+						+ "Please call .builder().setTypes(inputClass, outputClass).build() to specify these directly");
 			}
-			return builder.build();
-		} finally {
-			System.setProperty("ai.djl.offline", before);
+			if (preferredTypes != null)
+				builder = builder.setTypes((Class<?>)preferredTypes.getKey(), (Class<?>)preferredTypes.getValue());
+		} else {
+			logger.warn("No translatorFactory specified - will try to choose suitable input/output class based on the application.\n" 
+						+ "If this fails, please call .builder().setTypes(inputClass, outputClass).build() to specify these directly");
+			if (application == Application.CV.IMAGE_CLASSIFICATION) {
+				builder = builder.setTypes(Image.class, Classifications.class);
+			} else if (application == Application.CV.SEMANTIC_SEGMENTATION) {
+				builder = builder.setTypes(Image.class, CategoryMask.class);
+			} else if (application == Application.CV.IMAGE_GENERATION) {
+				builder = builder.setTypes(Image.class, Image.class);				
+			} else if (application == Application.CV.OBJECT_DETECTION) {
+				builder = builder.setTypes(Image.class, DetectedObjects.class);				
+			} else if (application == Application.CV.INSTANCE_SEGMENTATION) {
+				builder = builder.setTypes(Image.class, DetectedObjects.class);
+			} else if (application == Application.CV.WORD_RECOGNITION) {
+				builder = builder.setTypes(Image.class, DetectedObjects.class);
+			} else if (application == Application.CV.POSE_ESTIMATION) {
+				builder = builder.setTypes(Image.class, Joints.class);
+			} else
+				builder = builder.setTypes(NDList.class, NDList.class);
 		}
+		return builder.build();
 	}
 	
-	
 	private static TranslatorFactory getTranslatorFactory(String factoryClass) {
 		ClassLoader cl = ClassLoaderUtils.getContextClassLoader();
         return ClassLoaderUtils.initClass(cl, TranslatorFactory.class, factoryClass);
@@ -322,7 +342,7 @@ public class DjlZoo {
 	public static ROI createROI(DetectedObject obj, ImageRegion region) {
 		var box = obj.getBoundingBox();
 		if (box instanceof Mask) {
-			return createROI((Mask)box, region, 0.5);
+			return createROI((Mask)box, region, MASK_THRESHOLD);
 		} else if (box instanceof Landmark) {
 			return createROI((Landmark)box, region);
 		} else
@@ -361,26 +381,23 @@ public class DjlZoo {
 	 * @return
 	 */
 	public static ROI createROI(Mask mask, ImageRegion region, double threshold) {
-		float[][] probs = mask.getProbDist();
-		int w = probs.length;
-		int h = probs[0].length;
-		var buffer = new DataBufferFloat(w * h, 1);
-		var sampleModel = new BandedSampleModel(buffer.getDataType(), w, h, 1);
-		var raster = WritableRaster.createWritableRaster(sampleModel, buffer, null);
-		for (int x = 0; x < w; x++) {
-			float[] col = probs[x];
-			for (int y = 0; y < h; y++) {
-				raster.setSample(x, y, 0, col[y]);
-			}
-		}
+		return createROI(BinaryMask.create(mask.getProbDist(), threshold), mask.getBounds(), region);
+	}
+	
+	/**
+	 * Create a ROI from a thresholded mask, rescaling according to the mask bounds and {@link ImageRegion}.
+	 * @param binary the thresholded mask
+	 * @param bounds the bounds of the mask, as a proportion of the region
+	 * @param region the region
+	 * @return
+	 */
+	private static ROI createROI(BinaryMask binary, Rectangle bounds, ImageRegion region) {
 		if (region == null)
-			region = ImageRegion.createInstance(0, 0, w, h, 0, 0);
-		var geometry = ContourTracing.createTracedGeometry(raster, threshold, Double.POSITIVE_INFINITY, 0, null);
-
-		var bounds = mask.getBounds();
+			region = ImageRegion.createInstance(0, 0, binary.getWidth(), binary.getHeight(), 0, 0);
+		var geometry = simplify(ContourTracing.createTracedGeometry(binary, 1, 1, null));
 
 		var transform = new AffineTransformation();
-		transform.scale(1.0/raster.getWidth(), 1.0/raster.getHeight());
+		transform.scale(1.0/binary.getWidth(), 1.0/binary.getHeight());
 		transform.scale(bounds.getWidth(), bounds.getHeight());
 		transform.translate(bounds.getX(), bounds.getY());
 		transform.scale(region.getWidth(), region.getHeight());
@@ -443,11 +460,38 @@ public class DjlZoo {
 	 * @throws TranslateException
 	 */
 	public static Optional<List<PathObject>> detect(ZooModel<Image, DetectedObjects> model, ImageData<BufferedImage> imageData, Collection<? extends PathObject> parentObjects) throws ModelNotFoundException, MalformedModelException, IOException, TranslateException {
+		return detect(model, imageData, parentObjects, 0, 0);
+	}
+	
+	/**
+	 * Run object detection within specified objects in an image, optionally using overlapping tiles.
+	 * <p>
+	 * In tiled mode, each parent region is split into tiles that are read at full resolution, so memory use 
+	 * depends upon the tile size rather than the size of the region - and small objects are not lost through downsampling.
+	 * Each object is retained only by the tile that contains its centroid away from the overlap, and any remaining 
+	 * duplicates of the same class are removed, keeping the most probable.
+	 * <p>
+	 * In throughput mode (see {@link DjlTools#setThroughputMode(int, int)}), the tiles for each parent are processed 
+	 * in parallel. Otherwise, tiles are processed one at a time within each plane, but z-slices and timepoints are 
+	 * processed in parallel.
+	 * 
+	 * @param model the model
+	 * @param imageData the image within which to detect objects
+	 * @param parentObjects the parent objects, which become parents of what is detected; if null or the root object, the entire image is used for detection.
+	 * @param tileSize the tile width and height, in pixels; if &le; 0, each region is passed to the model as a single image
+	 * @param tileOverlap the overlap between adjacent tiles, in pixels; this should be at least the size of the largest object
+	 * @return an optional containing a list of all objects added, or null if the detection was interrupted
+	 * @throws ModelNotFoundException
+	 * @throws MalformedModelException
+	 * @throws IOException
+	 * @throws TranslateException
+	 */
+	public static Optional<List<PathObject>> detect(ZooModel<Image, DetectedObjects> model, ImageData<BufferedImage> imageData, Collection<? extends PathObject> parentObjects, 
+			int tileSize, int tileOverlap) throws ModelNotFoundException, MalformedModelException, IOException, TranslateException {
 
 		if (parentObjects == null)
 			parentObjects = Collections.singleton(imageData.getHierarchy().getRootObject());
 
-		// Check if we have a specified input size
 		// Check if we have a specified input size
 		var inputHeightWidth = getInputHeightWidth(model);
 		long inputWidth = inputHeightWidth.get(0);
@@ -470,9 +514,9 @@ public class DjlZoo {
 		// Maintain a list of all objects created
 		var list = new ArrayList<PathObject>();
 		
-		try (var manager = model.getNDManager()) {
-			var predictor = model.newPredictor();
-						
+		boolean throughput = DjlTools.isThroughputMode();
+		try (var manager = model.getNDManager(); var replicas = shareReplicas(model, throughput, server.nZSlices() * server.nTimepoints())) {
+			
 			for (var parent : parentObjects) {
 				
 				parent.clearChildObjects();
@@ -488,48 +532,43 @@ public class DjlZoo {
 							);
 				}
 				
-				var childObjects = map.computeIfAbsent(parent, p -> new ArrayList<>());
-				for (var request : requests) {
-					
-					if (Thread.currentThread().isInterrupted()) {
-						logger.warn("Detection interrupted! Discarding {} detection(s)", list.size());
-						return Optional.empty();
-					}
-				
+				List<DetectionTile> tiles;
+				if (tileSize > 0) {
+					// Split into full-resolution tiles
+					var mask = roi == null ? null : roi.getGeometry();
+					tiles = new ArrayList<>();
+					for (var request : requests)
+						tiles.addAll(createDetectionTiles(server, request, mask, tileSize, tileOverlap));
+					logger.debug("Detecting objects in {} tile(s) for {}", tiles.size(), parent);
+				} else {
 					// Make sure we request at a sensible resolution, to give a sensible input
-					if (inputWidth > 0 || inputHeight > 0)
-						request = updateDownsampleForInput(request, inputWidth, inputHeight);
-					
-					var img = server.readRegion(request);
-					
-					var detections = detect(predictor, img);
-					for (var item : detections.items()) {
-						var detected = (DetectedObject)item;
-						if (detected.getProbability() < threshold)
-							continue;
-						
-						var detectedROI = createROI(detected, request);
-						
-						// Trim ROI to fit inside the region, if needed
-						if (roi != null && (detected.getBoundingBox() instanceof Mask || detectedROI.isPoint()))
-							detectedROI = RoiTools.intersection(detectedROI, roi);
-						
-						if (detectedROI.isEmpty()) {
-							logger.debug("ROI detected, but empty (class={}, prob={})", detected.getProbability(), item.getClassName());
-							continue;
-						}
-						
-						var newObject = PathObjects.createAnnotationObject(
-								detectedROI,
-								PathClass.fromString(item.getClassName())
-								);
-						try (var ml = newObject.getMeasurementList()) {
-							ml.put("Class probability", item.getProbability());
-						}
-						list.add(newObject);
-						childObjects.add(newObject);
+					if (inputWidth > 0 || inputHeight > 0) {
+						requests = requests.stream()
+								.map(r -> updateDownsampleForInput(r, inputWidth, inputHeight))
+								.collect(Collectors.toList());
 					}
+					tiles = requests.stream().map(DetectionTile::new).collect(Collectors.toList());
 				}
+				
+				var parentDetected = new ArrayList<PathObject>();
+				ModelReplicas.ReplicaTask<DetectionTile, Image, DetectedObjects, List<PathObject>> task = 
+						(tile, predictor) -> tile.filter(detectObjects(predictor, server, tile.request, roi, threshold));
+				try {
+					// Throughput mode: process tiles in parallel, one per replica
+					// Latency mode: process tiles one at a time within each plane, but z-slices and timepoints in parallel
+					var results = throughput && tiles.size() > 1 ? replicas.invokeAll(tiles, task) : 
+						replicas.invokeByPlane(tiles, t -> t.request.getImagePlane(), task);
+					for (var detected : results)
+						parentDetected.addAll(detected);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					logger.warn("Detection interrupted! Discarding {} detection(s)", list.size() + parentDetected.size());
+					return Optional.empty();
+				}
+				
+				List<PathObject> detected = tileSize > 0 && tiles.size() > 1 ? removeDuplicateDetections(parentDetected) : parentDetected;
+				list.addAll(detected);
+				map.computeIfAbsent(parent, p -> new ArrayList<>()).addAll(detected);
 			}
 			
 		}
@@ -539,6 +578,231 @@ public class DjlZoo {
 		return Optional.of(list);
 	}
 	
+	/**
+	 * Share a model between replicas.
+	 * In throughput mode, this uses the requested number of replicas. In latency mode, there is one replica 
+	 * for each plane that may be processed concurrently; this doesn't duplicate the model weights.
+	 * @param model the model to share
+	 * @param throughput true if throughput mode is being used
+	 * @param nPlanes the number of planes (z-slices and timepoints) that may be processed
+	 * @return
+	 */
+	private static <I, O> ModelReplicas<I, O> shareReplicas(ZooModel<I, O> model, boolean throughput, int nPlanes) {
+		return ModelReplicas.share(model, throughput ? DjlTools.getReplicaCount() : PlaneTasks.getMaxConcurrentPlanes(nPlanes));
+	}
+	
+	/**
+	 * Create overlapping tiles covering a region request, at the same downsample.
+	 * Tiles are clipped to the image bounds, and those that don't intersect the mask are skipped.
+	 * @param server the server, used to determine the image bounds
+	 * @param request the region to tile
+	 * @param mask optional geometry within which objects should be detected
+	 * @param tileSize tile width and height, in pixels at the request downsample
+	 * @param tileOverlap overlap between tiles, in pixels at the request downsample
+	 * @return
+	 */
+	static List<DetectionTile> createDetectionTiles(ImageServer<BufferedImage> server, RegionRequest request, Geometry mask, int tileSize, int tileOverlap) {
+		double downsample = request.getDownsample();
+		int size = Math.max(1, (int)Math.round(tileSize * downsample));
+		int overlap = Math.max(0, Math.min(size - 1, (int)Math.round(tileOverlap * downsample)));
+		int stride = size - overlap;
+		int minX = Math.max(0, request.getMinX());
+		int minY = Math.max(0, request.getMinY());
+		int maxX = Math.min(server.getWidth(), request.getMaxX());
+		int maxY = Math.min(server.getHeight(), request.getMaxY());
+		var prepared = mask == null ? null : PreparedGeometryFactory.prepare(mask);
+		var tiles = new ArrayList<DetectionTile>();
+		for (int y = minY; y < maxY; y += stride) {
+			int h = Math.min(size, maxY - y);
+			for (int x = minX; x < maxX; x += stride) {
+				int w = Math.min(size, maxX - x);
+				if (prepared == null || prepared.intersects(GeometryTools.createRectangle(x, y, w, h))) {
+					var tileRequest = RegionRequest.createInstance(request.getPath(), downsample, x, y, w, h, request.getZ(), request.getT());
+					// Objects belong to the tile containing their centroid, splitting the overlap between neighbors
+					double half = overlap / 2.0;
+					tiles.add(new DetectionTile(tileRequest,
+							x <= minX ? Double.NEGATIVE_INFINITY : x + half,
+							y <= minY ? Double.NEGATIVE_INFINITY : y + half,
+							x + w >= maxX ? Double.POSITIVE_INFINITY : x + w - half,
+							y + h >= maxY ? Double.POSITIVE_INFINITY : y + h - half));
+				}
+				if (x + size >= maxX)
+					break;
+			}
+			if (y + size >= maxY)
+				break;
+		}
+		return tiles;
+	}
+	
+	/**
+	 * Remove duplicate detections of the same class from neighboring tiles, retaining the most probable.
+	 * Objects are considered duplicates if their intersection covers most of the smaller object, since an 
+	 * object truncated at a tile boundary may otherwise have a low intersection over union with the complete object.
+	 * @param detections
+	 * @return the detections to retain
+	 */
+	static List<PathObject> removeDuplicateDetections(List<PathObject> detections) {
+		var sorted = new ArrayList<>(detections);
+		sorted.sort(Comparator.comparingDouble((PathObject p) -> p.getMeasurementList().get("Class probability")).reversed());
+		var index = new Quadtree();
+		var retained = new ArrayList<PathObject>();
+		for (var pathObject : sorted) {
+			var geometry = pathObject.getROI().getGeometry();
+			boolean duplicate = false;
+			for (var item : index.query(geometry.getEnvelopeInternal())) {
+				var other = (PathObject)item;
+				if (!Objects.equals(other.getPathClass(), pathObject.getPathClass()) || !other.getROI().getImagePlane().equals(pathObject.getROI().getImagePlane()))
+					continue;
+				var otherGeometry = other.getROI().getGeometry();
+				if (!geometry.getEnvelopeInternal().intersects(otherGeometry.getEnvelopeInternal()))
+					continue;
+				double minArea = Math.min(geometry.getArea(), otherGeometry.getArea());
+				if (minArea <= 0) {
+					duplicate = geometry.equalsExact(otherGeometry, 1e-6);
+				} else
+					duplicate = geometry.intersection(otherGeometry).getArea() > minArea * DUPLICATE_OVERLAP;
+				if (duplicate)
+					break;
+			}
+			if (!duplicate) {
+				index.insert(geometry.getEnvelopeInternal(), pathObject);
+				retained.add(pathObject);
+			}
+		}
+		if (retained.size() < detections.size())
+			logger.debug("Removed {} duplicate detection(s) from overlapping tiles", detections.size() - retained.size());
+		return retained;
+	}
+	
+	/**
+	 * A region for detection, which may be a tile within a larger region.
+	 * Each tile has a 'core' rectangle; objects with centroids outside the core are removed, 
+	 * because they belong to a neighboring tile.
+	 */
+	static class DetectionTile {
+		
+		private final RegionRequest request;
+		private final double coreMinX, coreMinY, coreMaxX, coreMaxY;
+		
+		private DetectionTile(RegionRequest request) {
+			this(request, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+		}
+		
+		private DetectionTile(RegionRequest request, double coreMinX, double coreMinY, double coreMaxX, double coreMaxY) {
+			this.request = request;
+			this.coreMinX = coreMinX;
+			this.coreMinY = coreMinY;
+			this.coreMaxX = coreMaxX;
+			this.coreMaxY = coreMaxY;
+		}
+		
+		/**
+		 * Get the region to read for this tile.
+		 * @return
+		 */
+		RegionRequest getRequest() {
+			return request;
+		}
+		
+		/**
+		 * Remove objects with centroids outside the core of this tile.
+		 * @param pathObjects
+		 * @return the objects to retain
+		 */
+		List<PathObject> filter(List<PathObject> pathObjects) {
+			if (Double.isInfinite(coreMinX) && Double.isInfinite(coreMinY) && Double.isInfinite(coreMaxX) && Double.isInfinite(coreMaxY))
+				return pathObjects;
+			var list = new ArrayList<PathObject>();
+			for (var pathObject : pathObjects) {
+				var roi = pathObject.getROI();
+				double cx = roi.getCentroidX();
+				double cy = roi.getCentroidY();
+				if (cx >= coreMinX && cx < coreMaxX && cy >= coreMinY && cy < coreMaxY)
+					list.add(pathObject);
+			}
+			return list;
+		}
+		
+	}
+	
+	/**
+	 * Detect objects for a single region request.
+	 * @param predictor the predictor
+	 * @param server the server from which to read pixels
+	 * @param request the region to read
+	 * @param roi optional parent ROI, used to trim masks and points
+	 * @param threshold probability threshold for detections
+	 * @return the new objects
+	 * @throws IOException
+	 * @throws TranslateException
+	 */
+	private static List<PathObject> detectObjects(Predictor<Image, DetectedObjects> predictor, ImageServer<BufferedImage> server, 
+			RegionRequest request, ROI roi, double threshold) throws IOException, TranslateException {
+		var img = server.readRegion(request);
+		
+		var detections = detect(predictor, img);
+		// Threshold masks immediately, retaining only a compact binary mask and the bounds - 
+		// so that the dense probabilities can be discarded before tracing
+		List<Pair<DetectedObject, BinaryMask>> items = new ArrayList<>();
+		boolean hasMasks = false;
+		for (var item : detections.items()) {
+			var detected = (DetectedObject)item;
+			if (detected.getProbability() < threshold)
+				continue;
+			BinaryMask binary = null;
+			if (detected.getBoundingBox() instanceof Mask mask) {
+				binary = BinaryMask.create(mask.getProbDist(), MASK_THRESHOLD);
+				if (binary.getArea() == 0) {
+					logger.debug("Mask detected, but empty (class={}, prob={})", detected.getClassName(), detected.getProbability());
+					continue;
+				}
+				detected = new DetectedObject(detected.getClassName(), detected.getProbability(),
+						new Rectangle(mask.getX(), mask.getY(), mask.getWidth(), mask.getHeight()));
+				hasMasks = true;
+			}
+			items.add(new Pair<>(detected, binary));
+		}
+		detections = null;
+		
+		// Tracing masks is expensive, so convert in parallel if there are several
+		var stream = hasMasks && items.size() > 1 ? items.parallelStream() : items.stream();
+		return stream
+				.map(item -> createDetectedObject(item.getKey(), item.getValue(), request, roi))
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Create an object from a detection.
+	 * @param detected the detection
+	 * @param binary optional thresholded mask; if present, this is used to create the ROI within the bounding box of the detection
+	 * @param request the region used for detection
+	 * @param roi optional parent ROI, used to trim masks and points
+	 * @return the new object, or null if its ROI is empty
+	 */
+	private static PathObject createDetectedObject(DetectedObject detected, BinaryMask binary, RegionRequest request, ROI roi) {
+		var detectedROI = binary == null ? createROI(detected, request) : createROI(binary, detected.getBoundingBox().getBounds(), request);
+		
+		// Trim ROI to fit inside the region, if needed
+		if (roi != null && (binary != null || detectedROI.isPoint()))
+			detectedROI = RoiTools.intersection(detectedROI, roi);
+		
+		if (detectedROI.isEmpty()) {
+			logger.debug("ROI detected, but empty (class={}, prob={})", detected.getProbability(), detected.getClassName());
+			return null;
+		}
+		
+		var newObject = PathObjects.createAnnotationObject(
+				detectedROI,
+				PathClass.fromString(detected.getClassName())
+				);
+		try (var ml = newObject.getMeasurementList()) {
+			ml.put("Class probability", detected.getProbability());
+		}
+		return newObject;
+	}
+	
 //	/**
 //	 * Apply an image-to-image model to an input image.
 //	 * @param model
@@ -659,6 +923,10 @@ public class DjlZoo {
 	
 	/**
 	 * Apply a segmentation model to segment objects within an image.
+	 * <p>
+	 * In throughput mode (see {@link DjlTools#setThroughputMode(int, int)}), parent objects are processed in parallel 
+	 * using a pool of predictors. Otherwise, parents on the same plane are processed one at a time, but different 
+	 * z-slices and timepoints are processed in parallel. The hierarchy is only updated once all parents have been processed.
 	 * @param model the segmentation model
 	 * @param imageData the image data
 	 * @param parentObjects parent objects within which the segmentation will be applied; if null or the root object, the full image will be used
@@ -685,48 +953,340 @@ public class DjlZoo {
 		// Maintain a list of all objects created
 		var list = new ArrayList<PathObject>();
 
-		// TODO: Support parallelization
+		// Expand parents into one request per plane, so that parents and the planes of 
+		// z-stacks/time series can be processed in parallel
 		// See https://docs.djl.ai/docs/development/inference_performance_optimization.html
 		var server = imageData.getServer();
-		try (var predictor = model.newPredictor()) {
-			for (var parent : parentObjects) {
-				
-				if (Thread.interrupted()) {
-					logger.warn("Processing interrupted - {} object(s) will be discarded", list.size());
-					return Optional.empty();
+		var items = new ArrayList<Pair<PathObject, RegionRequest>>();
+		for (var parent : parentObjects) {
+			map.put(parent, new ArrayList<>());
+			for (var request : getSegmentationRequests(server, parent, inputWidth, inputHeight))
+				items.add(new Pair<>(parent, request));
+		}
+		ModelReplicas.ReplicaTask<Pair<PathObject, RegionRequest>, Image, CategoryMask, List<PathObject>> task = (item, predictor) -> {
+			var request = item.getValue();
+			var img = server.readRegion(request);
+			return segmentObjects(predictor, img, request, item.getKey().getROI(), creator, skipBackground);
+		};
+		List<List<PathObject>> results;
+		boolean throughput = DjlTools.isThroughputMode();
+		try (var replicas = shareReplicas(withCompactMasks(model), throughput, server.nZSlices() * server.nTimepoints())) {
+			// Throughput mode: process all parents and planes in parallel, one per replica
+			// Latency mode: process one request at a time within each plane, but z-slices and timepoints in parallel
+			results = throughput && items.size() > 1 ? replicas.invokeAll(items, task) : 
+				replicas.invokeByPlane(items, item -> item.getValue().getImagePlane(), task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Processing interrupted - all object(s) will be discarded");
+			return Optional.empty();
+		}
+		for (int i = 0; i < items.size(); i++) {
+			var segmented = results.get(i);
+			map.get(items.get(i).getKey()).addAll(segmented);
+			list.addAll(segmented);
+		}
+		// If we get this far, make the updates
+		updateObjectsAndHierarchy(imageData.getHierarchy(), map, model);
+		return Optional.of(list);
+	}
+	
+	
+	/**
+	 * Apply a segmentation model to segment objects within an image, using overlapping tiles at a fixed resolution.
+	 * <p>
+	 * Each tile is padded by half the overlap on every side, and only the central core of the prediction is retained - 
+	 * so that labels near tile boundaries are determined with sufficient context.
+	 * The label map is assembled one row of tiles (a 'band') at a time, and contours are traced for each band before 
+	 * moving on to the next. This means that memory use depends upon the width of the region and the tile size, 
+	 * rather than the full size of the region.
+	 * <p>
+	 * Z-slices and timepoints are processed in parallel. In throughput mode (see {@link DjlTools#setThroughputMode(int, int)}), 
+	 * the tiles within each band are also processed in parallel.
+	 * 
+	 * @param model the segmentation model
+	 * @param imageData the image data
+	 * @param parentObjects parent objects within which the segmentation will be applied; if null or the root object, the full image will be used
+	 * @param creator function to create a new object; generally used to create annotations or detections
+	 * @param skipBackground if true, no object will be created for the background (label 0)
+	 * @param downsample the downsample at which to apply the model; if &le; 0, the full resolution image is used
+	 * @param tileSize the tile width and height, in pixels at the requested downsample; if &le; 0, tiling is not used
+	 * @param tileOverlap the overlap between adjacent tiles, in pixels at the requested downsample
+	 * @return an optional containing a list of all objects added, or null if the detection was interrupted	
+	 * @throws TranslateException
+	 * @throws IOException
+	 * @see #segmentObjects(ZooModel, ImageData, Collection, Function, boolean)
+	 */
+	public static Optional<List<PathObject>> segmentObjects(ZooModel<Image, CategoryMask> model, ImageData<BufferedImage> imageData, Collection<? extends PathObject> parentObjects, Function<ROI, PathObject> creator, boolean skipBackground,
+			double downsample, int tileSize, int tileOverlap) throws TranslateException, IOException {
+		
+		if (tileSize <= 0)
+			return segmentObjects(model, imageData, parentObjects, creator, skipBackground);
+		
+		if (parentObjects == null)
+			parentObjects = Collections.singleton(imageData.getHierarchy().getRootObject());
+		
+		var server = imageData.getServer();
+		double requestedDownsample = downsample > 0 ? downsample : server.getDownsampleForResolution(0);
+		
+		var map = new ConcurrentHashMap<PathObject, List<PathObject>>();
+		var list = new ArrayList<PathObject>();
+		
+		// Expand parents into one request per plane
+		var items = new ArrayList<Pair<PathObject, RegionRequest>>();
+		for (var parent : parentObjects) {
+			map.put(parent, new ArrayList<>());
+			var roi = parent.getROI();
+			if (roi != null)
+				items.add(new Pair<>(parent, RegionRequest.createInstance(server.getPath(), requestedDownsample, roi)));
+			else {
+				for (var request : getAllRequests(RegionRequest.createInstance(server, requestedDownsample), server.nZSlices(), server.nTimepoints()))
+					items.add(new Pair<>(parent, request));
+			}
+		}
+		
+		boolean throughput = DjlTools.isThroughputMode();
+		try (var replicas = shareReplicas(withCompactMasks(model), throughput, server.nZSlices() * server.nTimepoints())) {
+			// Several planes are segmented at the same time - each holding one band of labels
+			var results = PlaneTasks.invokeAll(items, replicas.size(), 
+					item -> segmentTiled(replicas, throughput, server, item.getValue(), item.getKey().getROI(), skipBackground, tileSize, tileOverlap));
+			for (int i = 0; i < items.size(); i++) {
+				var childList = map.get(items.get(i).getKey());
+				for (var entry : results.get(i).entrySet()) {
+					var pathObject = createPathObject(creator, entry.getValue(), entry.getKey());
+					childList.add(pathObject);
+					list.add(pathObject);
 				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Processing interrupted - {} object(s) will be discarded", list.size());
+			return Optional.empty();
+		}
+		
+		updateObjectsAndHierarchy(imageData.getHierarchy(), map, model);
+		return Optional.of(list);
+	}
+	
+	/**
+	 * Segment a region using overlapping tiles, assembling the labels one band at a time.
+	 * @param replicas the predictors to use
+	 * @param throughput if true, the tiles within each band are processed in parallel
+	 * @param server the server from which to read pixels
+	 * @param region the region to segment, which also defines the downsample
+	 * @param roiMask optional ROI to constrain the output; tiles outside the ROI are skipped
+	 * @param skipBackground if true, no ROI will be created for the background (label 0)
+	 * @param tileSize tile width and height, in pixels at the region downsample
+	 * @param tileOverlap overlap between tiles, in pixels at the region downsample
+	 * @return a map of classifications and ROIs
+	 * @throws IOException
+	 * @throws TranslateException
+	 * @throws InterruptedException
+	 */
+	private static Map<String, ROI> segmentTiled(ModelReplicas<Image, CategoryMask> replicas, boolean throughput, ImageServer<BufferedImage> server, RegionRequest region, 
+			ROI roiMask, boolean skipBackground, int tileSize, int tileOverlap) throws IOException, TranslateException, InterruptedException {
+		
+		double downsample = region.getDownsample();
+		int minX = Math.max(0, region.getMinX());
+		int minY = Math.max(0, region.getMinY());
+		int maxX = Math.min(server.getWidth(), region.getMaxX());
+		int maxY = Math.min(server.getHeight(), region.getMaxY());
+		
+		// Size of the full label map, at the requested downsample
+		int width = (int)Math.ceil((maxX - minX) / downsample);
+		int height = (int)Math.ceil((maxY - minY) / downsample);
+		if (width <= 0 || height <= 0)
+			return Collections.emptyMap();
+		
+		int pad = Math.max(0, Math.min(tileSize - 1, tileOverlap)) / 2;
+		int core = Math.max(1, tileSize - pad * 2);
+		var prepared = roiMask == null ? null : PreparedGeometryFactory.prepare(roiMask.getGeometry());
+		
+		List<String> classes = null;
+		var geometries = new LinkedHashMap<Integer, List<Geometry>>();
+		for (int by = 0; by < height; by += core) {
+			int bandHeight = Math.min(core, height - by);
+			var tiles = new ArrayList<SegmentationTile>();
+			for (int bx = 0; bx < width; bx += core) {
+				var tile = new SegmentationTile(bx, by, Math.min(core, width - bx), bandHeight, pad, width, height);
+				if (prepared == null || prepared.intersects(GeometryTools.createRectangle(
+						minX + tile.x * downsample, minY + tile.y * downsample, tile.width * downsample, tile.height * downsample)))
+					tiles.add(tile);
+			}
+			if (tiles.isEmpty())
+				continue;
 			
-				// Get all the requests we need - usually just one, but may be more for an entire z-stack/time series
-				List<RegionRequest> requests;
-				var roi = parent.getROI();
-				if (roi != null) {
-					var request = RegionRequest.createInstance(imageData.getServer().getPath(), server.getDownsampleForResolution(0), roi);
-					request = updateDownsampleForInput(request, inputWidth, inputHeight);
-					requests = Collections.singletonList(request);
-				} else {
-					var request = RegionRequest.createInstance(imageData.getServer());
-					request = updateDownsampleForInput(request, inputWidth, inputHeight);
-					requests = getAllRequests(request, server.nZSlices(), server.nTimepoints());
+			ModelReplicas.ReplicaTask<SegmentationTile, Image, CategoryMask, CategoryMask> task = (tile, predictor) -> {
+				int x = minX + (int)Math.round(tile.readX * downsample);
+				int y = minY + (int)Math.round(tile.readY * downsample);
+				int w = Math.min(maxX, minX + (int)Math.round((tile.readX + tile.readWidth) * downsample)) - x;
+				int h = Math.min(maxY, minY + (int)Math.round((tile.readY + tile.readHeight) * downsample)) - y;
+				var request = RegionRequest.createInstance(server.getPath(), downsample, x, y, w, h, region.getZ(), region.getT());
+				var img = server.readRegion(request);
+				return predictor.predict(BufferedImageFactory.getInstance().fromImage(img));
+			};
+			List<CategoryMask> outputs;
+			if (throughput && tiles.size() > 1) {
+				outputs = replicas.invokeAll(tiles, task);
+			} else {
+				outputs = new ArrayList<>();
+				for (var tile : tiles) {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedException();
+					outputs.add(replicas.call(tile, task));
 				}
-				var childList = map.computeIfAbsent(parent, p -> new ArrayList<>());
-				
-				// Apply prediction across all requests
-				for (var request : requests) {
-					var img = imageData.getServer().readRegion(request);
-					var segmented = segmentObjects(predictor, img, request, roi, creator, skipBackground);
-					if (!segmented.isEmpty()) {
-						childList.addAll(segmented);
-						parent.addChildObjects(segmented);
-						list.addAll(segmented);
-					}
+			}
+			
+			// Assemble the band from the core of each tile; unset pixels are -1
+			if (classes == null)
+				classes = outputs.get(0).getClasses();
+			var band = LabelImage.create(width, bandHeight, classes.size());
+			for (int i = 0; i < tiles.size(); i++)
+				tiles.get(i).copyCore(LabelImage.fromMask(outputs.get(i), classes.size()), band);
+			
+			// Trace the band, in label map coordinates
+			var offset = AffineTransformation.translationInstance(0, by);
+			for (var entry : traceLabels(band, classes.size(), skipBackground).entrySet()) {
+				geometries.computeIfAbsent(entry.getKey(), k -> new ArrayList<>())
+					.add(offset.transform(entry.getValue()));
+			}
+		}
+		
+		// Merge the bands, then convert to image coordinates
+		var transform = AffineTransformation.scaleInstance(downsample, downsample);
+		transform.translate(minX, minY);
+		var map = new LinkedHashMap<String, ROI>();
+		for (var entry : geometries.entrySet()) {
+			var geometry = transform.transform(simplify(GeometryTools.union(entry.getValue())));
+			var roi = GeometryTools.geometryToROI(geometry, region.getImagePlane());
+			if (roiMask != null)
+				roi = RoiTools.intersection(roi, roiMask);
+			if (!roi.isEmpty())
+				map.put(classes.get(entry.getKey()), roi);
+		}
+		return map;
+	}
+	
+	/**
+	 * Trace the contours for each label in an image, in pixel coordinates.
+	 * <p>
+	 * The full image is scanned only once, to find which labels are present and their bounding boxes. 
+	 * Each label is then traced within its own bounding box, with different labels traced in parallel.
+	 * @param image the label image
+	 * @param nClasses the number of classes; other values are ignored
+	 * @param skipBackground if true, label 0 is not traced
+	 * @return a map of labels to their (non-empty) geometries, in label order
+	 */
+	private static Map<Integer, Geometry> traceLabels(LabelImage image, int nClasses, boolean skipBackground) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] hist = new int[nClasses];
+		int[] minX = new int[nClasses];
+		int[] minY = new int[nClasses];
+		int[] maxX = new int[nClasses];
+		int[] maxY = new int[nClasses];
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minY, Integer.MAX_VALUE);
+		int ind = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int val = image.getLabel(ind++);
+				if (val < 0 || val >= nClasses)
+					continue;
+				if (hist[val]++ == 0)
+					minY[val] = y;
+				if (x < minX[val])
+					minX[val] = x;
+				if (x > maxX[val])
+					maxX[val] = x;
+				maxY[val] = y;
+			}
+		}
+		
+		int[] labels = IntStream.range(skipBackground ? 1 : 0, nClasses).filter(i -> hist[i] > 0).toArray();
+		var geometries = new Geometry[nClasses];
+		var stream = IntStream.of(labels);
+		if (labels.length > 1)
+			stream = stream.parallel();
+		stream.forEach(i -> {
+			var crop = new CroppedImage(image, minX[i], minY[i], maxX[i] - minX[i] + 1, maxY[i] - minY[i] + 1);
+			var geometry = ContourTracing.createTracedGeometry(crop, i, i, null);
+			if (geometry != null && !geometry.isEmpty())
+				geometries[i] = AffineTransformation.translationInstance(minX[i], minY[i]).transform(geometry);
+		});
+		
+		var map = new LinkedHashMap<Integer, Geometry>();
+		for (int i : labels) {
+			if (geometries[i] != null)
+				map.put(i, geometries[i]);
+		}
+		return map;
+	}
+	
+	/**
+	 * A tile used for segmentation, in label map coordinates.
+	 * The core is the part of the label map that the tile is responsible for; the tile itself is padded 
+	 * on each side to provide context, except where this would extend beyond the label map.
+	 */
+	private static class SegmentationTile {
+		
+		private final int x, y, width, height;
+		private final int readX, readY, readWidth, readHeight;
+		
+		private SegmentationTile(int x, int y, int width, int height, int pad, int mapWidth, int mapHeight) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.readX = Math.max(0, x - pad);
+			this.readY = Math.max(0, y - pad);
+			this.readWidth = Math.min(mapWidth, x + width + pad) - readX;
+			this.readHeight = Math.min(mapHeight, y + height + pad) - readY;
+		}
+		
+		/**
+		 * Copy the core of a predicted mask into a band, rescaling if the mask size differs from the tile size.
+		 * @param mask the predicted labels
+		 * @param band the band labels, starting at the same y as the tile core
+		 */
+		private void copyCore(LabelImage mask, LabelImage band) {
+			int bandWidth = band.getWidth();
+			int maskHeight = mask.getHeight();
+			int maskWidth = mask.getWidth();
+			double scaleX = maskWidth / (double)readWidth;
+			double scaleY = maskHeight / (double)readHeight;
+			for (int yy = 0; yy < height; yy++) {
+				int my = Math.min(maskHeight - 1, (int)((y + yy - readY + 0.5) * scaleY));
+				int rowOffset = my * maskWidth;
+				int offset = yy * bandWidth + x;
+				for (int xx = 0; xx < width; xx++) {
+					int mx = Math.min(maskWidth - 1, (int)((x + xx - readX + 0.5) * scaleX));
+					band.setLabel(offset + xx, mask.getLabel(rowOffset + mx));
 				}
 			}
 		}
-		// If we get this far, make the updates
-		updateObjectsAndHierarchy(imageData.getHierarchy(), map, model);
-		return Optional.of(list);
+		
 	}
 	
+	/**
+	 * Get the requests needed to segment a parent object.
+	 * This is usually just one, but may be more for an entire z-stack/time series.
+	 * @param server the server from which pixels will be read
+	 * @param parent the parent object; if this has no ROI, all z-slices and timepoints of the image are used
+	 * @param inputWidth the model input width, or &le; 0 if unknown
+	 * @param inputHeight the model input height, or &le; 0 if unknown
+	 * @return
+	 */
+	private static List<RegionRequest> getSegmentationRequests(ImageServer<BufferedImage> server, PathObject parent, long inputWidth, long inputHeight) {
+		var roi = parent.getROI();
+		if (roi != null) {
+			var request = RegionRequest.createInstance(server.getPath(), server.getDownsampleForResolution(0), roi);
+			return Collections.singletonList(updateDownsampleForInput(request, inputWidth, inputHeight));
+		} else {
+			var request = RegionRequest.createInstance(server);
+			request = updateDownsampleForInput(request, inputWidth, inputHeight);
+			return getAllRequests(request, server.nZSlices(), server.nTimepoints());
+		}
+	}
 	
 	private static double tryToParseDoubleProperty(Model model, String key, double defaultValue) {
 		var value = model.getProperty(key);
@@ -874,30 +1434,13 @@ public class DjlZoo {
 		var output = predictor.predict(input);
 
 		var classes = output.getClasses();
-		int[][] maskOrig = output.getMask();
-		var mask = new SimpleMaskImage(maskOrig);
+		var mask = LabelImage.fromMask(output, classes.size());
 
-		// Check which classes are represented
-		// If we have many unrepresented classes, this avoids needing to check 
-		// each individually
-		int nClasses = classes.size();
-		int[] hist = new int[nClasses];
-		for (var row : maskOrig) {
-			for (int val : row) {
-				if (val >= 0 && val < nClasses)
-					hist[val]++;
-			}
-		}
-
-		// Loop through classes - skipping 0 if we want to skip background
-		int startInd = skipBackground ? 1 : 0;
+		// Trace all represented classes - skipping 0 if we want to skip background
 		var map = new LinkedHashMap<String, ROI>();
-		for (int i = startInd; i < nClasses; i++) {
-			// Check if we have any pixels
-			if (hist[i] == 0)
-				continue;
-			var classification = classes.get(i);
-			var roi = createROI(mask, request, i);
+		for (var entry : traceLabels(mask, classes.size(), skipBackground).entrySet()) {
+			var classification = classes.get(entry.getKey());
+			var roi = createROI(simplify(entry.getValue()), request);
 			// Add the ROI
 			if (roi != null && !roi.isEmpty()) {
 				// We may need to rescale if the output dimensions differ from the input
@@ -920,30 +1463,57 @@ public class DjlZoo {
 	}
 	
 	
-	private static ROI createROI(SimpleImage mask, RegionRequest request, int val) {
-		return ContourTracing.createTracedROI(mask, val, val, request);
+	/**
+	 * Simplify a traced geometry, if requested with {@link DjlTools#setSimplifyTolerance(double)}.
+	 * This should be applied in pixel coordinates, so that the tolerance is in pixels.
+	 * @param geometry the geometry to simplify
+	 * @return the simplified geometry, or the original geometry if no simplification is needed
+	 */
+	private static Geometry simplify(Geometry geometry) {
+		double tolerance = DjlTools.getSimplifyTolerance();
+		if (tolerance <= 0 || geometry == null || geometry.isEmpty())
+			return geometry;
+		int nBefore = geometry.getNumPoints();
+		var simplified = TopologyPreservingSimplifier.simplify(geometry, tolerance);
+		logger.debug("Simplified traced geometry from {} to {} vertices (tolerance {} px)", nBefore, simplified.getNumPoints(), tolerance);
+		return simplified;
+	}
+	
+	/**
+	 * Create a ROI from a traced geometry, scaling and translating from pixel coordinates according to the request.
+	 */
+	private static ROI createROI(Geometry geometry, RegionRequest request) {
+		if (request == null)
+			return GeometryTools.geometryToROI(geometry, ImagePlane.getDefaultPlane());
+		var transform = AffineTransformation.scaleInstance(request.getDownsample(), request.getDownsample());
+		transform.translate(request.getX(), request.getY());
+		return GeometryTools.geometryToROI(transform.transform(geometry), request.getImagePlane());
 	}
 	
 	
 	
 	/**
-	 * Wrapper for the int[][] arrays that DJL uses as masks.
+	 * View of a rectangular region within another image.
 	 */
-	private static class SimpleMaskImage implements SimpleImage {
+	private static class CroppedImage implements SimpleImage {
 		
-		private int[][] values;
-		private int width;
-		private int height;
+		private final SimpleImage image;
+		private final int x;
+		private final int y;
+		private final int width;
+		private final int height;
 		
-		private SimpleMaskImage(int[][] values) {
-			this.values = values;
-			this.width = values[0].length;
-	        this.height = values.length;
+		private CroppedImage(SimpleImage image, int x, int y, int width, int height) {
+			this.image = image;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
 		}
 
 		@Override
 		public float getValue(int x, int y) {
-			return values[y][x];
+			return image.getValue(this.x + x, this.y + y);
 		}
 
 		@Override
@@ -958,6 +1528,325 @@ public class DjlZoo {
 		
 	}
 	
+	/**
+	 * Label image backed by a flat array, in row-major order.
+	 * <p>
+	 * The smallest primitive type that can represent all the class labels is used, along with -1 to indicate 
+	 * pixels without a label. This avoids an extra indirection (and bounds check) for each row when tracing.
+	 * <p>
+	 * Where possible, labels are read directly from the model output by {@link CompactMaskTranslator}, 
+	 * so that no int[][] is created for the mask.
+	 */
+	private static abstract class LabelImage implements SimpleImage {
+		
+		private final int width;
+		private final int height;
+		
+		private LabelImage(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+		
+		/**
+		 * Create a label image with all pixels set to -1.
+		 * @param width
+		 * @param height
+		 * @param nClasses the number of classes that need to be represented
+		 * @return
+		 */
+		private static LabelImage create(int width, int height, int nClasses) {
+			int n = width * height;
+			if (nClasses <= Byte.MAX_VALUE) {
+				var values = new byte[n];
+				Arrays.fill(values, (byte)-1);
+				return new ByteLabelImage(values, width, height);
+			} else if (nClasses <= Short.MAX_VALUE) {
+				var values = new short[n];
+				Arrays.fill(values, (short)-1);
+				return new ShortLabelImage(values, width, height);
+			} else {
+				var values = new int[n];
+				Arrays.fill(values, -1);
+				return new IntLabelImage(values, width, height);
+			}
+		}
+		
+		/**
+		 * Get a label image for a DJL mask, reusing the labels if the mask was created by {@link CompactMaskTranslator}.
+		 * @param mask the mask
+		 * @param nClasses the number of classes
+		 * @return
+		 */
+		private static LabelImage fromMask(CategoryMask mask, int nClasses) {
+			if (mask instanceof CompactCategoryMask compact)
+				return compact.labels;
+			return fromMask(mask.getMask(), nClasses);
+		}
+		
+		/**
+		 * Create a label image from a DJL mask; values outside the range of class labels are set to -1.
+		 * @param mask the mask, indexed as [row][column]
+		 * @param nClasses the number of classes
+		 * @return
+		 */
+		private static LabelImage fromMask(int[][] mask, int nClasses) {
+			int height = mask.length;
+			int width = height == 0 ? 0 : mask[0].length;
+			var image = create(width, height, nClasses);
+			int ind = 0;
+			for (var row : mask) {
+				for (int val : row) {
+					if (val >= 0 && val < nClasses)
+						image.setLabel(ind, val);
+					ind++;
+				}
+			}
+			return image;
+		}
+		
+		/**
+		 * Check whether another label image has the same size and labels.
+		 */
+		boolean hasSameLabels(LabelImage other) {
+			if (other.width != width || other.height != height)
+				return false;
+			for (int i = 0; i < width * height; i++) {
+				if (getLabel(i) != other.getLabel(i))
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Get the label at an index into the flat array.
+		 */
+		abstract int getLabel(int ind);
+		
+		/**
+		 * Set the label at an index into the flat array.
+		 */
+		abstract void setLabel(int ind, int label);
+
+		@Override
+		public float getValue(int x, int y) {
+			return getLabel(y * width + x);
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+		
+	}
+	
+	private static class ByteLabelImage extends LabelImage {
+		
+		private final byte[] values;
+		
+		private ByteLabelImage(byte[] values, int width, int height) {
+			super(width, height);
+			this.values = values;
+		}
+
+		@Override
+		int getLabel(int ind) {
+			return values[ind];
+		}
+
+		@Override
+		void setLabel(int ind, int label) {
+			values[ind] = (byte)label;
+		}
+		
+	}
+	
+	private static class ShortLabelImage extends LabelImage {
+		
+		private final short[] values;
+		
+		private ShortLabelImage(short[] values, int width, int height) {
+			super(width, height);
+			this.values = values;
+		}
+
+		@Override
+		int getLabel(int ind) {
+			return values[ind];
+		}
+
+		@Override
+		void setLabel(int ind, int label) {
+			values[ind] = (short)label;
+		}
+		
+	}
+	
+	private static class IntLabelImage extends LabelImage {
+		
+		private final int[] values;
+		
+		private IntLabelImage(int[] values, int width, int height) {
+			super(width, height);
+			this.values = values;
+		}
+
+		@Override
+		int getLabel(int ind) {
+			return values[ind];
+		}
+
+		@Override
+		void setLabel(int ind, int label) {
+			values[ind] = label;
+		}
+		
+	}
+	
+	
+	/**
+	 * Get a view of a segmentation model that reads labels directly from the model output, where possible.
+	 * The returned model shares the underlying model, and should not be closed.
+	 * @param model the segmentation model
+	 * @return the view, or the original model if it has no translator
+	 * @see CompactMaskTranslator
+	 */
+	private static ZooModel<Image, CategoryMask> withCompactMasks(ZooModel<Image, CategoryMask> model) {
+		var translator = model.getTranslator();
+		if (translator == null)
+			return model;
+		return new ZooModel<>(model.getWrappedModel(), new CompactMaskTranslator(translator));
+	}
+	
+	/**
+	 * Translator that reads segmentation labels directly from the model output, taking the argmax of the class scores 
+	 * with the engine and storing the result as bytes (or ints for more than 127 classes).
+	 * This avoids creating an int[][] for every prediction.
+	 * <p>
+	 * The model's own translator processes the input. It also processes the first output, which is used to find 
+	 * the output array (with shape [C, H, W] or [1, C, H, W]) that gives the same labels. If no array matches, 
+	 * or the engine can't compute the argmax, the model's translator is used for all outputs.
+	 */
+	private static class CompactMaskTranslator implements Translator<Image, CategoryMask> {
+		
+		private final Translator<Image, CategoryMask> translator;
+		
+		private volatile int outputIndex = -1;
+		private volatile List<String> classes;
+		private volatile boolean useTranslator = false;
+		
+		private CompactMaskTranslator(Translator<Image, CategoryMask> translator) {
+			this.translator = translator;
+		}
+		
+		@Override
+		public void prepare(TranslatorContext ctx) throws Exception {
+			translator.prepare(ctx);
+		}
+		
+		@Override
+		public Batchifier getBatchifier() {
+			return translator.getBatchifier();
+		}
+
+		@Override
+		public NDList processInput(TranslatorContext ctx, Image input) throws Exception {
+			return translator.processInput(ctx, input);
+		}
+
+		@Override
+		public CategoryMask processOutput(TranslatorContext ctx, NDList list) throws Exception {
+			var classes = this.classes;
+			if (!useTranslator && classes != null) {
+				var labels = readLabels(list.get(outputIndex), classes.size());
+				if (labels != null)
+					return new CompactCategoryMask(classes, labels);
+			}
+			var mask = translator.processOutput(ctx, list);
+			if (!useTranslator && classes == null)
+				findOutput(list, mask);
+			return mask;
+		}
+		
+		private synchronized void findOutput(NDList list, CategoryMask mask) {
+			if (useTranslator || classes != null)
+				return;
+			try {
+				int nClasses = mask.getClasses().size();
+				var expected = LabelImage.fromMask(mask.getMask(), nClasses);
+				for (int i = 0; i < list.size(); i++) {
+					var labels = readLabels(list.get(i), nClasses);
+					if (labels != null && labels.hasSameLabels(expected)) {
+						logger.debug("Reading segmentation labels directly from model output {}", i);
+						outputIndex = i;
+						classes = mask.getClasses();
+						return;
+					}
+				}
+				logger.debug("No model output matches the segmentation labels - using the model translator");
+			} catch (Exception e) {
+				logger.debug("Unable to read segmentation labels from model output: {}", e.getMessage());
+			}
+			useTranslator = true;
+		}
+		
+		/**
+		 * Read labels from class scores with shape [C, H, W] or [1, C, H, W].
+		 * @return the labels, or null if the array doesn't have the expected shape
+		 */
+		private static LabelImage readLabels(NDArray array, int nClasses) {
+			var shape = array.getShape();
+			if (shape.dimension() == 4 && shape.get(0) == 1)
+				shape = shape.slice(1);
+			if (shape.dimension() != 3 || shape.get(0) != nClasses)
+				return null;
+			int height = (int)shape.get(1);
+			int width = (int)shape.get(2);
+			try (var scores = array.reshape(shape); var argMax = scores.argMax(0)) {
+				if (nClasses <= Byte.MAX_VALUE) {
+					try (var labels = argMax.toType(DataType.INT8, false)) {
+						return new ByteLabelImage(labels.toByteArray(), width, height);
+					}
+				} else {
+					try (var labels = argMax.toType(DataType.INT32, false)) {
+						return new IntLabelImage(labels.toIntArray(), width, height);
+					}
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Category mask that stores its labels compactly.
+	 * An int[][] is only created if {@link #getMask()} is called, which isn't needed when tracing.
+	 */
+	private static class CompactCategoryMask extends CategoryMask {
+		
+		private final LabelImage labels;
+		
+		private CompactCategoryMask(List<String> classes, LabelImage labels) {
+			super(classes, null);
+			this.labels = labels;
+		}
+		
+		@Override
+		public int[][] getMask() {
+			int width = labels.getWidth();
+			var mask = new int[labels.getHeight()][width];
+			for (int y = 0; y < mask.length; y++) {
+				for (int x = 0; x < width; x++)
+					mask[y][x] = labels.getLabel(y * width + x);
+			}
+			return mask;
+		}
+		
+	}
+	
 	
 	/**
 	 * Apply a detection model predictor to an input image.
@@ -1037,11 +1926,14 @@ public class DjlZoo {
 	/**
 	 * Experimental (read: probably-not-very-useful) code to wrap an {@link ImageServer} to apply an image-to-image 
 	 * prediction model to the tiles.
+	 * <p>
+	 * If a prediction cache size has been set with {@link DjlTools#setPredictionCacheSize(long)}, predicted tiles 
+	 * are also stored on disk and reused.
 	 * @param model
 	 * @param server
 	 * @return
-	 * @implNote The {@link ImageServer} created here cannot be serialized to JSON; it can only be used temporarily 
-	 *           within a single QuPath session.
+	 * @implNote The {@link ImageServer} created here can only be rebuilt from its {@link ServerBuilder} if the model 
+	 *           can be loaded again from its model path, and its translator (if any) has a public no-argument constructor.
 	 */
 	static ImageServer<BufferedImage> wrapImageToImage(ZooModel<Image, Image> model, ImageServer<BufferedImage> server) {
 		return new DjlPredictionImageServer(server, model);
@@ -1051,22 +1943,89 @@ public class DjlZoo {
 	static class DjlPredictionImageServer extends AbstractTileableImageServer implements GeneratingImageServer<BufferedImage> {
 		
 		private ImageServer<BufferedImage> server;
-		private ZooModel<Image, Image> model;
+		private volatile ZooModel<Image, Image> model;
+		
+		private final String engine;
+		private final URI modelUri;
+		private final String modelName;
+		private final String translatorClass;
+		
+		private final Translator<Image, Image> translator;
+		private final boolean canRebuild;
 		
-		private ThreadLocal<Predictor<Image, Image>> predictors;
+		private final String modelKey;
+		private final TilePredictionCache cache;
+		
+		private ThreadLocal<Predictor<Image, Image>> predictors = new ThreadLocal<>();
 		
 		DjlPredictionImageServer(ImageServer<BufferedImage> server, ZooModel<Image, Image> model) {
+			this(server, model, model.getNDManager().getEngine().getEngineName(),
+					model.getModelPath().toUri(), model.getName(),
+					model.getTranslator(),
+					model.getTranslator() == null ? null : model.getTranslator().getClass().getName(),
+					createMetadata(server, model));
+		}
+		
+		/**
+		 * Create a server that loads its model only when a tile is requested that isn't in the prediction cache.
+		 * The translator is created from its class name, using a public no-argument constructor.
+		 */
+		DjlPredictionImageServer(ImageServer<BufferedImage> server, String engine, URI modelUri, String modelName, String translatorClass, ImageServerMetadata metadata) {
+			this(server, null, engine, modelUri, modelName, createTranslator(translatorClass), translatorClass, metadata);
+		}
+		
+		private DjlPredictionImageServer(ImageServer<BufferedImage> server, ZooModel<Image, Image> model, 
+				String engine, URI modelUri, String modelName, Translator<Image, Image> translator, String translatorClass, ImageServerMetadata metadata) {
 			this.server = server;
 			this.model = model;
-			this.predictors = ThreadLocal.withInitial(() -> model.newPredictor());
+			this.engine = engine;
+			this.modelUri = modelUri;
+			this.modelName = modelName;
+			this.translator = translator;
+			this.translatorClass = translatorClass;
+			setMetadata(metadata);
+			
+			// Translators of the same class can be configured differently (e.g. normalization, thresholds), 
+			// so the configuration is needed to identify the predictions
+			String translatorConfig;
+			if (translatorClass == null)
+				translatorConfig = "";
+			else if (translator == null)
+				translatorConfig = null;
+			else
+				translatorConfig = CacheKeys.describe(translator);
+			
+			// The server can only be rebuilt if a new translator would be configured identically
+			this.canRebuild = translatorConfig != null && 
+					(translatorClass == null || translatorConfig.equals(CacheKeys.describe(createTranslator(translatorClass))));
+			
+			// Only hash the model content if it's needed for the prediction cache, since it requires reading all the model files
+			String key = null;
+			if (translatorConfig == null) {
+				logger.debug("Unable to describe translator {} - predictions won't be cached", translatorClass);
+			} else if (DjlTools.getPredictionCacheSize() > 0) {
+				try {
+					key = CacheKeys.create(CacheKeys.hash(modelUri), modelName, translatorClass, translatorConfig);
+				} catch (IOException e) {
+					logger.warn("Unable to hash model {}: {}", modelUri, e.getMessage());
+				}
+			}
+			if (key != null)
+				this.modelKey = key;
+			else if (translatorConfig != null)
+				this.modelKey = CacheKeys.create(String.valueOf(modelUri), modelName, translatorClass, translatorConfig);
+			else
+				this.modelKey = UUID.randomUUID().toString();
+			this.cache = key == null ? null : TilePredictionCache.create(key, server.getPath(), metadata);
+		}
+		
+		private static ImageServerMetadata createMetadata(ImageServer<BufferedImage> server, ZooModel<Image, Image> model) {
 			var imageHeightWidth = getInputHeightWidth(model);
 			long tileWidth = imageHeightWidth.size(1) <= 0 ? 512 : imageHeightWidth.size(1);
 			long tileHeight = imageHeightWidth.size(0) <= 0 ? tileWidth : imageHeightWidth.size(0);
-			setMetadata(
-					new ImageServerMetadata.Builder(server.getMetadata())
+			return new ImageServerMetadata.Builder(server.getMetadata())
 					.preferredTileSize((int)tileWidth, (int)tileHeight)
-					.build()
-					);
+					.build();
 		}
 
 		@Override
@@ -1088,32 +2047,162 @@ public class DjlZoo {
 		protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
 			if (server.isEmptyRegion(tileRequest.getRegionRequest()))
 				return getEmptyTile(tileRequest.getTileWidth(), tileRequest.getTileHeight());
+			if (cache != null) {
+				var cached = cache.read(tileRequest);
+				if (cached != null)
+					return cached;
+			}
 			var img = server.readRegion(tileRequest.getRegionRequest());
+			BufferedImage output;
 			try {
-				return imageToImage(predictors.get(), img);
+				output = imageToImage(getPredictor(), img);
 			} catch (TranslateException e) {
 				throw new IOException(e);
 			}
+			if (cache != null)
+				cache.write(tileRequest, output);
+			return output;
+		}
+		
+		private Predictor<Image, Image> getPredictor() throws IOException {
+			var predictor = predictors.get();
+			if (predictor == null) {
+				predictor = getModel().newPredictor();
+				predictors.set(predictor);
+			}
+			return predictor;
+		}
+		
+		private ZooModel<Image, Image> getModel() throws IOException {
+			var current = model;
+			if (current != null)
+				return current;
+			synchronized (this) {
+				if (model == null) {
+					var uri = modelName == null ? modelUri : URI.create(modelUri + "?model_name=" + modelName);
+					try {
+						model = DjlTools.loadModel(engine, Image.class, Image.class, translator, uri);
+					} catch (ModelNotFoundException | MalformedModelException e) {
+						throw new IOException(e);
+					}
+				}
+				return model;
+			}
+		}
+		
+		/**
+		 * Try to create a translator from its class name, using a public no-argument constructor.
+		 * If this fails, null is returned; the model then uses the translator defined for it by DJL (if any), 
+		 * and predictions aren't cached because the translator configuration is unknown.
+		 */
+		@SuppressWarnings("unchecked")
+		private static Translator<Image, Image> createTranslator(String className) {
+			if (className == null)
+				return null;
+			try {
+				var cls = Class.forName(className, true, ClassLoaderUtils.getContextClassLoader());
+				return (Translator<Image, Image>)cls.getConstructor().newInstance();
+			} catch (Exception e) {
+				logger.debug("Unable to create translator {}: {}", className, e.getMessage());
+				return null;
+			}
 		}
 
 		@Override
 		protected ServerBuilder<BufferedImage> createServerBuilder() {
-			throw new UnsupportedOperationException("DjlPredictionImageServer cannot currently be serialized");
+			if (!canRebuild) {
+				logger.debug("Translator {} can't be recreated with the same configuration - no server builder available", translatorClass);
+				return null;
+			}
+			var builder = server.getBuilder();
+			if (builder == null)
+				return null;
+			registerServerBuilder();
+			return new DjlPredictionServerBuilder(getMetadata(), builder, engine, modelUri, modelName, translatorClass);
 		}
 
 		@Override
 		protected String createID() {
-			return UUID.randomUUID().toString();
+			return getClass().getName() + ": " + server.getPath() + " [" + modelKey + "]";
 		}
 
 		@Override
 		public void close() throws Exception {
 			super.close();
-			model.close();
+			if (model != null)
+				model.close();
 		}
 		
 		
 	}
 	
+	
+	/**
+	 * Label used to identify {@link DjlPredictionServerBuilder} in JSON.
+	 */
+	static final String SERVER_BUILDER_TYPE = "djl-prediction";
+	
+	private static final AtomicBoolean serverBuilderRegistered = new AtomicBoolean(false);
+	
+	/**
+	 * Register {@link DjlPredictionServerBuilder} with QuPath's JSON serialization, so that prediction servers 
+	 * can be stored in projects and recreated later. This is called when the extension is installed, and whenever 
+	 * a builder is created (in case the extension hasn't been installed, e.g. when running headless).
+	 * Repeated calls have no effect.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static void registerServerBuilder() {
+		if (serverBuilderRegistered.getAndSet(true))
+			return;
+		var factory = ImageServers.getServerBuilderFactory();
+		if (factory instanceof GsonTools.SubTypeAdapterFactory subtypes) {
+			subtypes.registerSubtype(DjlPredictionServerBuilder.class, SERVER_BUILDER_TYPE);
+			logger.debug("Registered {}", DjlPredictionServerBuilder.class.getSimpleName());
+		} else {
+			logger.warn("Unable to register {} - prediction servers won't be serializable", DjlPredictionServerBuilder.class.getSimpleName());
+		}
+	}
+	
+	static class DjlPredictionServerBuilder extends AbstractServerBuilder<BufferedImage> {
+		
+		private final ServerBuilder<BufferedImage> builder;
+		private final String engine;
+		private final URI modelUri;
+		private final String modelName;
+		private final String translatorClass;
+		
+		DjlPredictionServerBuilder(ImageServerMetadata metadata, ServerBuilder<BufferedImage> builder, 
+				String engine, URI modelUri, String modelName, String translatorClass) {
+			super(metadata);
+			this.builder = builder;
+			this.engine = engine;
+			this.modelUri = modelUri;
+			this.modelName = modelName;
+			this.translatorClass = translatorClass;
+		}
+
+		@Override
+		protected ImageServer<BufferedImage> buildOriginal() throws Exception {
+			return new DjlPredictionImageServer(builder.build(), engine, modelUri, modelName, translatorClass, getMetadata());
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			var uris = new ArrayList<URI>(builder.getURIs());
+			uris.add(modelUri);
+			return uris;
+		}
+
+		@Override
+		public ServerBuilder<BufferedImage> updateURIs(Map<URI, URI> updateMap) {
+			var newBuilder = builder.updateURIs(updateMap);
+			var newModelUri = updateMap.getOrDefault(modelUri, modelUri);
+			if (newBuilder == builder && newModelUri.equals(modelUri))
+				return this;
+			return new DjlPredictionServerBuilder(getMetadata(), newBuilder, engine, newModelUri, modelName, translatorClass);
+		}
+		
+	}
+	
 
 }
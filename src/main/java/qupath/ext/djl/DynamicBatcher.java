@@ -0,0 +1,222 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+
+/**
+ * Coalesce concurrent single-input predictions into batches.
+ * <p>
+ * Callers submit one input at a time and block until the result is available.
+ * A dispatcher thread collects pending inputs until either the maximum batch size is reached
+ * or the maximum delay has elapsed since the first input arrived, and then passes them
+ * to a batch function in one call.
+ * The results are then passed back to the waiting callers.
+ * <p>
+ * While all batch workers are busy, new inputs continue to accumulate in the queue -
+ * so batches naturally become larger when the model is the bottleneck.
+ *
+ * @param <I> input type
+ * @param <O> output type
+ */
+class DynamicBatcher<I, O> implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicBatcher.class);
+
+	private static class Request<I, O> {
+
+		private final I input;
+		private final CompletableFuture<O> future = new CompletableFuture<>();
+
+		private Request(I input) {
+			this.input = input;
+		}
+
+	}
+
+	private final Function<List<I>, List<O>> batchFunction;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+
+	private final BlockingQueue<Request<I, O>> queue = new LinkedBlockingQueue<>();
+	private final Semaphore permits;
+	private final ExecutorService workers;
+	private final Thread dispatcher;
+
+	/**
+	 * Lock used so that inputs can't be added to the queue after it has been closed and drained.
+	 */
+	private final Object lock = new Object();
+
+	private volatile boolean isClosed = false;
+
+	/**
+	 * Create a new batcher.
+	 * @param batchFunction function to apply to each batch; this must return one output per input, in the same order
+	 * @param maxBatchSize maximum number of inputs in a batch
+	 * @param maxDelayMillis maximum time to wait for more inputs after the first input of a batch arrives
+	 * @param maxConcurrentBatches maximum number of batches that may be processed at the same time
+	 */
+	DynamicBatcher(Function<List<I>, List<O>> batchFunction, int maxBatchSize, long maxDelayMillis, int maxConcurrentBatches) {
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("Maximum batch size must be at least 1");
+		if (maxConcurrentBatches < 1)
+			throw new IllegalArgumentException("Maximum number of concurrent batches must be at least 1");
+		this.batchFunction = batchFunction;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+		this.permits = new Semaphore(maxConcurrentBatches);
+		this.workers = Executors.newFixedThreadPool(maxConcurrentBatches, ThreadTools.createThreadFactory("djl-batch-worker", true));
+		this.dispatcher = ThreadTools.createThreadFactory("djl-batch-dispatcher", true).newThread(this::dispatch);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Submit an input, and wait for the output.
+	 * @param input
+	 * @return the output for this input
+	 * @throws RuntimeException if the batch function failed, or the thread was interrupted
+	 */
+	O predict(I input) {
+		var request = new Request<I, O>(input);
+		synchronized (lock) {
+			if (isClosed)
+				throw new IllegalStateException("Batcher has been closed");
+			queue.add(request);
+		}
+		try {
+			return request.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			request.future.cancel(false);
+			throw new RuntimeException("Interrupted while waiting for batch prediction", e);
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private void dispatch() {
+		while (!isClosed) {
+			var batch = new ArrayList<Request<I, O>>(maxBatchSize);
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				logger.debug("Batch dispatcher interrupted");
+				break;
+			}
+			try {
+				nextBatch(batch);
+			} catch (InterruptedException e) {
+				logger.debug("Batch dispatcher interrupted");
+				permits.release();
+				// Requests already removed from the queue would otherwise never complete
+				failAll(batch);
+				break;
+			}
+			// Skip any requests that were cancelled while waiting
+			batch.removeIf(r -> r.future.isDone());
+			if (batch.isEmpty()) {
+				permits.release();
+				continue;
+			}
+			try {
+				workers.execute(() -> runBatch(batch));
+			} catch (Exception e) {
+				permits.release();
+				batch.forEach(r -> r.future.completeExceptionally(e));
+			}
+		}
+		failPending();
+	}
+
+	private void nextBatch(List<Request<I, O>> batch) throws InterruptedException {
+		batch.add(queue.take());
+		long deadline = System.nanoTime() + maxDelayNanos;
+		while (batch.size() < maxBatchSize) {
+			long remaining = deadline - System.nanoTime();
+			var next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+			if (next == null)
+				break;
+			batch.add(next);
+		}
+	}
+
+	private void runBatch(List<Request<I, O>> batch) {
+		try {
+			var inputs = new ArrayList<I>(batch.size());
+			for (var request : batch)
+				inputs.add(request.input);
+			logger.trace("Running batch of size {}", inputs.size());
+			var outputs = batchFunction.apply(inputs);
+			if (outputs.size() != batch.size())
+				throw new IllegalStateException("Batch function returned " + outputs.size() + " outputs for " + batch.size() + " inputs");
+			for (int i = 0; i < batch.size(); i++)
+				batch.get(i).future.complete(outputs.get(i));
+		} catch (Throwable t) {
+			for (var request : batch)
+				request.future.completeExceptionally(t);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void failPending() {
+		var pending = new ArrayList<Request<I, O>>();
+		queue.drainTo(pending);
+		failAll(pending);
+	}
+
+	private static <I, O> void failAll(List<Request<I, O>> requests) {
+		for (var request : requests)
+			request.future.completeExceptionally(new IllegalStateException("Batcher has been closed"));
+	}
+
+	/**
+	 * Stop accepting new inputs, and fail any that are waiting to be batched.
+	 * Batches that are already running are allowed to complete.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (isClosed)
+				return;
+			isClosed = true;
+		}
+		dispatcher.interrupt();
+		workers.shutdown();
+		failPending();
+	}
+
+}
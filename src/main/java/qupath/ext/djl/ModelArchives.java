@@ -0,0 +1,244 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.util.Utils;
+
+/**
+ * Extract zipped models (or models packaged inside a jar) into a cache directory, so they can be
+ * loaded by DJL.
+ * <p>
+ * Each archive is extracted once, into a directory named by the hash of the archive content.
+ * The content is placed in a subdirectory with the archive's base name, because DJL uses the name 
+ * of the model directory as the default model name.
+ * Extraction happens in a temporary directory that is then renamed atomically, while holding both
+ * an in-process lock and a file lock - so that parallel workers (or QuPath instances) don't race.
+ * <p>
+ * An index maps each archive's path, size and modification time to its content hash, so that later
+ * loads can reuse the extracted copy without needing to read the archive again.
+ */
+class ModelArchives {
+
+	private static final Logger logger = LoggerFactory.getLogger(ModelArchives.class);
+
+	private static final String DIR_NAME = "qupath-models";
+
+	private static final String INDEX_NAME = "index.properties";
+
+	private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	// Suppress default constructor
+	private ModelArchives() {}
+
+	/**
+	 * Check if a URI refers to a zip file, or an entry within a jar or zip file.
+	 * @param uri
+	 * @return
+	 */
+	static boolean isArchive(URI uri) {
+		var s = uri.toString().toLowerCase(Locale.ROOT);
+		return s.startsWith("jar:file:") || (s.startsWith("file:") && s.endsWith(".zip"));
+	}
+
+	/**
+	 * Get the URI of the extracted model for a URI, extracting it if necessary.
+	 * @param uri the URI of the model
+	 * @return the URI of the extracted model, or the original URI if it does not refer to an archive
+	 * @throws IOException if the archive could not be extracted
+	 */
+	static URI resolve(URI uri) throws IOException {
+		if (!isArchive(uri))
+			return uri;
+		Path archive;
+		String entry;
+		var s = uri.toString();
+		if (s.toLowerCase(Locale.ROOT).startsWith("jar:")) {
+			int ind = s.indexOf("!/");
+			archive = Paths.get(URI.create(ind < 0 ? s.substring(4) : s.substring(4, ind)));
+			entry = ind < 0 ? "" : URI.create(s.substring(ind + 2)).getPath();
+		} else {
+			archive = Paths.get(uri);
+			entry = "";
+		}
+		var dir = extract(archive);
+		var target = entry.isEmpty() ? getSingleChild(dir) : dir.resolve(entry).normalize();
+		if (!target.startsWith(dir) || !Files.exists(target))
+			throw new IOException("Unable to find " + entry + " in " + archive);
+		logger.debug("Using extracted model {} for {}", target, uri);
+		return target.toUri();
+	}
+
+	/**
+	 * If an archive contains a single top-level directory, use that as the model directory.
+	 * Otherwise, the model directory is the one named after the archive.
+	 */
+	private static Path getSingleChild(Path dir) throws IOException {
+		try (var stream = Files.list(dir)) {
+			var children = stream.limit(2).toList();
+			if (children.size() == 1 && Files.isDirectory(children.get(0)))
+				return children.get(0);
+		}
+		return dir;
+	}
+
+	/**
+	 * Extract an archive, unless it has already been extracted.
+	 * @param archive
+	 * @return the directory containing the extracted content, named after the archive
+	 * @throws IOException
+	 */
+	private static Path extract(Path archive) throws IOException {
+		var cacheDir = getCacheDir();
+		var name = getBaseName(archive);
+		var indexKey = CacheKeys.create(archive.toAbsolutePath().toString(),
+				Long.toString(Files.size(archive)),
+				Long.toString(Files.getLastModifiedTime(archive).toMillis()));
+		var hash = readIndex(indexKey);
+		if (hash != null) {
+			var dir = cacheDir.resolve(hash).resolve(name);
+			if (Files.isDirectory(dir))
+				return dir;
+		}
+		hash = CacheKeys.hash(archive).substring(0, 32);
+		var dir = cacheDir.resolve(hash).resolve(name);
+		synchronized (locks.computeIfAbsent(hash, k -> new Object())) {
+			Files.createDirectories(dir.getParent());
+			try (var channel = FileChannel.open(cacheDir.resolve(hash + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+					var lock = channel.lock()) {
+				if (!Files.isDirectory(dir))
+					extract(archive, dir);
+				writeIndex(indexKey, hash);
+			}
+		}
+		return dir;
+	}
+
+	/**
+	 * Get the name of an archive without its extension, e.g. 'model' for 'model.zip'.
+	 */
+	static String getBaseName(Path archive) {
+		var name = archive.getFileName().toString();
+		int ind = name.lastIndexOf('.');
+		return ind > 0 ? name.substring(0, ind) : name;
+	}
+
+	private static void extract(Path archive, Path dir) throws IOException {
+		logger.info("Extracting {} to {}", archive, dir);
+		var temp = dir.resolveSibling(dir.getFileName() + "-" + UUID.randomUUID() + ".tmp");
+		try (var zip = new ZipFile(archive.toFile())) {
+			var entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				var entry = entries.nextElement();
+				var path = temp.resolve(entry.getName()).normalize();
+				// Guard against entries that would be written outside the directory
+				if (!path.startsWith(temp))
+					throw new IOException("Invalid zip entry " + entry.getName());
+				if (entry.isDirectory()) {
+					Files.createDirectories(path);
+				} else {
+					Files.createDirectories(path.getParent());
+					try (var stream = zip.getInputStream(entry)) {
+						Files.copy(stream, path);
+					}
+				}
+			}
+			Files.createDirectories(temp);
+			Files.move(temp, dir, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			if (Files.exists(temp))
+				delete(temp);
+		}
+	}
+
+	private static void delete(Path path) {
+		try (var stream = Files.walk(path)) {
+			stream.sorted(Comparator.reverseOrder()).forEach(p -> {
+				try {
+					Files.deleteIfExists(p);
+				} catch (IOException e) {
+					logger.debug("Unable to delete {}: {}", p, e.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			logger.debug("Unable to delete {}: {}", path, e.getMessage());
+		}
+	}
+
+	/**
+	 * Delete all extracted models.
+	 */
+	static synchronized void clear() {
+		var dir = getCacheDir();
+		if (Files.isDirectory(dir))
+			delete(dir);
+	}
+
+	private static synchronized String readIndex(String key) {
+		try {
+			return PropertiesFiles.read(getCacheDir().resolve(INDEX_NAME)).getProperty(key);
+		} catch (IOException e) {
+			logger.debug("Unable to read model archive index: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Add an entry to the index. This should be called while holding a file lock,
+	 * but the index is still written atomically so that readers never see a partial file.
+	 */
+	private static synchronized void writeIndex(String key, String hash) {
+		var file = getCacheDir().resolve(INDEX_NAME);
+		var props = new Properties();
+		try {
+			props = PropertiesFiles.read(file);
+		} catch (IOException e) {
+			logger.debug("Unable to read model archive index: {}", e.getMessage());
+		}
+		if (hash.equals(props.getProperty(key)))
+			return;
+		props.setProperty(key, hash);
+		try {
+			PropertiesFiles.write(file, props, "QuPath DJL model archive index");
+		} catch (IOException e) {
+			logger.warn("Unable to write model archive index: {}", e.getMessage());
+		}
+	}
+
+	private static Path getCacheDir() {
+		return Utils.getCacheDir().resolve(DIR_NAME);
+	}
+
+}
@@ -0,0 +1,450 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.MalformedModelException;
+import ai.djl.inference.Predictor;
+import ai.djl.repository.zoo.ModelNotFoundException;
+import ai.djl.repository.zoo.ZooModel;
+import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
+import ai.djl.util.Progress;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.regions.ImagePlane;
+
+/**
+ * A fixed number of model replicas, which can each process one input at a time.
+ * <p>
+ * This supports a 'throughput mode' for CPU inference, where several replicas using a few threads
+ * each generally outperform one replica using all cores.
+ * Inputs are dispatched to the least-loaded replica, with ties broken in round-robin order.
+ * <p>
+ * Replicas share the weights of a single model where the engine allows it, and differ only by
+ * their predictor. For OnnxRuntime, the thread pool belongs to the session (i.e. the model),
+ * so a separate model is loaded for each replica to give it its own thread budget.
+ *
+ * @param <I> input type
+ * @param <O> output type
+ */
+class ModelReplicas<I, O> implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ModelReplicas.class);
+
+	/**
+	 * Task that is applied to an item using the predictor of a replica.
+	 * @param <T> item type
+	 * @param <I> predictor input type
+	 * @param <O> predictor output type
+	 * @param <R> result type
+	 */
+	@FunctionalInterface
+	interface ReplicaTask<T, I, O, R> {
+
+		/**
+		 * Apply the task.
+		 * @param item
+		 * @param predictor
+		 * @return
+		 * @throws Exception
+		 */
+		R apply(T item, Predictor<I, O> predictor) throws Exception;
+
+	}
+
+	private static class Replica<I, O> {
+
+		private final ZooModel<I, O> model;
+		private final Semaphore lock = new Semaphore(1, true);
+		private final AtomicInteger load = new AtomicInteger();
+		private Predictor<I, O> predictor;
+
+		private Replica(ZooModel<I, O> model) {
+			this.model = model;
+		}
+
+		private <T, R> R call(T item, ReplicaTask<T, I, O, R> task) throws Exception {
+			load.incrementAndGet();
+			try {
+				lock.acquire();
+				try {
+					if (predictor == null)
+						predictor = model.newPredictor();
+					return task.apply(item, predictor);
+				} finally {
+					lock.release();
+				}
+			} finally {
+				load.decrementAndGet();
+			}
+		}
+
+		private void close() {
+			lock.acquireUninterruptibly();
+			try {
+				if (predictor != null) {
+					predictor.close();
+					predictor = null;
+				}
+			} finally {
+				lock.release();
+			}
+		}
+
+	}
+
+	private final List<Replica<I, O>> replicas;
+	private final List<ZooModel<I, O>> ownedModels;
+	private final AtomicInteger next = new AtomicInteger();
+
+	private ExecutorService pool;
+
+	private volatile boolean isClosed = false;
+
+	private ModelReplicas(List<ZooModel<I, O>> models, List<ZooModel<I, O>> ownedModels) {
+		this.replicas = new ArrayList<>();
+		for (var model : models)
+			replicas.add(new Replica<>(model));
+		this.ownedModels = ownedModels;
+	}
+
+	/**
+	 * Create replicas that share an existing model.
+	 * The model is not closed when the replicas are closed.
+	 * @param <I>
+	 * @param <O>
+	 * @param model
+	 * @param nReplicas
+	 * @return
+	 */
+	static <I, O> ModelReplicas<I, O> share(ZooModel<I, O> model, int nReplicas) {
+		return new ModelReplicas<>(Collections.nCopies(Math.max(1, nReplicas), model), Collections.emptyList());
+	}
+
+	/**
+	 * Load a model as replicas, each with a fixed thread budget where the engine supports setting threads per model.
+	 * Any models that are loaded will be closed when the replicas are closed.
+	 * @param <I>
+	 * @param <O>
+	 * @param engineName
+	 * @param inputClass
+	 * @param outputClass
+	 * @param translator
+	 * @param nReplicas number of replicas
+	 * @param threadsPerReplica number of intra-op threads per replica, or &le; 0 to use the engine default
+	 * @param uris
+	 * @return
+	 * @throws ModelNotFoundException
+	 * @throws MalformedModelException
+	 * @throws IOException
+	 */
+	static <I, O> ModelReplicas<I, O> load(String engineName, Class<I> inputClass, Class<O> outputClass, Translator<I, O> translator,
+			int nReplicas, int threadsPerReplica, URI... uris) throws ModelNotFoundException, MalformedModelException, IOException {
+		return load(engineName, inputClass, outputClass, translator, nReplicas, threadsPerReplica, null, uris);
+	}
+	
+	/**
+	 * Load a model as replicas, reporting progress.
+	 * If more than one model needs to be loaded, the thread is checked for interruption between models.
+	 * @param <I>
+	 * @param <O>
+	 * @param engineName
+	 * @param inputClass
+	 * @param outputClass
+	 * @param translator
+	 * @param nReplicas number of replicas
+	 * @param threadsPerReplica number of intra-op threads per replica, or &le; 0 to use the engine default
+	 * @param progress optional progress monitor
+	 * @param uris
+	 * @return
+	 * @throws ModelNotFoundException
+	 * @throws MalformedModelException
+	 * @throws IOException if the model could not be loaded, or the thread was interrupted
+	 * @see #load(String, Class, Class, Translator, int, int, URI...)
+	 */
+	static <I, O> ModelReplicas<I, O> load(String engineName, Class<I> inputClass, Class<O> outputClass, Translator<I, O> translator,
+			int nReplicas, int threadsPerReplica, Progress progress, URI... uris) throws ModelNotFoundException, MalformedModelException, IOException {
+		nReplicas = Math.max(1, nReplicas);
+		var engine = DjlTools.selectEngine(engineName, uris);
+		if (engine == null)
+			engine = engineName;
+		if (nReplicas > 1 && DjlTools.ENGINE_ONNX_RUNTIME.equals(engine)) {
+			var options = getThreadOptions(engine, threadsPerReplica);
+			var models = new ArrayList<ZooModel<I, O>>();
+			try {
+				for (int i = 0; i < nReplicas; i++) {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException("Interrupted while loading model replicas");
+					models.add(DjlTools.loadModel(engine, inputClass, outputClass, translator, options, progress, uris));
+				}
+			} catch (Exception e) {
+				models.forEach(ZooModel::close);
+				throw e;
+			}
+			logger.debug("Loaded {} {} replicas with {} thread(s) each", nReplicas, engine, threadsPerReplica > 0 ? threadsPerReplica : "default");
+			return new ModelReplicas<>(models, models);
+		}
+		if (nReplicas > 1 && threadsPerReplica > 0)
+			logThreadBudgetUnsupported(engine, threadsPerReplica);
+		var model = DjlTools.loadModel(engine, inputClass, outputClass, translator, Collections.emptyMap(), progress, uris);
+		logger.debug("Loaded {} replica(s) sharing one {} model", nReplicas, engine);
+		return new ModelReplicas<>(Collections.nCopies(nReplicas, model), List.of(model));
+	}
+
+	/**
+	 * Get the criteria options needed to limit a model to a fixed number of intra-op threads.
+	 * @param engine the engine name
+	 * @param threadsPerReplica the number of threads, or &le; 0 to use the engine default
+	 * @return the options; this is empty if the engine doesn't support setting threads per model
+	 */
+	static Map<String, String> getThreadOptions(String engine, int threadsPerReplica) {
+		if (threadsPerReplica > 0 && DjlTools.ENGINE_ONNX_RUNTIME.equals(engine))
+			return Map.of("intraOpNumThreads", Integer.toString(threadsPerReplica), "interOpNumThreads", "1");
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Log that a thread budget can't be applied to each replica, because the engine doesn't support setting 
+	 * threads per model.
+	 * <p>
+	 * For engines where the thread count is shared by all models (e.g. PyTorch), the only way to limit threads 
+	 * is through an engine property. This is global and can't be reverted once the engine has been initialized, 
+	 * so it is never set implicitly; it must be requested with {@link DjlTools#setEngineThreads(String, int, int)}.
+	 * @param engine the engine name
+	 * @param threadsPerReplica the number of threads requested
+	 */
+	static void logThreadBudgetUnsupported(String engine, int threadsPerReplica) {
+		if (DjlTools.ENGINE_PYTORCH.equals(engine))
+			logger.info("{} threads can't be set per replica - use DjlTools.setEngineThreads() to limit threads for all {} models", engine, engine);
+		else
+			logger.debug("Thread budget of {} per replica is not supported for {}", threadsPerReplica, engine);
+	}
+
+	/**
+	 * Get the number of replicas.
+	 * @return
+	 */
+	int size() {
+		return replicas.size();
+	}
+
+	/**
+	 * Predict the output for a single input using the least-loaded replica,
+	 * blocking until the replica is available.
+	 * @param input
+	 * @return
+	 * @throws TranslateException
+	 */
+	O predict(I input) throws TranslateException {
+		try {
+			return call(input, (i, predictor) -> predictor.predict(i));
+		} catch (IOException e) {
+			throw new TranslateException(e);
+		}
+	}
+
+	/**
+	 * Apply a task to a single item on the calling thread, using the least-loaded replica.
+	 * This blocks until the replica is available.
+	 * @param <T>
+	 * @param <R>
+	 * @param item
+	 * @param task
+	 * @return
+	 * @throws TranslateException
+	 * @throws IOException
+	 */
+	<T, R> R call(T item, ReplicaTask<T, I, O, R> task) throws TranslateException, IOException {
+		if (isClosed)
+			throw new IllegalStateException("Model replicas have been closed");
+		try {
+			return nextReplica().call(item, task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TranslateException("Interrupted while waiting for a model replica", e);
+		} catch (TranslateException | IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new TranslateException(e);
+		}
+	}
+
+	/**
+	 * Apply a task to all items, using one worker thread per replica.
+	 * This blocks until all items have been processed.
+	 * If the calling thread is interrupted, all pending tasks are cancelled.
+	 * <p>
+	 * If adaptive concurrency is turned on with {@link DjlTools#setAdaptiveConcurrency(boolean)}, 
+	 * the number of active workers is adjusted based on tile latency, queue depth and memory use.
+	 * @param <T>
+	 * @param <R>
+	 * @param items the items to process
+	 * @param task the task to apply to each item
+	 * @return the results, in the same order as the items
+	 * @throws InterruptedException if the calling thread was interrupted
+	 * @throws TranslateException if the task failed for any item
+	 * @throws IOException if the task failed for any item
+	 */
+	<T, R> List<R> invokeAll(List<? extends T> items, ReplicaTask<T, I, O, R> task) throws InterruptedException, TranslateException, IOException {
+		ConcurrencyController controller = null;
+		if (DjlTools.isAdaptiveConcurrency() && replicas.size() > 1 && items.size() > 1) {
+			int maxWorkers = Math.min(replicas.size(), DjlTools.getAdaptiveConcurrencyMax());
+			controller = new ConcurrencyController("Model replicas", DjlTools.getAdaptiveConcurrencyMin(), maxWorkers);
+		}
+		return invokeAll(items, task, controller);
+	}
+	
+	/**
+	 * Apply a task to all items, processing items from different planes concurrently (up to the number of replicas) 
+	 * but items from the same plane one at a time, on the calling thread if there is only one plane.
+	 * This is used in latency mode, so that the planes of z-stacks and time series are still processed in parallel.
+	 * @param <T>
+	 * @param <R>
+	 * @param items the items to process
+	 * @param planeFunction function to get the plane of an item
+	 * @param task the task to apply to each item
+	 * @return the results, in the same order as the items
+	 * @throws InterruptedException if the calling thread was interrupted
+	 * @throws TranslateException if the task failed for any item
+	 * @throws IOException if the task failed for any item
+	 * @see PlaneTasks#invokeByPlane(List, Function, int, PlaneTasks.PlaneTask)
+	 */
+	<T, R> List<R> invokeByPlane(List<? extends T> items, Function<? super T, ImagePlane> planeFunction, ReplicaTask<T, I, O, R> task) throws InterruptedException, TranslateException, IOException {
+		return PlaneTasks.invokeByPlane(items, planeFunction, replicas.size(), item -> call(item, task));
+	}
+	
+	/**
+	 * Get the model used by the first replica.
+	 * @return
+	 */
+	ZooModel<I, O> getModel() {
+		return replicas.get(0).model;
+	}
+	
+	/**
+	 * Apply a task to all items, optionally using a controller to limit the number of active workers.
+	 * @param <T>
+	 * @param <R>
+	 * @param items the items to process
+	 * @param task the task to apply to each item
+	 * @param controller optional controller; if null, all replicas are used
+	 * @return the results, in the same order as the items
+	 * @throws InterruptedException if the calling thread was interrupted
+	 * @throws TranslateException if the task failed for any item
+	 * @throws IOException if the task failed for any item
+	 * @see #invokeAll(List, ReplicaTask)
+	 */
+	<T, R> List<R> invokeAll(List<? extends T> items, ReplicaTask<T, I, O, R> task, ConcurrencyController controller) throws InterruptedException, TranslateException, IOException {
+		var executor = getExecutor();
+		var futures = new ArrayList<Future<R>>(items.size());
+		var remaining = new AtomicInteger(items.size());
+		for (T item : items) {
+			if (controller == null) {
+				futures.add(executor.submit(() -> call(item, task)));
+			} else {
+				futures.add(executor.submit(() -> {
+					controller.acquire();
+					long start = System.nanoTime();
+					try {
+						return call(item, task);
+					} finally {
+						controller.release(System.nanoTime() - start, remaining.decrementAndGet());
+					}
+				}));
+			}
+		}
+		var results = new ArrayList<R>(items.size());
+		try {
+			for (var future : futures)
+				results.add(future.get());
+		} catch (InterruptedException e) {
+			futures.forEach(f -> f.cancel(true));
+			throw e;
+		} catch (ExecutionException e) {
+			futures.forEach(f -> f.cancel(true));
+			var cause = e.getCause();
+			if (cause instanceof TranslateException)
+				throw (TranslateException)cause;
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new TranslateException(cause);
+		}
+		return results;
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (isClosed)
+			throw new IllegalStateException("Model replicas have been closed");
+		if (pool == null)
+			pool = Executors.newFixedThreadPool(replicas.size(), ThreadTools.createThreadFactory("djl-replica", true));
+		return pool;
+	}
+
+	private Replica<I, O> nextReplica() {
+		int n = replicas.size();
+		int start = Math.floorMod(next.getAndIncrement(), n);
+		Replica<I, O> best = null;
+		int bestLoad = Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			var replica = replicas.get((start + i) % n);
+			int load = replica.load.get();
+			if (load < bestLoad) {
+				best = replica;
+				bestLoad = load;
+				if (load == 0)
+					break;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Close all predictors, and any models that were loaded by this object.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			isClosed = true;
+			if (pool != null)
+				pool.shutdownNow();
+		}
+		for (var replica : replicas)
+			replica.close();
+		for (var model : ownedModels)
+			model.close();
+	}
+
+}
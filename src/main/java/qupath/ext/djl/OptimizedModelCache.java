@@ -0,0 +1,255 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.util.Utils;
+
+/**
+ * Cache of engine-optimized model files, to reduce the time needed to load a model.
+ * <p>
+ * Currently, this supports OnnxRuntime only: the model is optimized once using all graph optimizations,
+ * and the optimized model is saved so that it can later be loaded without optimizing it again.
+ * Because some optimizations depend upon the hardware, optimized models are keyed by the hash of the
+ * source file, the engine version and the CPU - and are not used with a GPU.
+ * <p>
+ * Models that store their weights in external data files are not cached, since the optimized model is 
+ * written to a different directory. If OnnxRuntime can't optimize a model, this is recorded so that it isn't 
+ * attempted again until the cache is cleared. Other failures (e.g. I/O errors) are only logged, so that 
+ * optimization is tried again next time.
+ */
+class OptimizedModelCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(OptimizedModelCache.class);
+
+	private static final String DIR_NAME = "qupath-optimized";
+
+	private static final String OPT_LEVEL = "ALL_OPT";
+
+	/**
+	 * Name of a file written in place of the optimized model if it can't be created, 
+	 * so that optimization isn't attempted every time the model is loaded.
+	 */
+	private static final String UNAVAILABLE_NAME = "unavailable.txt";
+
+	/**
+	 * Encoded key of an ONNX external data entry (field 1, length 8, "location").
+	 */
+	private static final byte[] EXTERNAL_DATA_KEY = {0x0a, 0x08, 'l', 'o', 'c', 'a', 't', 'i', 'o', 'n'};
+
+	/**
+	 * Class of exceptions thrown by OnnxRuntime when a session can't be created.
+	 */
+	private static final String ORT_EXCEPTION = "ai.onnxruntime.OrtException";
+
+	private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	// Suppress default constructor
+	private OptimizedModelCache() {}
+
+	/**
+	 * Get the URI of an optimized version of a model, creating it if necessary.
+	 * @param engineName the engine that will be used to load the model
+	 * @param uri the URI of the source model
+	 * @return the URI of the optimized model, or null if no optimized model is available
+	 */
+	static URI getOptimizedModel(String engineName, URI uri) {
+		if (!DjlTools.ENGINE_ONNX_RUNTIME.equals(engineName)) {
+			logger.debug("Optimized model cache is not supported for {}", engineName);
+			return null;
+		}
+		if (!"file".equals(uri.getScheme()) || !uri.getPath().toLowerCase().endsWith(".onnx"))
+			return null;
+		try {
+			var engine = DjlTools.getEngine(engineName, false);
+			var device = DjlTools.getOverrideDevice(engineName);
+			if (device == null)
+				device = engine.defaultDevice();
+			if (device.isGpu()) {
+				logger.debug("Optimized model cache is not used for GPU device {}", device);
+				return null;
+			}
+			var source = Paths.get(uri);
+			var key = CacheKeys.create(CacheKeys.hash(source), engineName, engine.getVersion(), CacheKeys.getCpuSignature(), OPT_LEVEL);
+			var dir = getCacheDir().resolve(key.substring(0, 32));
+			var target = dir.resolve(source.getFileName().toString());
+			var marker = dir.resolve(UNAVAILABLE_NAME);
+			synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+				if (!Files.isRegularFile(target)) {
+					if (Files.exists(marker)) {
+						logger.debug("Optimized model is unavailable for {} (see {})", uri, marker);
+						return null;
+					}
+					if (hasExternalData(source)) {
+						logger.debug("Optimized model cache is not used for {} because it has external data", uri);
+						writeMarker(marker, "Model has external data");
+						return null;
+					}
+					try {
+						createOptimizedModel(source, target);
+					} catch (OptimizationException e) {
+						// Only record failures reported by OnnxRuntime, since I/O errors may be transient
+						writeMarker(marker, "Optimization failed: " + e.getMessage());
+						throw e;
+					}
+				}
+			}
+			logger.debug("Using optimized model {}", target);
+			return target.toUri();
+		} catch (Exception e) {
+			logger.warn("Unable to use optimized model for {}: {}", uri, e.getMessage());
+			logger.debug(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Get the options that should be used to load an optimized model.
+	 * @param engineName
+	 * @return
+	 */
+	static Map<String, String> getLoadOptions(String engineName) {
+		if (DjlTools.ENGINE_ONNX_RUNTIME.equals(engineName))
+			return Map.of("optLevel", "NO_OPT");
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Delete all optimized models.
+	 */
+	static synchronized void clear() {
+		var dir = getCacheDir();
+		if (!Files.isDirectory(dir))
+			return;
+		try (var stream = Files.walk(dir)) {
+			stream.sorted(Comparator.reverseOrder()).forEach(p -> {
+				try {
+					Files.deleteIfExists(p);
+				} catch (IOException e) {
+					logger.warn("Unable to delete {}: {}", p, e.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			logger.warn("Unable to clear optimized model cache: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Create an optimized model using OnnxRuntime's session options.
+	 * Reflection is used because OnnxRuntime is only available at runtime, if the engine has been installed.
+	 * The model is written to a temporary file first, and then moved so that other processes never see a partial file.
+	 */
+	private static void createOptimizedModel(Path source, Path target) throws Exception {
+		logger.info("Creating optimized model for {}", source);
+		long startTime = System.currentTimeMillis();
+		Files.createDirectories(target.getParent());
+		var temp = target.resolveSibling(UUID.randomUUID() + "-" + target.getFileName());
+		try {
+			var loader = OptimizedModelCache.class.getClassLoader();
+			var envClass = Class.forName("ai.onnxruntime.OrtEnvironment", true, loader);
+			var optionsClass = Class.forName("ai.onnxruntime.OrtSession$SessionOptions", true, loader);
+			var levelClass = Class.forName("ai.onnxruntime.OrtSession$SessionOptions$OptLevel", true, loader);
+			var env = envClass.getMethod("getEnvironment").invoke(null);
+			try (var options = (AutoCloseable)optionsClass.getConstructor().newInstance()) {
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				var level = Enum.valueOf((Class)levelClass, OPT_LEVEL);
+				optionsClass.getMethod("setOptimizationLevel", levelClass).invoke(options, level);
+				optionsClass.getMethod("setOptimizedModelFilePath", String.class).invoke(options, temp.toString());
+				AutoCloseable session;
+				try {
+					session = (AutoCloseable)envClass.getMethod("createSession", String.class, optionsClass).invoke(env, source.toString(), options);
+				} catch (InvocationTargetException e) {
+					var cause = e.getCause();
+					if (cause != null && ORT_EXCEPTION.equals(cause.getClass().getName()))
+						throw new OptimizationException(cause.getMessage(), cause);
+					throw e;
+				}
+				session.close();
+			}
+			if (!Files.isRegularFile(temp))
+				throw new IOException("Optimized model was not written");
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Optimized model written to {} in {} ms", target, System.currentTimeMillis() - startTime);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Check whether an ONNX model refers to external data files, by searching for the key used by external data entries.
+	 * This may give false positives, in which case the model is simply not cached.
+	 */
+	static boolean hasExternalData(Path source) throws IOException {
+		try (var stream = new BufferedInputStream(Files.newInputStream(source))) {
+			int matched = 0;
+			int b;
+			while ((b = stream.read()) >= 0) {
+				if (b == (EXTERNAL_DATA_KEY[matched] & 0xFF)) {
+					matched++;
+					if (matched == EXTERNAL_DATA_KEY.length)
+						return true;
+				} else
+					matched = b == EXTERNAL_DATA_KEY[0] ? 1 : 0;
+			}
+			return false;
+		}
+	}
+
+	private static void writeMarker(Path marker, String reason) {
+		try {
+			Files.createDirectories(marker.getParent());
+			Files.writeString(marker, reason == null ? "" : reason);
+		} catch (IOException e) {
+			logger.debug("Unable to write {}: {}", marker, e.getMessage());
+		}
+	}
+
+	private static Path getCacheDir() {
+		return Utils.getCacheDir().resolve(DIR_NAME);
+	}
+
+	/**
+	 * Exception thrown when the engine reports that a model can't be optimized.
+	 * This is expected to happen every time for the same model, engine version and CPU.
+	 */
+	private static class OptimizationException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private OptimizationException(String message, Throwable cause) {
+			super(message, cause);
+		}
+
+	}
+
+}
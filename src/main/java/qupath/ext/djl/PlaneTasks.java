@@ -0,0 +1,189 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import ai.djl.translate.TranslateException;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.regions.ImagePlane;
+
+/**
+ * Helper methods to process the planes (z-slices and timepoints) of an image in parallel,
+ * with a bound on the number of planes processed at the same time.
+ */
+class PlaneTasks {
+
+	/**
+	 * Task applied to a single plane, or an item associated with a plane.
+	 * @param <T> the item type
+	 * @param <R> the result type
+	 */
+	@FunctionalInterface
+	interface PlaneTask<T, R> {
+
+		/**
+		 * Process an item.
+		 * @param item
+		 * @return
+		 * @throws Exception
+		 */
+		R apply(T item) throws Exception;
+
+	}
+
+	private static final Comparator<ImagePlane> PLANE_COMPARATOR = Comparator
+			.comparingInt(ImagePlane::getT)
+			.thenComparingInt(ImagePlane::getZ)
+			.thenComparingInt(ImagePlane::getC);
+
+	// Suppress default constructor
+	private PlaneTasks() {}
+
+	/**
+	 * Apply a task to all items, processing up to a maximum number of items concurrently.
+	 * If the maximum is 1 (or there is only one item), items are processed on the calling thread.
+	 * @param <T>
+	 * @param <R>
+	 * @param items the items to process
+	 * @param maxConcurrent the maximum number of items to process at the same time
+	 * @param task the task to apply
+	 * @return the results, in the same order as the items
+	 * @throws InterruptedException if the thread is interrupted; any remaining tasks are cancelled
+	 * @throws TranslateException
+	 * @throws IOException
+	 */
+	static <T, R> List<R> invokeAll(List<? extends T> items, int maxConcurrent, PlaneTask<T, R> task) throws InterruptedException, TranslateException, IOException {
+		int nThreads = Math.min(Math.max(1, maxConcurrent), items.size());
+		var results = new ArrayList<R>(items.size());
+		if (nThreads <= 1) {
+			for (T item : items) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				try {
+					results.add(task.apply(item));
+				} catch (Exception e) {
+					throw rethrow(e);
+				}
+			}
+			return results;
+		}
+		var executor = Executors.newFixedThreadPool(nThreads, ThreadTools.createThreadFactory("djl-plane-", true));
+		var futures = new ArrayList<Future<R>>(items.size());
+		try {
+			for (T item : items)
+				futures.add(executor.submit(() -> task.apply(item)));
+			for (var future : futures)
+				results.add(future.get());
+		} catch (InterruptedException e) {
+			futures.forEach(f -> f.cancel(true));
+			throw e;
+		} catch (ExecutionException e) {
+			futures.forEach(f -> f.cancel(true));
+			throw rethrow(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * Apply a task to all items, processing items from different planes concurrently but 
+	 * items from the same plane one at a time.
+	 * @param <T>
+	 * @param <R>
+	 * @param items the items to process
+	 * @param planeFunction function to get the plane of an item
+	 * @param maxConcurrent the maximum number of planes to process at the same time
+	 * @param task the task to apply
+	 * @return the results, in the same order as the items
+	 * @throws InterruptedException if the thread is interrupted; any remaining tasks are cancelled
+	 * @throws TranslateException
+	 * @throws IOException
+	 */
+	static <T, R> List<R> invokeByPlane(List<? extends T> items, Function<? super T, ImagePlane> planeFunction, int maxConcurrent, PlaneTask<T, R> task) throws InterruptedException, TranslateException, IOException {
+		var indices = new ArrayList<Integer>(items.size());
+		for (int i = 0; i < items.size(); i++)
+			indices.add(i);
+		var groups = new ArrayList<>(groupByPlane(indices, i -> planeFunction.apply(items.get(i))).values());
+		var groupResults = invokeAll(groups, maxConcurrent, group -> {
+			var list = new ArrayList<R>(group.size());
+			for (int i : group) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				list.add(task.apply(items.get(i)));
+			}
+			return list;
+		});
+		var results = new ArrayList<R>(Collections.nCopies(items.size(), null));
+		for (int g = 0; g < groups.size(); g++) {
+			var group = groups.get(g);
+			for (int i = 0; i < group.size(); i++)
+				results.set(group.get(i), groupResults.get(g).get(i));
+		}
+		return results;
+	}
+
+	/**
+	 * Get the number of planes to process at the same time.
+	 * This is independent of the number of model replicas requested for throughput mode, because planes 
+	 * can share predictors for the same model without duplicating its weights.
+	 * @param nPlanes the number of planes to process
+	 * @return the number of planes to process concurrently, between 1 and the QuPath parallelism
+	 */
+	static int getMaxConcurrentPlanes(int nPlanes) {
+		return Math.max(1, Math.min(nPlanes, ThreadTools.getParallelism()));
+	}
+
+	/**
+	 * Group items by their image plane, ordered by timepoint and then z-slice.
+	 * @param <T>
+	 * @param items the items to group
+	 * @param planeFunction function to get the plane of an item
+	 * @return a map of planes to items, retaining the order of items within each plane
+	 */
+	static <T> Map<ImagePlane, List<T>> groupByPlane(Collection<? extends T> items, Function<? super T, ImagePlane> planeFunction) {
+		var map = new TreeMap<ImagePlane, List<T>>(PLANE_COMPARATOR);
+		for (T item : items)
+			map.computeIfAbsent(planeFunction.apply(item), p -> new ArrayList<>()).add(item);
+		return map;
+	}
+
+	private static TranslateException rethrow(Throwable cause) throws InterruptedException, IOException {
+		if (cause instanceof InterruptedException)
+			throw (InterruptedException)cause;
+		if (cause instanceof IOException)
+			throw (IOException)cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException)cause;
+		if (cause instanceof TranslateException)
+			return (TranslateException)cause;
+		return new TranslateException(cause);
+	}
+
+}
@@ -0,0 +1,217 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.inference.Predictor;
+import ai.djl.translate.TranslateException;
+
+/**
+ * A bounded pool of {@link Predictor} instances for a single model.
+ * <p>
+ * A DJL model can be shared across threads, but a predictor cannot.
+ * This pool creates predictors lazily (up to a maximum number) so that each thread
+ * can use its own predictor, while ensuring that we don't create more than we need.
+ *
+ * @param <I> predictor input type
+ * @param <O> predictor output type
+ */
+class PredictorPool<I, O> implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PredictorPool.class);
+
+	/**
+	 * Function that can be applied to a predictor.
+	 * @param <I> predictor input type
+	 * @param <O> predictor output type
+	 * @param <R> result type
+	 */
+	@FunctionalInterface
+	interface PredictorFunction<I, O, R> {
+
+		/**
+		 * Apply the function.
+		 * @param predictor
+		 * @return
+		 * @throws TranslateException
+		 */
+		R apply(Predictor<I, O> predictor) throws TranslateException;
+
+	}
+
+	private final Supplier<Predictor<I, O>> factory;
+	private final int maxSize;
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<Predictor<I, O>> idle = new ConcurrentLinkedQueue<>();
+	private final List<Predictor<I, O>> all = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Lock used to ensure that predictors are not returned to the pool (or created) after it has been closed.
+	 */
+	private final Object lock = new Object();
+
+	private boolean isClosed = false;
+
+	/**
+	 * Create a new pool.
+	 * @param factory function to create a new predictor when needed
+	 * @param maxSize maximum number of predictors in the pool; this is also the maximum number
+	 *                of threads that can use the pool concurrently
+	 */
+	PredictorPool(Supplier<Predictor<I, O>> factory, int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("Pool size must be at least 1, but requested size is " + maxSize);
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Get the maximum number of predictors in the pool.
+	 * @return
+	 */
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get the number of predictors that have been created so far.
+	 * @return
+	 */
+	int size() {
+		return all.size();
+	}
+
+	/**
+	 * Apply a function using a predictor from the pool, blocking until one is available.
+	 * @param <R>
+	 * @param fun
+	 * @return the result of the function
+	 * @throws TranslateException if the function throws an exception, or the thread is interrupted
+	 *                            while waiting for a predictor
+	 */
+	<R> R call(PredictorFunction<I, O, R> fun) throws TranslateException {
+		var predictor = acquire();
+		try {
+			return fun.apply(predictor);
+		} finally {
+			release(predictor);
+		}
+	}
+
+	/**
+	 * Predict the output for a single input, using a predictor from the pool.
+	 * @param input
+	 * @return
+	 * @throws TranslateException
+	 */
+	O predict(I input) throws TranslateException {
+		return call(p -> p.predict(input));
+	}
+
+	/**
+	 * Predict the outputs for a batch of inputs, using a predictor from the pool.
+	 * @param inputs
+	 * @return
+	 * @throws TranslateException
+	 */
+	List<O> batchPredict(List<I> inputs) throws TranslateException {
+		return call(p -> p.batchPredict(inputs));
+	}
+
+	private Predictor<I, O> acquire() throws TranslateException {
+		synchronized (lock) {
+			if (isClosed)
+				throw new IllegalStateException("Predictor pool has been closed");
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TranslateException("Interrupted while waiting for a predictor", e);
+		}
+		synchronized (lock) {
+			if (isClosed) {
+				permits.release();
+				throw new IllegalStateException("Predictor pool has been closed");
+			}
+			var predictor = idle.poll();
+			if (predictor != null)
+				return predictor;
+		}
+		Predictor<I, O> predictor;
+		try {
+			predictor = factory.get();
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		synchronized (lock) {
+			if (!isClosed) {
+				all.add(predictor);
+				logger.debug("Created predictor {} of {}", all.size(), maxSize);
+				return predictor;
+			}
+		}
+		// The pool was closed while the predictor was being created
+		predictor.close();
+		permits.release();
+		throw new IllegalStateException("Predictor pool has been closed");
+	}
+
+	private void release(Predictor<I, O> predictor) {
+		boolean doClose;
+		synchronized (lock) {
+			doClose = isClosed;
+			if (!doClose)
+				idle.offer(predictor);
+		}
+		if (doClose)
+			predictor.close();
+		permits.release();
+	}
+
+	/**
+	 * Close all predictors that are not currently in use.
+	 * Predictors that are in use will be closed when they are returned to the pool.
+	 */
+	@Override
+	public void close() {
+		List<Predictor<I, O>> toClose = new ArrayList<>();
+		synchronized (lock) {
+			if (isClosed)
+				return;
+			isClosed = true;
+			Predictor<I, O> predictor;
+			while ((predictor = idle.poll()) != null)
+				toClose.add(predictor);
+			all.clear();
+		}
+		for (var predictor : toClose)
+			predictor.close();
+	}
+
+}
@@ -0,0 +1,71 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Helper methods to read and write the properties files used by the on-disk caches.
+ */
+class PropertiesFiles {
+
+	// Suppress default constructor
+	private PropertiesFiles() {}
+
+	/**
+	 * Read a properties file.
+	 * @param file the file to read
+	 * @return the properties, or an empty properties object if the file does not exist
+	 * @throws IOException if the file exists but could not be read
+	 */
+	static Properties read(Path file) throws IOException {
+		var props = new Properties();
+		if (Files.isRegularFile(file)) {
+			try (var reader = Files.newBufferedReader(file)) {
+				props.load(reader);
+			}
+		}
+		return props;
+	}
+
+	/**
+	 * Write a properties file atomically, so that readers never see a partial file.
+	 * The parent directory is created if necessary.
+	 * @param file the file to write
+	 * @param props the properties to write
+	 * @param comment comment to include at the start of the file
+	 * @throws IOException if the file could not be written
+	 */
+	static void write(Path file, Properties props, String comment) throws IOException {
+		var dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		var temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			try (var writer = Files.newBufferedWriter(temp)) {
+				props.store(writer, comment);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+}
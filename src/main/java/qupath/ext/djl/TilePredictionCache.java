@@ -0,0 +1,375 @@
+/*-
+ * Copyright 2024 QuPath developers, University of Edinburgh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package qupath.ext.djl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.djl.util.Utils;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.TileRequest;
+
+/**
+ * Disk-backed cache of predicted tiles, so that predictions don't need to be recomputed when revisiting
+ * a region or reopening an image.
+ * <p>
+ * Tiles are stored as compressed rasters in a directory for each model and source image, named by the
+ * tile coordinates and downsample. Files are written atomically, so a partially-written tile is never read.
+ * When the total size of all cached tiles exceeds the limit set with {@link DjlTools#setPredictionCacheSize(long)},
+ * the least recently used tiles are deleted.
+ */
+class TilePredictionCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(TilePredictionCache.class);
+
+	private static final String DIR_NAME = "qupath-predictions";
+
+	private static final String EXTENSION = ".tile";
+
+	private static final int MAGIC = 0x514a544c;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Proportion of the maximum size to retain when evicting tiles, so that eviction doesn't run on every write.
+	 */
+	private static final double EVICTION_TARGET = 0.9;
+
+	private static long totalBytes = -1;
+
+	private final Path dir;
+	private final ImageServerMetadata metadata;
+
+	private TilePredictionCache(Path dir, ImageServerMetadata metadata) {
+		this.dir = dir;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Get a cache for predictions from a specific model and source image.
+	 * @param modelKey hash identifying the model
+	 * @param serverPath path identifying the source image
+	 * @param metadata metadata for the prediction server, used to recreate tiles that don't use a standard image type
+	 * @return the cache, or null if prediction caching is turned off
+	 */
+	static TilePredictionCache create(String modelKey, String serverPath, ImageServerMetadata metadata) {
+		if (DjlTools.getPredictionCacheSize() <= 0)
+			return null;
+		var key = CacheKeys.create(modelKey, serverPath).substring(0, 32);
+		return new TilePredictionCache(getCacheDir().resolve(key), metadata);
+	}
+
+	/**
+	 * Read a cached tile.
+	 * @param tile
+	 * @return the tile, or null if it isn't in the cache (or couldn't be read)
+	 */
+	BufferedImage read(TileRequest tile) {
+		var path = getPath(tile);
+		if (!Files.isRegularFile(path))
+			return null;
+		try (var stream = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(path))))) {
+			var img = readImage(stream);
+			if (img != null)
+				Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			return img;
+		} catch (NoSuchFileException e) {
+			// Evicted after we checked
+			return null;
+		} catch (IOException e) {
+			logger.debug("Unable to read cached tile {}: {}", path, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Write a tile to the cache.
+	 * @param tile
+	 * @param img
+	 */
+	void write(TileRequest tile, BufferedImage img) {
+		int dataType = img.getRaster().getDataBuffer().getDataType();
+		if (img.getType() == BufferedImage.TYPE_CUSTOM && !isCompatible(img.getRaster().getNumBands(), dataType)) {
+			logger.debug("Tile can't be cached because it doesn't match the server metadata");
+			return;
+		}
+		var path = getPath(tile);
+		try {
+			Files.createDirectories(dir);
+			var temp = dir.resolve(UUID.randomUUID() + ".tmp");
+			try {
+				try (var stream = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(temp))))) {
+					writeImage(stream, img);
+				}
+				long size = Files.size(temp);
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				addBytes(size);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			logger.debug("Unable to cache tile {}: {}", path, e.getMessage());
+		}
+	}
+
+	private Path getPath(TileRequest tile) {
+		var name = String.format(Locale.ROOT, "d%s_x%d_y%d_w%d_h%d_z%d_t%d%s",
+				Double.toString(tile.getDownsample()),
+				tile.getImageX(), tile.getImageY(), tile.getImageWidth(), tile.getImageHeight(),
+				tile.getZ(), tile.getT(), EXTENSION);
+		return dir.resolve(name);
+	}
+
+	private boolean isCompatible(int nBands, int dataType) {
+		if (metadata == null || metadata.getSizeC() != nBands)
+			return false;
+		var colorModel = ColorModelFactory.createColorModel(metadata.getPixelType(), metadata.getChannels());
+		return colorModel.createCompatibleWritableRaster(1, 1).getDataBuffer().getDataType() == dataType;
+	}
+
+	private static void writeImage(DataOutputStream stream, BufferedImage img) throws IOException {
+		var raster = img.getRaster();
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int nBands = raster.getNumBands();
+		int dataType = raster.getDataBuffer().getDataType();
+		stream.writeInt(MAGIC);
+		stream.writeInt(VERSION);
+		stream.writeInt(img.getType());
+		stream.writeInt(width);
+		stream.writeInt(height);
+		stream.writeInt(nBands);
+		stream.writeInt(dataType);
+		int n = width * height * nBands;
+		switch (dataType) {
+		case DataBuffer.TYPE_BYTE:
+			for (int v : raster.getPixels(0, 0, width, height, new int[n]))
+				stream.writeByte(v);
+			break;
+		case DataBuffer.TYPE_USHORT:
+		case DataBuffer.TYPE_SHORT:
+			for (int v : raster.getPixels(0, 0, width, height, new int[n]))
+				stream.writeShort(v);
+			break;
+		case DataBuffer.TYPE_INT:
+			for (int v : raster.getPixels(0, 0, width, height, new int[n]))
+				stream.writeInt(v);
+			break;
+		case DataBuffer.TYPE_FLOAT:
+			for (float v : raster.getPixels(0, 0, width, height, new float[n]))
+				stream.writeFloat(v);
+			break;
+		case DataBuffer.TYPE_DOUBLE:
+			for (double v : raster.getPixels(0, 0, width, height, new double[n]))
+				stream.writeDouble(v);
+			break;
+		default:
+			throw new IOException("Unsupported data type " + dataType);
+		}
+	}
+
+	private BufferedImage readImage(DataInputStream stream) throws IOException {
+		if (stream.readInt() != MAGIC || stream.readInt() != VERSION)
+			return null;
+		int type = stream.readInt();
+		int width = stream.readInt();
+		int height = stream.readInt();
+		int nBands = stream.readInt();
+		int dataType = stream.readInt();
+
+		BufferedImage img;
+		if (type == BufferedImage.TYPE_CUSTOM) {
+			if (!isCompatible(nBands, dataType))
+				return null;
+			var colorModel = ColorModelFactory.createColorModel(metadata.getPixelType(), metadata.getChannels());
+			img = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), false, null);
+		} else
+			img = new BufferedImage(width, height, type);
+		var raster = img.getRaster();
+		if (raster.getNumBands() != nBands)
+			return null;
+
+		int n = width * height * nBands;
+		switch (dataType) {
+		case DataBuffer.TYPE_BYTE:
+			var bytes = new int[n];
+			for (int i = 0; i < n; i++)
+				bytes[i] = stream.readUnsignedByte();
+			raster.setPixels(0, 0, width, height, bytes);
+			break;
+		case DataBuffer.TYPE_USHORT:
+			var ushorts = new int[n];
+			for (int i = 0; i < n; i++)
+				ushorts[i] = stream.readUnsignedShort();
+			raster.setPixels(0, 0, width, height, ushorts);
+			break;
+		case DataBuffer.TYPE_SHORT:
+			var shorts = new int[n];
+			for (int i = 0; i < n; i++)
+				shorts[i] = stream.readShort();
+			raster.setPixels(0, 0, width, height, shorts);
+			break;
+		case DataBuffer.TYPE_INT:
+			var ints = new int[n];
+			for (int i = 0; i < n; i++)
+				ints[i] = stream.readInt();
+			raster.setPixels(0, 0, width, height, ints);
+			break;
+		case DataBuffer.TYPE_FLOAT:
+			var floats = new float[n];
+			for (int i = 0; i < n; i++)
+				floats[i] = stream.readFloat();
+			raster.setPixels(0, 0, width, height, floats);
+			break;
+		case DataBuffer.TYPE_DOUBLE:
+			var doubles = new double[n];
+			for (int i = 0; i < n; i++)
+				doubles[i] = stream.readDouble();
+			raster.setPixels(0, 0, width, height, doubles);
+			break;
+		default:
+			return null;
+		}
+		return img;
+	}
+
+	/**
+	 * Record that bytes have been added to the cache, evicting the least recently used tiles if needed.
+	 */
+	private static synchronized void addBytes(long bytes) {
+		if (totalBytes < 0)
+			totalBytes = computeTotalBytes();
+		else
+			totalBytes += bytes;
+		long maxBytes = DjlTools.getPredictionCacheSize();
+		if (maxBytes > 0 && totalBytes > maxBytes)
+			evict((long)(maxBytes * EVICTION_TARGET));
+	}
+
+	private static long computeTotalBytes() {
+		var root = getCacheDir();
+		if (!Files.isDirectory(root))
+			return 0;
+		try (var stream = Files.walk(root)) {
+			return stream.filter(p -> p.toString().endsWith(EXTENSION))
+					.mapToLong(p -> {
+						try {
+							return Files.size(p);
+						} catch (IOException e) {
+							return 0;
+						}
+					})
+					.sum();
+		} catch (IOException e) {
+			logger.debug("Unable to compute prediction cache size: {}", e.getMessage());
+			return 0;
+		}
+	}
+
+	private static void evict(long targetBytes) {
+		var root = getCacheDir();
+		var files = new ArrayList<CachedFile>();
+		try (var stream = Files.walk(root)) {
+			stream.filter(p -> p.toString().endsWith(EXTENSION)).forEach(p -> {
+				try {
+					files.add(new CachedFile(p, Files.getLastModifiedTime(p).toMillis(), Files.size(p)));
+				} catch (IOException e) {
+					logger.debug("Unable to check cached tile {}: {}", p, e.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			logger.warn("Unable to evict tiles from prediction cache: {}", e.getMessage());
+			return;
+		}
+		files.sort(Comparator.comparingLong(f -> f.lastModified));
+		long total = files.stream().mapToLong(f -> f.size).sum();
+		int nDeleted = 0;
+		for (var file : files) {
+			if (total <= targetBytes)
+				break;
+			try {
+				Files.deleteIfExists(file.path);
+				total -= file.size;
+				nDeleted++;
+			} catch (IOException e) {
+				logger.debug("Unable to delete cached tile {}: {}", file.path, e.getMessage());
+			}
+		}
+		totalBytes = total;
+		logger.debug("Evicted {} tile(s) from prediction cache ({} MB retained)", nDeleted, total / (1024 * 1024));
+	}
+
+	/**
+	 * Delete all cached predictions.
+	 */
+	static synchronized void clear() {
+		var root = getCacheDir();
+		if (Files.isDirectory(root)) {
+			try (var stream = Files.walk(root)) {
+				stream.sorted(Comparator.reverseOrder()).forEach(p -> {
+					try {
+						Files.deleteIfExists(p);
+					} catch (IOException e) {
+						logger.warn("Unable to delete {}: {}", p, e.getMessage());
+					}
+				});
+			} catch (IOException e) {
+				logger.warn("Unable to clear prediction cache: {}", e.getMessage());
+			}
+		}
+		totalBytes = -1;
+	}
+
+	private static Path getCacheDir() {
+		return Utils.getCacheDir().resolve(DIR_NAME);
+	}
+
+	private static class CachedFile {
+
+		private final Path path;
+		private final long lastModified;
+		private final long size;
+
+		private CachedFile(Path path, long lastModified, long size) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+
+	}
+
+}
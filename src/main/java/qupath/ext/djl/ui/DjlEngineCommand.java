@@ -19,9 +19,7 @@ package qupath.ext.djl.ui;
 import java.nio.file.Files;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -56,11 +54,11 @@ import javafx.scene.control.Tooltip;
 import javafx.scene.layout.GridPane;
 import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
+import qupath.ext.djl.DjlEngineCache;
 import qupath.ext.djl.DjlTools;
 import qupath.fx.dialogs.Dialogs;
 import qupath.fx.utils.GridPaneUtils;
 import qupath.lib.common.GeneralTools;
-import qupath.lib.common.ThreadTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.tools.GuiTools;
 
@@ -245,8 +243,10 @@ public class DjlEngineCommand {
 			
 			GridPaneUtils.setToExpandGridPaneWidth(labelName, labelPath, btnDownload);
 
-			// Update the engine status quietly
-//			checkEngineStatus(name, status, -1, true);
+			// Use the status from the current or a previous session if we have it, 
+			// without needing to initialize the engine
+			if (DjlTools.loadedEngines.contains(name) || DjlEngineCache.isAvailable(name))
+				status.set(EngineStatus.AVAILABLE);
 		}
 		
 		stage = new Stage();
@@ -265,15 +265,25 @@ public class DjlEngineCommand {
 	private static void updateVersionFromStatus(EngineStatus status, String engineName, Label labelVersion) {
 		if (status == EngineStatus.AVAILABLE) {
 			try {
-				var engine = Engine.getEngine(engineName);
-				labelVersion.setText(engine.getVersion());
-				// this is toString, but TF ends up trying to download again.
-				labelVersion.setTooltip(new Tooltip(engine.getEngineName() + ':' + engine.getVersion()));
-				return;
+				// Engine should already be loaded, so we don't want to block here
+				var engine = DjlTools.requestEngine(engineName, false).getNow(null);
+				if (engine != null) {
+					labelVersion.setText(engine.getVersion());
+					// this is toString, but TF ends up trying to download again.
+					labelVersion.setTooltip(new Tooltip(engine.getEngineName() + ':' + engine.getVersion()));
+					return;
+				}
 			} catch (Exception e) {
 				logger.error("Error updating engine version: {}", e.getMessage(), e);
 			}
 		}
+		// Fall back to the version recorded in a previous session
+		var cachedVersion = status == EngineStatus.AVAILABLE ? DjlEngineCache.getVersion(engineName) : null;
+		if (cachedVersion != null) {
+			labelVersion.setText(cachedVersion);
+			labelVersion.setTooltip(new Tooltip(engineName + ':' + cachedVersion));
+			return;
+		}
 		labelVersion.setText(bundle.getString("label.version.unknown"));
 		labelVersion.setTooltip(null);
 	}
@@ -336,12 +346,10 @@ public class DjlEngineCommand {
 
 	private void checkEngineStatus(String name, ObjectProperty<EngineStatus> status, long timeoutMillis, boolean doQuietly) {
 		// Request the engine in a background thread, triggering download if necessary
-		var pool = Executors.newSingleThreadExecutor(ThreadTools.createThreadFactory("djl-engine-request", true));
 		updateStatus(status, EngineStatus.PENDING);
-		var future = pool.submit((Callable<Boolean>)() -> checkEngineAvailability(name, status, doQuietly));
+		var future = DjlTools.submitEngineTask(() -> checkEngineAvailability(name, status, doQuietly));
 		if (timeoutMillis <= 0)
 			return;
-		pool.shutdown();
 		try {
 			// Wait until the timeout - engine might already be available & return quickly
 			var result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
@@ -398,7 +406,7 @@ public class DjlEngineCommand {
 			updateStatus(status, EngineStatus.PENDING);
 			boolean isAvailable;
 			if (doQuietly)
-				isAvailable = DjlTools.isEngineAvailable(name);
+				isAvailable = DjlTools.checkEngineAvailable(name).get();
 			else
 				isAvailable = DjlTools.getEngine(name, true) != null;
 			if (isAvailable) {
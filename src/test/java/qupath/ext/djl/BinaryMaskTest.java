@@ -0,0 +1,84 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class BinaryMaskTest {
+
+    @Test
+    @DisplayName("Test thresholding matches the probabilities for every pixel")
+    public void testThreshold() {
+        // Use a size that isn't a multiple of 64, so that rows span word boundaries
+        int width = 37;
+        int height = 23;
+        var probs = new float[width][height];
+        var random = new Random(42);
+        long expectedArea = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                probs[x][y] = random.nextFloat();
+                if (probs[x][y] >= 0.5f)
+                    expectedArea++;
+            }
+        }
+        var mask = BinaryMask.create(probs, 0.5);
+        assertEquals(width, mask.getWidth());
+        assertEquals(height, mask.getHeight());
+        assertEquals(expectedArea, mask.getArea());
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                boolean expected = probs[x][y] >= 0.5f;
+                assertEquals(expected, mask.contains(x, y), "Pixel " + x + ", " + y);
+                assertEquals(expected ? 1f : 0f, mask.getValue(x, y));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test probabilities equal to the threshold are included")
+    public void testThresholdInclusive() {
+        var mask = BinaryMask.create(new float[][] {{0.5f, 0.49f}, {1f, 0f}}, 0.5);
+        assertTrue(mask.contains(0, 0));
+        assertFalse(mask.contains(0, 1));
+        assertTrue(mask.contains(1, 0));
+        assertFalse(mask.contains(1, 1));
+        assertEquals(2, mask.getArea());
+    }
+
+    @Test
+    @DisplayName("Test probabilities are indexed as [x][y]")
+    public void testOrientation() {
+        var probs = new float[3][2];
+        probs[2][0] = 1f;
+        var mask = BinaryMask.create(probs, 0.5);
+        assertEquals(3, mask.getWidth());
+        assertEquals(2, mask.getHeight());
+        assertTrue(mask.contains(2, 0));
+        assertFalse(mask.contains(0, 1));
+        assertEquals(1, mask.getArea());
+    }
+
+    @Test
+    @DisplayName("Test empty and full masks")
+    public void testEmptyAndFull() {
+        var empty = BinaryMask.create(new float[0][0], 0.5);
+        assertEquals(0, empty.getWidth());
+        assertEquals(0, empty.getHeight());
+        assertEquals(0, empty.getArea());
+
+        int width = 64;
+        int height = 3;
+        var probs = new float[width][height];
+        for (var col : probs)
+            Arrays.fill(col, 1f);
+        var full = BinaryMask.create(probs, 0.5);
+        assertEquals(width * height, full.getArea());
+        assertTrue(full.contains(width - 1, height - 1));
+    }
+
+}
@@ -0,0 +1,139 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CacheKeysTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Test keys are deterministic SHA-256 hex strings")
+    public void testCreate() {
+        var key = CacheKeys.create("a", "b");
+        assertEquals(64, key.length());
+        assertTrue(key.matches("[0-9a-f]+"));
+        assertEquals(key, CacheKeys.create("a", "b"));
+        assertNotEquals(key, CacheKeys.create("b", "a"));
+    }
+
+    @Test
+    @DisplayName("Test key parts are separated, so that different splits give different keys")
+    public void testCreateSeparator() {
+        assertNotEquals(CacheKeys.create("ab", "c"), CacheKeys.create("a", "bc"));
+        assertNotEquals(CacheKeys.create("abc"), CacheKeys.create("abc", ""));
+        assertEquals(CacheKeys.create("null"), CacheKeys.create((String)null));
+    }
+
+    @Test
+    @DisplayName("Test files are hashed by content, not by name or location")
+    public void testHashFile() throws IOException {
+        var file1 = Files.writeString(tempDir.resolve("model1.pt"), "weights");
+        var file2 = Files.writeString(tempDir.resolve("model2.pt"), "weights");
+        var file3 = Files.writeString(tempDir.resolve("model3.pt"), "other weights");
+        assertEquals(CacheKeys.hash(file1), CacheKeys.hash(file2));
+        assertNotEquals(CacheKeys.hash(file1), CacheKeys.hash(file3));
+    }
+
+    @Test
+    @DisplayName("Test file hashes are recomputed when the file changes")
+    public void testHashModifiedFile() throws IOException {
+        var file = Files.writeString(tempDir.resolve("model.pt"), "weights");
+        var before = CacheKeys.hash(file);
+        Files.writeString(file, "new weights");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10_000));
+        assertNotEquals(before, CacheKeys.hash(file));
+    }
+
+    @Test
+    @DisplayName("Test directories are hashed by the relative paths and content of all files")
+    public void testHashDirectory() throws IOException {
+        var dir1 = Files.createDirectories(tempDir.resolve("dir1"));
+        var dir2 = Files.createDirectories(tempDir.resolve("dir2"));
+        for (var dir : new Path[] {dir1, dir2}) {
+            Files.writeString(dir.resolve("model.onnx"), "weights");
+            Files.writeString(Files.createDirectories(dir.resolve("sub")).resolve("config.json"), "{}");
+        }
+        assertEquals(CacheKeys.hash(dir1), CacheKeys.hash(dir2));
+
+        Files.move(dir2.resolve("model.onnx"), dir2.resolve("renamed.onnx"));
+        assertNotEquals(CacheKeys.hash(dir1), CacheKeys.hash(dir2));
+    }
+
+    @Test
+    @DisplayName("Test file URIs are hashed by content, and other URIs by their value")
+    public void testHashURI() throws IOException {
+        var file = Files.writeString(tempDir.resolve("model.pt"), "weights");
+        assertEquals(CacheKeys.hash(file), CacheKeys.hash(file.toUri()));
+        var uri = URI.create("https://example.com/model.zip");
+        assertEquals(CacheKeys.create(uri.toString()), CacheKeys.hash(uri));
+    }
+
+    @Test
+    @DisplayName("Test the CPU signature is available and stable")
+    public void testCpuSignature() {
+        var signature = CacheKeys.getCpuSignature();
+        assertFalse(signature.isBlank());
+        assertEquals(signature, CacheKeys.getCpuSignature());
+    }
+
+    static class Config {
+
+        private final float[] mean;
+        private final List<String> classes;
+        private final Map<String, Double> thresholds;
+
+        Config(float mean, double threshold) {
+            this.mean = new float[] {mean, mean, mean};
+            this.classes = List.of("Tumor", "Stroma");
+            this.thresholds = new HashMap<>(Map.of("Tumor", threshold, "Stroma", 0.5));
+        }
+
+    }
+
+    static class LambdaConfig {
+
+        private final Function<Double, Double> normalize = x -> x / 255.0;
+
+    }
+
+    static class CyclicConfig {
+
+        private CyclicConfig next = this;
+
+    }
+
+    @Test
+    @DisplayName("Test objects are described by their field values")
+    public void testDescribe() {
+        var description = CacheKeys.describe(new Config(0.5f, 0.7));
+        assertNotNull(description);
+        assertEquals(description, CacheKeys.describe(new Config(0.5f, 0.7)));
+        assertNotEquals(description, CacheKeys.describe(new Config(0.4f, 0.7)));
+        assertNotEquals(description, CacheKeys.describe(new Config(0.5f, 0.8)));
+        assertEquals("null", CacheKeys.describe(null));
+    }
+
+    @Test
+    @DisplayName("Test objects that can't be compared reliably aren't described")
+    public void testDescribeUnsupported() {
+        assertNull(CacheKeys.describe(new LambdaConfig()));
+        assertNull(CacheKeys.describe(new CyclicConfig()));
+        assertNull(CacheKeys.describe(new Object() {}));
+    }
+
+}
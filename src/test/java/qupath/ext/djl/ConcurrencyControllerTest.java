@@ -0,0 +1,102 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrencyControllerTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    /**
+     * Run one full round at the current limit, with the same latency for every tile.
+     */
+    private static void runRound(ConcurrencyController controller, long latencyNanos, int queueDepth) throws InterruptedException {
+        int n = controller.getLimit();
+        for (int i = 0; i < n; i++)
+            controller.acquire();
+        for (int i = 0; i < n; i++)
+            controller.release(latencyNanos, queueDepth);
+    }
+
+    @Test
+    @DisplayName("Test the limit starts at the minimum, and the bounds are sanitized")
+    public void testBounds() {
+        assertEquals(2, new ConcurrencyController("test", 2, 8).getLimit());
+        assertEquals(1, new ConcurrencyController("test", 0, 8).getLimit());
+        assertEquals(3, new ConcurrencyController("test", 3, 1).getLimit());
+    }
+
+    @Test
+    @DisplayName("Test the limit doubles during slow start, up to the maximum")
+    public void testSlowStart() throws InterruptedException {
+        var controller = new ConcurrencyController("test", 1, 6);
+        runRound(controller, MILLIS, 100);
+        assertEquals(2, controller.getLimit());
+        runRound(controller, MILLIS, 100);
+        assertEquals(4, controller.getLimit());
+        runRound(controller, MILLIS, 100);
+        assertEquals(6, controller.getLimit());
+        runRound(controller, MILLIS, 100);
+        assertEquals(6, controller.getLimit());
+    }
+
+    @Test
+    @DisplayName("Test the limit isn't increased if there are no tiles waiting")
+    public void testNoQueue() throws InterruptedException {
+        var controller = new ConcurrencyController("test", 1, 8);
+        runRound(controller, MILLIS, 0);
+        assertEquals(1, controller.getLimit());
+    }
+
+    @Test
+    @DisplayName("Test the limit is halved when latency rises, and then increases additively")
+    public void testLatencyDecrease() throws InterruptedException {
+        var controller = new ConcurrencyController("test", 1, 8);
+        runRound(controller, MILLIS, 100);
+        runRound(controller, MILLIS, 100);
+        assertEquals(4, controller.getLimit());
+
+        runRound(controller, 10 * MILLIS, 100);
+        assertEquals(2, controller.getLimit());
+
+        // Latency is back to normal, but slow start has ended
+        runRound(controller, MILLIS, 100);
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    @DisplayName("Test the limit never drops below the minimum")
+    public void testMinimum() throws InterruptedException {
+        var controller = new ConcurrencyController("test", 2, 8);
+        runRound(controller, MILLIS, 0);
+        runRound(controller, 100 * MILLIS, 0);
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    @DisplayName("Test workers wait while the limit is reached")
+    public void testAcquireBlocks() throws InterruptedException {
+        var controller = new ConcurrencyController("test", 1, 1);
+        controller.acquire();
+        var acquired = new CountDownLatch(1);
+        var thread = new Thread(() -> {
+            try {
+                controller.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS), "Worker should wait for a permit");
+        controller.release(MILLIS, 0);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS), "Worker should start once a permit is released");
+        thread.join(10_000);
+    }
+
+}
@@ -0,0 +1,150 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.djl.engine.Engine;
+
+public class DjlAutoTunerTest {
+
+    @TempDir
+    static Path tempDir;
+
+    private static String previousCacheDir;
+
+    @BeforeAll
+    public static void setCacheDir() {
+        previousCacheDir = System.getProperty("DJL_CACHE_DIR");
+        System.setProperty("DJL_CACHE_DIR", tempDir.resolve("cache").toString());
+    }
+
+    @AfterAll
+    public static void resetCacheDir() {
+        if (previousCacheDir == null)
+            System.clearProperty("DJL_CACHE_DIR");
+        else
+            System.setProperty("DJL_CACHE_DIR", previousCacheDir);
+    }
+
+    @AfterEach
+    public void clearCache() {
+        DjlAutoTuner.clear();
+    }
+
+    private static Path createModel(String name) throws IOException {
+        return Files.writeString(tempDir.resolve(name), name);
+    }
+
+    private static int nCores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Test
+    @DisplayName("Test the fastest engine is chosen when a model is available for several engines")
+    public void testChooseEngine() throws IOException {
+        assumeTrue(Engine.hasEngine(DjlTools.ENGINE_PYTORCH) && Engine.hasEngine(DjlTools.ENGINE_ONNX_RUNTIME));
+        var pt = createModel("model.pt");
+        var onnx = createModel("model.onnx");
+        var engines = new CopyOnWriteArrayList<String>();
+        var config = DjlAutoTuner.tune(List.of(pt.toUri()), DjlTools.ENGINE_PYTORCH, false, (c, millis) -> {
+            if (c.getReplicas() > 1)
+                throw new UnsupportedOperationException("Only testing engines");
+            engines.add(c.getEngine());
+            return DjlTools.ENGINE_ONNX_RUNTIME.equals(c.getEngine()) ? 20 : 10;
+        }, 1);
+        assertNotNull(config);
+        assertTrue(engines.contains(DjlTools.ENGINE_PYTORCH));
+        assertTrue(engines.contains(DjlTools.ENGINE_ONNX_RUNTIME));
+        assertEquals(DjlTools.ENGINE_ONNX_RUNTIME, config.getEngine());
+        assertEquals(1, config.getURIs().length);
+        assertEquals(onnx, Paths.get(config.getURIs()[0]));
+        assertEquals(20, config.getItemsPerSecond());
+    }
+
+    @Test
+    @DisplayName("Test the replica sweep stops once throughput no longer improves")
+    public void testReplicasStopOnRegression() throws IOException {
+        assumeTrue(nCores() >= 4);
+        var model = createModel("replicas.pt");
+        var replicas = new CopyOnWriteArrayList<Integer>();
+        var config = DjlAutoTuner.tune(List.of(model.toUri()), null, false, (c, millis) -> {
+            replicas.add(c.getReplicas());
+            return c.getReplicas() <= 2 ? c.getReplicas() * 10 : 5;
+        }, 1);
+        assertNotNull(config);
+        assertEquals(2, config.getReplicas());
+        assertEquals(Math.max(1, nCores() / 2), config.getThreadsPerReplica());
+        assertEquals(List.of(1, 2, 4), replicas);
+    }
+
+    @Test
+    @DisplayName("Test the batch size sweep stops once throughput no longer improves")
+    public void testBatchSizeStopsOnRegression() throws IOException {
+        var model = createModel("batch.pt");
+        var batchSizes = new CopyOnWriteArrayList<Integer>();
+        var config = DjlAutoTuner.tune(List.of(model.toUri()), null, true, (c, millis) -> {
+            if (c.getReplicas() > 1)
+                throw new UnsupportedOperationException("Only testing batch sizes");
+            batchSizes.add(c.getBatchSize());
+            return c.getBatchSize() <= 2 ? c.getBatchSize() * 10 : 5;
+        }, 1);
+        assertNotNull(config);
+        assertEquals(2, config.getBatchSize());
+        assertEquals(1, config.getReplicas());
+        assertEquals(List.of(1, 2, 4), batchSizes);
+    }
+
+    @Test
+    @DisplayName("Test no configuration is returned if every trial fails")
+    public void testAllTrialsFail() throws IOException {
+        var model = createModel("failed.pt");
+        var count = new AtomicInteger();
+        var config = DjlAutoTuner.tune(List.of(model.toUri()), null, true, (c, millis) -> {
+            count.incrementAndGet();
+            throw new IOException("Unable to load model");
+        }, 1);
+        assertNull(config);
+        assertTrue(count.get() > 0);
+    }
+
+    @Test
+    @DisplayName("Test tuning isn't repeated for a model after it has failed, until the cache is cleared")
+    public void testFailedNotRetried() throws IOException {
+        var uris = List.of(createModel("retry.pt").toUri());
+        var count = new AtomicInteger();
+        DjlAutoTuner.Benchmark benchmark = (c, millis) -> {
+            count.incrementAndGet();
+            throw new IOException("Unable to load model");
+        };
+        assertNull(DjlAutoTuner.getOrTune(uris, null, false, "test", benchmark));
+        int nTrials = count.get();
+        assertTrue(nTrials > 0);
+
+        assertNull(DjlAutoTuner.getOrTune(uris, null, false, "test", benchmark));
+        assertEquals(nTrials, count.get());
+
+        // A different input signature is tuned separately
+        assertNull(DjlAutoTuner.getOrTune(uris, null, false, "other", benchmark));
+        assertEquals(nTrials * 2, count.get());
+
+        DjlAutoTuner.clear();
+        assertNull(DjlAutoTuner.getOrTune(uris, null, false, "test", benchmark));
+        assertEquals(nTrials * 3, count.get());
+    }
+
+}
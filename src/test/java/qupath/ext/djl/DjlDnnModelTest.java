@@ -0,0 +1,91 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ai.djl.Model;
+import ai.djl.nn.Blocks;
+import ai.djl.repository.zoo.ZooModel;
+import ai.djl.translate.Translator;
+import qupath.opencv.dnn.DnnModel;
+import qupath.opencv.dnn.DnnShape;
+
+public class DjlDnnModelTest {
+
+    /**
+     * Model that loads slowly, without needing a model file.
+     */
+    private static class SlowModel extends DjlDnnModel {
+
+        private final AtomicInteger loadCount = new AtomicInteger();
+
+        private SlowModel() {
+            super(null, List.of(URI.create("file:/model.pt")), "NCHW",
+                    Map.of(DnnModel.DEFAULT_INPUT_NAME, DnnShape.of(1, 3, 32, 32)),
+                    Map.of(DnnModel.DEFAULT_OUTPUT_NAME, DnnShape.of(1, 3, 32, 32)),
+                    true);
+        }
+
+        @Override
+        <I, O> ZooModel<I, O> loadModel(Class<I> inputClass, Class<O> outputClass, Translator<I, O> translator, DjlAutoTuner.TuningConfig config) {
+            loadCount.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            var model = Model.newInstance("test");
+            model.setBlock(Blocks.identityBlock());
+            return new ZooModel<>(model, translator);
+        }
+
+    }
+
+    private static boolean hasEngine() {
+        try (var model = Model.newInstance("test")) {
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    @DisplayName("Test concurrent lazy initialization loads once, and every caller waits until it is complete")
+    public void testConcurrentLazyInit() throws Exception {
+        assumeTrue(hasEngine(), "No DJL engine available");
+        int n = 8;
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(n);
+        try (var model = new SlowModel()) {
+            assertEquals(0, model.loadCount.get());
+            var futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < n; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    model.ensureInitialized();
+                    return model.isInitialized();
+                }));
+            }
+            start.countDown();
+            for (var future : futures)
+                assertTrue(future.get(30, TimeUnit.SECONDS), "Caller returned before initialization was complete");
+            assertEquals(1, model.loadCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
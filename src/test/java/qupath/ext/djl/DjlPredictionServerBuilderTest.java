@@ -0,0 +1,120 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.net.URI;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.ndarray.NDList;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+import qupath.imagej.images.servers.ImageJServerBuilder;
+import qupath.lib.images.servers.ImageServerBuilder.DefaultImageServerBuilder;
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.io.GsonTools;
+
+public class DjlPredictionServerBuilderTest {
+
+    private static final URI IMAGE_URI = URI.create("file:/images/image.tif");
+    private static final URI MODEL_URI = URI.create("file:/models/model.pt");
+
+    @BeforeAll
+    public static void register() {
+        DjlZoo.registerServerBuilder();
+    }
+
+    private static DjlZoo.DjlPredictionServerBuilder createBuilder() {
+        var base = DefaultImageServerBuilder.createInstance(ImageJServerBuilder.class, IMAGE_URI);
+        return new DjlZoo.DjlPredictionServerBuilder(null, base, "PyTorch", MODEL_URI, "model", "qupath.ext.djl.TestTranslator");
+    }
+
+    @Test
+    @DisplayName("Test prediction server builders can be written to JSON and read back")
+    public void testJsonRoundTrip() {
+        var builder = createBuilder();
+        var gson = GsonTools.getInstance();
+        var json = gson.toJson(builder, ServerBuilder.class);
+        assertTrue(json.contains(DjlZoo.SERVER_BUILDER_TYPE), "Missing builder type in " + json);
+
+        var restored = gson.fromJson(json, ServerBuilder.class);
+        assertInstanceOf(DjlZoo.DjlPredictionServerBuilder.class, restored);
+        assertEquals(builder.getURIs(), restored.getURIs());
+        assertEquals(json, gson.toJson(restored, ServerBuilder.class));
+    }
+
+    @Test
+    @DisplayName("Test registering the builder more than once has no effect")
+    public void testRepeatedRegistration() {
+        assertDoesNotThrow(DjlZoo::registerServerBuilder);
+        var json = GsonTools.getInstance().toJson(createBuilder(), ServerBuilder.class);
+        assertInstanceOf(DjlZoo.DjlPredictionServerBuilder.class, GsonTools.getInstance().fromJson(json, ServerBuilder.class));
+    }
+
+    @Test
+    @DisplayName("Test updating URIs replaces the image and model URIs")
+    public void testUpdateURIs() {
+        var builder = createBuilder();
+        var newModel = URI.create("file:/moved/model.pt");
+        var updated = builder.updateURIs(Map.of(MODEL_URI, newModel));
+        assertNotSame(builder, updated);
+        assertTrue(updated.getURIs().contains(newModel));
+        assertFalse(updated.getURIs().contains(MODEL_URI));
+        assertSame(builder, builder.updateURIs(Map.of()));
+    }
+
+    public static class ConfiguredTranslator implements Translator<Image, Image> {
+
+        private final float[] mean = {0.485f, 0.456f, 0.406f};
+
+        @Override
+        public NDList processInput(TranslatorContext ctx, Image input) {
+            return null;
+        }
+
+        @Override
+        public Image processOutput(TranslatorContext ctx, NDList list) {
+            return null;
+        }
+
+    }
+
+    public static class LambdaTranslator implements Translator<Image, Image> {
+
+        private final Function<Image, Image> preprocess = img -> img;
+
+        @Override
+        public NDList processInput(TranslatorContext ctx, Image input) {
+            return null;
+        }
+
+        @Override
+        public Image processOutput(TranslatorContext ctx, NDList list) {
+            return null;
+        }
+
+    }
+
+    private static String createServerPath(Class<?> translatorClass) throws Exception {
+        var img = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        try (var wrapped = new WrappedBufferedImageServer("test", img);
+                var server = new DjlZoo.DjlPredictionImageServer(wrapped, "PyTorch", MODEL_URI, "model", translatorClass.getName(), wrapped.getMetadata())) {
+            return server.getPath();
+        }
+    }
+
+    @Test
+    @DisplayName("Test prediction servers are identified consistently only if the translator configuration is known")
+    public void testServerIdentity() throws Exception {
+        assertEquals(createServerPath(ConfiguredTranslator.class), createServerPath(ConfiguredTranslator.class));
+        assertNotEquals(createServerPath(LambdaTranslator.class), createServerPath(LambdaTranslator.class));
+    }
+
+}
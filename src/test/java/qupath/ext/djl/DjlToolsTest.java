@@ -0,0 +1,131 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import qupath.opencv.tools.OpenCVTools;
+
+public class DjlToolsTest {
+
+    // Conversions need an engine to create NDArrays; tests that need one are skipped if none is available
+    private static NDManager manager;
+
+    @BeforeAll
+    public static void createManager() {
+        try {
+            manager = NDManager.newBaseManager();
+        } catch (Exception e) {
+            manager = null;
+        }
+    }
+
+    @AfterAll
+    public static void closeManager() {
+        if (manager != null)
+            manager.close();
+    }
+
+    private static NDArray createArray(DataType dataType, Shape shape) {
+        assumeTrue(manager != null, "No DJL engine available");
+        var array = manager.arange(0f, (float)shape.size(), 1f).reshape(shape);
+        return array.toType(dataType, false);
+    }
+
+    private static double[] toDoubles(Mat mat) {
+        return OpenCVTools.extractDoubles(mat);
+    }
+
+    @Test
+    @DisplayName("Test getMatDepth for each supported data type")
+    public void testGetMatDepth() {
+        assertEquals(opencv_core.CV_8U, DjlTools.getMatDepth(DataType.BOOLEAN));
+        assertEquals(opencv_core.CV_16F, DjlTools.getMatDepth(DataType.FLOAT16));
+        assertEquals(opencv_core.CV_32F, DjlTools.getMatDepth(DataType.FLOAT32));
+        assertEquals(opencv_core.CV_64F, DjlTools.getMatDepth(DataType.FLOAT64));
+        assertEquals(opencv_core.CV_32S, DjlTools.getMatDepth(DataType.INT32));
+        assertEquals(opencv_core.CV_64F, DjlTools.getMatDepth(DataType.INT64));
+        assertEquals(opencv_core.CV_8S, DjlTools.getMatDepth(DataType.INT8));
+        assertEquals(opencv_core.CV_8U, DjlTools.getMatDepth(DataType.UINT8));
+        assertThrows(UnsupportedOperationException.class, () -> DjlTools.getMatDepth(DataType.STRING));
+        assertThrows(UnsupportedOperationException.class, () -> DjlTools.getMatDepth(DataType.UNKNOWN));
+    }
+
+    @Test
+    @DisplayName("Test ndArrayToMat preserves values for each data type")
+    public void testNdArrayToMat_AllDataTypes() {
+        var expected = new double[] {0, 1, 2, 3, 4, 5};
+        for (var dataType : new DataType[] {
+                DataType.FLOAT16, DataType.FLOAT32, DataType.FLOAT64,
+                DataType.INT8, DataType.UINT8, DataType.INT32, DataType.INT64}) {
+            try (var array = createArray(dataType, new Shape(1, 2, 3, 1))) {
+                var mat = DjlTools.ndArrayToMat(array, "NHWC");
+                assertEquals(2, mat.rows(), "Rows for " + dataType);
+                assertEquals(3, mat.cols(), "Columns for " + dataType);
+                assertEquals(1, mat.channels(), "Channels for " + dataType);
+                assertEquals(DjlTools.getMatDepth(dataType), mat.depth(), "Depth for " + dataType);
+                assertArrayEquals(expected, toDoubles(mat), 1e-6, "Values for " + dataType);
+                mat.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test ndArrayToMat converts booleans to 0 and 1")
+    public void testNdArrayToMat_Boolean() {
+        try (var array = createArray(DataType.FLOAT32, new Shape(2, 2)).gt(1f)) {
+            var mat = DjlTools.ndArrayToMat(array, "HW");
+            assertEquals(opencv_core.CV_8U, mat.depth());
+            assertArrayEquals(new double[] {0, 0, 1, 1}, toDoubles(mat));
+            mat.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test ndArrayToMat keeps 64-bit integers outside the int range")
+    public void testNdArrayToMat_LargeLongs() {
+        assumeTrue(manager != null, "No DJL engine available");
+        long large = 1L << 40;
+        try (var array = manager.create(new long[] {-large, 0, large}, new Shape(1, 3))) {
+            var mat = DjlTools.ndArrayToMat(array, "HW");
+            assertEquals(opencv_core.CV_64F, mat.depth());
+            assertArrayEquals(new double[] {-large, 0, large}, toDoubles(mat));
+            mat.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test ndArrayToMat interleaves channels-first arrays")
+    public void testNdArrayToMat_ChannelsFirst() {
+        try (var array = createArray(DataType.FLOAT32, new Shape(1, 2, 2, 2))) {
+            var mat = DjlTools.ndArrayToMat(array, "NCHW");
+            assertEquals(2, mat.channels());
+            // Channel 0 has values 0-3, channel 1 has values 4-7
+            assertArrayEquals(new double[] {0, 4, 1, 5, 2, 6, 3, 7}, toDoubles(mat));
+            mat.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test ndArrayToMat handles non-contiguous arrays")
+    public void testNdArrayToMat_Transposed() {
+        try (var array = createArray(DataType.FLOAT32, new Shape(2, 3)).transpose()) {
+            var mat = DjlTools.ndArrayToMat(array, "HW");
+            assertEquals(3, mat.rows());
+            assertEquals(2, mat.cols());
+            assertArrayEquals(new double[] {0, 3, 1, 4, 2, 5}, toDoubles(mat));
+            mat.close();
+        }
+    }
+
+}
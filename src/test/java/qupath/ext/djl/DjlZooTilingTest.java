@@ -0,0 +1,129 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.GeometryTools;
+import qupath.lib.roi.ROIs;
+
+public class DjlZooTilingTest {
+
+    private static ImageServer<BufferedImage> createServer(int width, int height) {
+        return new WrappedBufferedImageServer("test", new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    private static PathObject createPoint(double x, double y) {
+        return PathObjects.createDetectionObject(ROIs.createPointsROI(x, y, ImagePlane.getDefaultPlane()));
+    }
+
+    private static PathObject createDetection(double x, double y, double width, double height, String className, double probability, ImagePlane plane) {
+        var pathObject = PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, width, height, plane), PathClass.fromString(className));
+        pathObject.getMeasurementList().put("Class probability", probability);
+        return pathObject;
+    }
+
+    @Test
+    @DisplayName("Test tiles stay within the image, and every object belongs to exactly one tile")
+    public void testTilesPartitionObjects() throws Exception {
+        try (var server = createServer(1000, 800)) {
+            var request = RegionRequest.createInstance(server);
+            var tiles = DjlZoo.createDetectionTiles(server, request, null, 256, 32);
+            assertTrue(tiles.size() > 1);
+            for (var tile : tiles) {
+                var tileRequest = tile.getRequest();
+                assertTrue(tileRequest.getMinX() >= 0 && tileRequest.getMinY() >= 0);
+                assertTrue(tileRequest.getMaxX() <= server.getWidth() && tileRequest.getMaxY() <= server.getHeight());
+                assertTrue(tileRequest.getWidth() <= 256 && tileRequest.getHeight() <= 256);
+            }
+            // Objects in the overlap between tiles are detected twice, but should be retained only once
+            for (double y = 0.5; y < server.getHeight(); y += 7) {
+                for (double x = 0.5; x < server.getWidth(); x += 7) {
+                    var point = List.of(createPoint(x, y));
+                    int count = 0;
+                    for (var tile : tiles) {
+                        if (tile.getRequest().contains((int)x, (int)y, 0, 0))
+                            count += tile.filter(point).size();
+                    }
+                    assertEquals(1, count, "Point at " + x + ", " + y + " retained by " + count + " tile(s)");
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test neighboring tiles overlap by the requested amount")
+    public void testTileOverlap() throws Exception {
+        try (var server = createServer(600, 200)) {
+            var tiles = DjlZoo.createDetectionTiles(server, RegionRequest.createInstance(server), null, 200, 40);
+            var xs = new ArrayList<Integer>();
+            for (var tile : tiles)
+                xs.add(tile.getRequest().getX());
+            assertEquals(List.of(0, 160, 320, 480), xs);
+        }
+    }
+
+    @Test
+    @DisplayName("Test tile sizes are scaled by the downsample")
+    public void testDownsample() throws Exception {
+        try (var server = createServer(1024, 1024)) {
+            var request = RegionRequest.createInstance(server.getPath(), 2.0, 0, 0, 1024, 1024);
+            var tiles = DjlZoo.createDetectionTiles(server, request, null, 256, 0);
+            assertEquals(4, tiles.size());
+            for (var tile : tiles) {
+                assertEquals(512, tile.getRequest().getWidth());
+                assertEquals(2.0, tile.getRequest().getDownsample());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test tiles outside the mask are skipped")
+    public void testMask() throws Exception {
+        try (var server = createServer(1000, 1000)) {
+            var mask = GeometryTools.createRectangle(10, 10, 50, 50);
+            var tiles = DjlZoo.createDetectionTiles(server, RegionRequest.createInstance(server), mask, 256, 32);
+            assertEquals(1, tiles.size());
+            assertEquals(0, tiles.get(0).getRequest().getX());
+            assertEquals(0, tiles.get(0).getRequest().getY());
+        }
+    }
+
+    @Test
+    @DisplayName("Test duplicates of the same class are removed, keeping the most probable")
+    public void testRemoveDuplicates() {
+        var plane = ImagePlane.getDefaultPlane();
+        // A truncated copy at a tile boundary has a low IoU, but covers most of the smaller object
+        var truncated = createDetection(0, 0, 40, 100, "Tumor", 0.6, plane);
+        var complete = createDetection(0, 0, 100, 100, "Tumor", 0.9, plane);
+        var retained = DjlZoo.removeDuplicateDetections(List.of(truncated, complete));
+        assertEquals(List.of(complete), retained);
+    }
+
+    @Test
+    @DisplayName("Test overlapping objects are retained if they differ in class or plane, or overlap only slightly")
+    public void testRetainDistinct() {
+        var plane = ImagePlane.getDefaultPlane();
+        var tumor = createDetection(0, 0, 100, 100, "Tumor", 0.9, plane);
+        var stroma = createDetection(0, 0, 100, 100, "Stroma", 0.8, plane);
+        var otherPlane = createDetection(0, 0, 100, 100, "Tumor", 0.7, ImagePlane.getPlane(1, 0));
+        var neighbor = createDetection(80, 0, 100, 100, "Tumor", 0.6, plane);
+        var detections = List.of(tumor, stroma, otherPlane, neighbor);
+        var retained = DjlZoo.removeDuplicateDetections(detections);
+        assertEquals(detections.size(), retained.size());
+        assertTrue(retained.containsAll(detections));
+    }
+
+}
@@ -0,0 +1,161 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class DynamicBatcherTest {
+
+    private static Function<List<Integer>, List<Integer>> doubler(List<Integer> batchSizes) {
+        return inputs -> {
+            batchSizes.add(inputs.size());
+            return inputs.stream().map(i -> i * 2).collect(Collectors.toList());
+        };
+    }
+
+    /**
+     * Submit inputs from separate threads at the same time, returning the outputs in input order.
+     */
+    private static List<Integer> predictConcurrently(DynamicBatcher<Integer, Integer> batcher, int n) throws Exception {
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(n);
+        try {
+            var futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < n; i++) {
+                int input = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return batcher.predict(input);
+                }));
+            }
+            start.countDown();
+            var outputs = new ArrayList<Integer>();
+            for (var future : futures)
+                outputs.add(future.get(30, TimeUnit.SECONDS));
+            return outputs;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Test invalid batch sizes and concurrency are rejected")
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new DynamicBatcher<Integer, Integer>(doubler(new ArrayList<>()), 0, 10, 1));
+        assertThrows(IllegalArgumentException.class, () -> new DynamicBatcher<Integer, Integer>(doubler(new ArrayList<>()), 1, 10, 0));
+    }
+
+    @Test
+    @DisplayName("Test a single input returns its own output")
+    public void testSingle() {
+        var batchSizes = new CopyOnWriteArrayList<Integer>();
+        try (var batcher = new DynamicBatcher<>(doubler(batchSizes), 4, 0, 1)) {
+            assertEquals(6, batcher.predict(3));
+            assertEquals(List.of(1), batchSizes);
+        }
+    }
+
+    @Test
+    @DisplayName("Test concurrent inputs are coalesced into batches, and each caller gets its own output")
+    public void testCoalesce() throws Exception {
+        int n = 4;
+        var batchSizes = new CopyOnWriteArrayList<Integer>();
+        // Use a long delay, so the batch is dispatched when full rather than when the delay expires
+        try (var batcher = new DynamicBatcher<>(doubler(batchSizes), n, 5000, 1)) {
+            var outputs = predictConcurrently(batcher, n);
+            for (int i = 0; i < n; i++)
+                assertEquals(i * 2, outputs.get(i));
+        }
+        assertEquals(n, batchSizes.stream().mapToInt(i -> i).sum());
+        assertTrue(batchSizes.stream().anyMatch(s -> s > 1), "Expected inputs to be batched, but batch sizes were " + batchSizes);
+    }
+
+    @Test
+    @DisplayName("Test batches never exceed the maximum batch size")
+    public void testMaxBatchSize() throws Exception {
+        int n = 10;
+        int maxBatchSize = 3;
+        var batchSizes = new CopyOnWriteArrayList<Integer>();
+        try (var batcher = new DynamicBatcher<>(doubler(batchSizes), maxBatchSize, 50, 2)) {
+            var outputs = predictConcurrently(batcher, n);
+            for (int i = 0; i < n; i++)
+                assertEquals(i * 2, outputs.get(i));
+        }
+        assertEquals(n, batchSizes.stream().mapToInt(i -> i).sum());
+        assertTrue(batchSizes.stream().allMatch(s -> s <= maxBatchSize), "Batch too large: " + batchSizes);
+    }
+
+    @Test
+    @DisplayName("Test exceptions from the batch function are passed to each caller")
+    public void testBatchFailure() {
+        var exception = new IllegalArgumentException("Batch failed");
+        try (var batcher = new DynamicBatcher<Integer, Integer>(inputs -> { throw exception; }, 4, 0, 1)) {
+            assertSame(exception, assertThrows(IllegalArgumentException.class, () -> batcher.predict(1)));
+        }
+    }
+
+    @Test
+    @DisplayName("Test the batch function must return one output per input")
+    public void testWrongOutputCount() {
+        try (var batcher = new DynamicBatcher<Integer, Integer>(inputs -> List.of(), 4, 0, 1)) {
+            assertThrows(IllegalStateException.class, () -> batcher.predict(1));
+        }
+    }
+
+    @Test
+    @DisplayName("Test inputs can't be submitted after closing")
+    public void testPredictAfterClose() {
+        var batcher = new DynamicBatcher<>(doubler(new ArrayList<>()), 4, 0, 1);
+        batcher.close();
+        assertThrows(IllegalStateException.class, () -> batcher.predict(1));
+        assertDoesNotThrow(batcher::close);
+    }
+
+    @Test
+    @DisplayName("Test closing fails waiting inputs, but lets running batches complete")
+    public void testCloseWhileWaiting() throws Exception {
+        var running = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var batcher = new DynamicBatcher<Integer, Integer>(inputs -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return inputs;
+        }, 1, 0, 1);
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            // The first input occupies the only batch worker
+            var first = executor.submit(() -> batcher.predict(1));
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            // The second input waits in the queue (or is rejected, if it arrives after closing)
+            var second = executor.submit(() -> batcher.predict(2));
+            Thread.sleep(100);
+            batcher.close();
+
+            var e = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+
+            release.countDown();
+            assertEquals(1, first.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+}
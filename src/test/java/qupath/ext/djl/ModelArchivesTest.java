@@ -0,0 +1,177 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.djl.util.Utils;
+
+public class ModelArchivesTest {
+
+    @TempDir
+    static Path tempDir;
+
+    private static String previousCacheDir;
+
+    @BeforeAll
+    public static void setCacheDir() {
+        previousCacheDir = System.getProperty("DJL_CACHE_DIR");
+        System.setProperty("DJL_CACHE_DIR", tempDir.resolve("cache").toString());
+    }
+
+    @AfterAll
+    public static void resetCacheDir() {
+        if (previousCacheDir == null)
+            System.clearProperty("DJL_CACHE_DIR");
+        else
+            System.setProperty("DJL_CACHE_DIR", previousCacheDir);
+    }
+
+    private static Path createZip(String name, Map<String, String> entries) throws IOException {
+        var path = tempDir.resolve(name);
+        try (var zip = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (var entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                if (entry.getValue() != null)
+                    zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return path;
+    }
+
+    private static Path resolve(URI uri) throws IOException {
+        return Paths.get(ModelArchives.resolve(uri));
+    }
+
+    @Test
+    @DisplayName("Test URIs that aren't archives are returned unchanged")
+    public void testNotArchive() throws IOException {
+        var uri = tempDir.resolve("model.pt").toUri();
+        assertFalse(ModelArchives.isArchive(uri));
+        assertSame(uri, ModelArchives.resolve(uri));
+    }
+
+    @Test
+    @DisplayName("Test loose model files are extracted to a directory named after the archive")
+    public void testLooseFiles() throws IOException {
+        var zip = createZip("loose.zip", Map.of("model.pt", "weights", "synset.txt", "a\nb"));
+        assertTrue(ModelArchives.isArchive(zip.toUri()));
+        var dir = resolve(zip.toUri());
+        assertEquals("loose", dir.getFileName().toString());
+        assertEquals("weights", Files.readString(dir.resolve("model.pt")));
+        assertEquals("a\nb", Files.readString(dir.resolve("synset.txt")));
+    }
+
+    @Test
+    @DisplayName("Test an archive with a single top-level directory uses that directory")
+    public void testSingleDirectory() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("mymodel/", null);
+        entries.put("mymodel/model.pt", "weights");
+        var zip = createZip("single.zip", entries);
+        var dir = resolve(zip.toUri());
+        assertEquals("mymodel", dir.getFileName().toString());
+        assertEquals("weights", Files.readString(dir.resolve("model.pt")));
+    }
+
+    @Test
+    @DisplayName("Test jar URIs resolve to the extracted entry")
+    public void testJarEntry() throws IOException {
+        var zip = createZip("packaged.jar", Map.of("models/model.pt", "weights", "other.txt", "other"));
+        var uri = URI.create("jar:" + zip.toUri() + "!/models/model.pt");
+        assertTrue(ModelArchives.isArchive(uri));
+        var file = resolve(uri);
+        assertEquals("model.pt", file.getFileName().toString());
+        assertEquals("weights", Files.readString(file));
+
+        var missing = URI.create("jar:" + zip.toUri() + "!/models/missing.pt");
+        assertThrows(IOException.class, () -> ModelArchives.resolve(missing));
+    }
+
+    @Test
+    @DisplayName("Test entries that would be written outside the cache are rejected, leaving no partial extraction")
+    public void testZipSlip() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("model.pt", "weights");
+        entries.put("../../evil.txt", "evil");
+        var zip = createZip("evil.zip", entries);
+        assertThrows(IOException.class, () -> ModelArchives.resolve(zip.toUri()));
+
+        var cacheDir = Utils.getCacheDir();
+        try (var stream = Files.walk(cacheDir.getParent())) {
+            assertTrue(stream.noneMatch(p -> p.getFileName().toString().equals("evil.txt")), "Entry was written outside the cache");
+        }
+        try (var stream = Files.walk(cacheDir)) {
+            assertTrue(stream.noneMatch(p -> p.getFileName().toString().startsWith("evil")), "Partial extraction was retained");
+        }
+        try (var stream = Files.walk(cacheDir)) {
+            assertTrue(stream.noneMatch(p -> p.getFileName().toString().endsWith(".tmp")), "Temporary directory was retained");
+        }
+    }
+
+    @Test
+    @DisplayName("Test concurrent requests extract an archive once, and all see the complete content")
+    public void testConcurrentExtraction() throws Exception {
+        var entries = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 20; i++)
+            entries.put("file" + i + ".txt", "content " + i);
+        var zip = createZip("concurrent.zip", entries);
+        int n = 8;
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(n);
+        try {
+            var futures = new ArrayList<Future<Path>>();
+            for (int i = 0; i < n; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    var dir = resolve(zip.toUri());
+                    // Every file should be present as soon as the directory is visible
+                    for (int f = 0; f < 20; f++)
+                        assertEquals("content " + f, Files.readString(dir.resolve("file" + f + ".txt")));
+                    return dir;
+                }));
+            }
+            start.countDown();
+            var first = futures.get(0).get(30, TimeUnit.SECONDS);
+            for (var future : futures)
+                assertEquals(first, future.get(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Test an extracted archive is reused, but a modified archive is extracted again")
+    public void testReuse() throws IOException {
+        var zip = createZip("reuse.zip", Map.of("model.pt", "weights"));
+        var first = resolve(zip.toUri());
+        assertEquals(first, resolve(zip.toUri()));
+
+        createZip("reuse.zip", Map.of("model.pt", "new weights"));
+        var second = resolve(zip.toUri());
+        assertNotEquals(first, second);
+        assertEquals("new weights", Files.readString(second.resolve("model.pt")));
+    }
+
+}
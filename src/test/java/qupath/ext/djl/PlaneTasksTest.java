@@ -0,0 +1,137 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ai.djl.translate.TranslateException;
+import qupath.lib.regions.ImagePlane;
+
+public class PlaneTasksTest {
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("Test results are returned in the same order as the items")
+    public void testOrder() throws Exception {
+        var items = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i++)
+            items.add(i);
+        // Later items finish first, so the order can't depend upon completion time
+        var results = PlaneTasks.invokeAll(items, 4, i -> {
+            sleep(20 - i);
+            return i * 10;
+        });
+        for (int i = 0; i < items.size(); i++)
+            assertEquals(i * 10, results.get(i));
+    }
+
+    @Test
+    @DisplayName("Test the number of concurrent tasks is bounded")
+    public void testBounded() throws Exception {
+        int maxConcurrent = 3;
+        var active = new AtomicInteger();
+        var maxActive = new AtomicInteger();
+        var items = new ArrayList<Integer>();
+        for (int i = 0; i < 12; i++)
+            items.add(i);
+        PlaneTasks.invokeAll(items, maxConcurrent, i -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            sleep(10);
+            active.decrementAndGet();
+            return i;
+        });
+        assertTrue(maxActive.get() <= maxConcurrent, "Too many concurrent tasks: " + maxActive.get());
+    }
+
+    @Test
+    @DisplayName("Test a single worker processes items on the calling thread")
+    public void testCallingThread() throws Exception {
+        var thread = Thread.currentThread();
+        var results = PlaneTasks.invokeAll(List.of(1, 2, 3), 1, i -> Thread.currentThread() == thread);
+        assertEquals(List.of(true, true, true), results);
+    }
+
+    @Test
+    @DisplayName("Test exceptions are rethrown with their original type")
+    public void testExceptions() {
+        var io = new IOException("Read failed");
+        var translate = new TranslateException("Prediction failed");
+        var runtime = new IllegalStateException("Unexpected");
+        for (int maxConcurrent : new int[] {1, 4}) {
+            assertSame(io, assertThrows(IOException.class,
+                    () -> PlaneTasks.invokeAll(List.of(1, 2), maxConcurrent, i -> { throw io; })));
+            assertSame(translate, assertThrows(TranslateException.class,
+                    () -> PlaneTasks.invokeAll(List.of(1, 2), maxConcurrent, i -> { throw translate; })));
+            assertSame(runtime, assertThrows(IllegalStateException.class,
+                    () -> PlaneTasks.invokeAll(List.of(1, 2), maxConcurrent, i -> { throw runtime; })));
+        }
+    }
+
+    @Test
+    @DisplayName("Test items on the same plane are processed one at a time, and results retain the item order")
+    public void testInvokeByPlane() throws Exception {
+        var items = new ArrayList<Integer>();
+        for (int i = 0; i < 24; i++)
+            items.add(i);
+        // Each plane holds a quarter of the items, interleaved
+        var activeByPlane = new ConcurrentHashMap<ImagePlane, AtomicInteger>();
+        var overlaps = new AtomicInteger();
+        var results = PlaneTasks.invokeByPlane(items, i -> ImagePlane.getPlane(i % 4, 0), 4, i -> {
+            var active = activeByPlane.computeIfAbsent(ImagePlane.getPlane(i % 4, 0), p -> new AtomicInteger());
+            if (active.incrementAndGet() > 1)
+                overlaps.incrementAndGet();
+            sleep(5);
+            active.decrementAndGet();
+            return i * 10;
+        });
+        assertEquals(0, overlaps.get(), "Items on the same plane were processed concurrently");
+        for (int i = 0; i < items.size(); i++)
+            assertEquals(i * 10, results.get(i));
+    }
+
+    @Test
+    @DisplayName("Test plane concurrency is bounded by the number of planes")
+    public void testMaxConcurrentPlanes() {
+        assertEquals(1, PlaneTasks.getMaxConcurrentPlanes(0));
+        assertEquals(1, PlaneTasks.getMaxConcurrentPlanes(1));
+        assertTrue(PlaneTasks.getMaxConcurrentPlanes(2) <= 2);
+        assertTrue(PlaneTasks.getMaxConcurrentPlanes(1000) >= 1);
+    }
+
+    @Test
+    @DisplayName("Test items are grouped by plane, ordered by timepoint and then z-slice")
+    public void testGroupByPlane() {
+        var planes = List.of(
+                ImagePlane.getPlane(1, 1),
+                ImagePlane.getPlane(0, 1),
+                ImagePlane.getPlane(2, 0),
+                ImagePlane.getPlane(0, 1),
+                ImagePlane.getPlane(0, 0));
+        var indices = new ArrayList<Integer>();
+        for (int i = 0; i < planes.size(); i++)
+            indices.add(i);
+        var grouped = PlaneTasks.groupByPlane(indices, planes::get);
+        assertEquals(List.of(
+                ImagePlane.getPlane(0, 0),
+                ImagePlane.getPlane(2, 0),
+                ImagePlane.getPlane(0, 1),
+                ImagePlane.getPlane(1, 1)), new ArrayList<>(grouped.keySet()));
+        // Items retain their order within each plane
+        assertEquals(List.of(1, 3), grouped.get(ImagePlane.getPlane(0, 1)));
+    }
+
+}
@@ -0,0 +1,188 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.NDList;
+import ai.djl.nn.Blocks;
+import ai.djl.translate.NoopTranslator;
+
+public class PredictorPoolTest {
+
+    // Predictors need a model, which needs an engine; tests that need one are skipped if none is available
+    private static Model model;
+
+    @BeforeAll
+    public static void createModel() {
+        try {
+            model = Model.newInstance("test");
+            model.setBlock(Blocks.identityBlock());
+        } catch (Exception e) {
+            model = null;
+        }
+    }
+
+    @AfterAll
+    public static void closeModel() {
+        if (model != null)
+            model.close();
+    }
+
+    private static class TestPredictor extends Predictor<NDList, NDList> {
+
+        private volatile boolean isClosed = false;
+
+        private TestPredictor() {
+            super(model, new NoopTranslator(), model.getNDManager().getDevice(), false);
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+            super.close();
+        }
+
+    }
+
+    private static PredictorPool<NDList, NDList> createPool(int maxSize, List<TestPredictor> created) {
+        assumeTrue(model != null, "No DJL engine available");
+        return new PredictorPool<>(() -> {
+            var predictor = new TestPredictor();
+            created.add(predictor);
+            return predictor;
+        }, maxSize);
+    }
+
+    @Test
+    @DisplayName("Test the pool size must be at least 1")
+    public void testInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new PredictorPool<NDList, NDList>(() -> null, 0));
+    }
+
+    @Test
+    @DisplayName("Test predictors are reused for sequential calls")
+    public void testReuse() throws Exception {
+        var created = new CopyOnWriteArrayList<TestPredictor>();
+        try (var pool = createPool(4, created)) {
+            var first = pool.call(p -> p);
+            var second = pool.call(p -> p);
+            assertSame(first, second);
+            assertEquals(1, pool.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Test no more than the maximum number of predictors are created or used at once")
+    public void testBounded() throws Exception {
+        int maxSize = 3;
+        int nThreads = 8;
+        var created = new CopyOnWriteArrayList<TestPredictor>();
+        var active = new AtomicInteger();
+        var maxActive = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var pool = createPool(maxSize, created);
+        var executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < nThreads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 10; j++) {
+                        pool.call(p -> {
+                            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                            sleep(1);
+                            active.decrementAndGet();
+                            return p;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (var future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+        }
+        assertTrue(maxActive.get() <= maxSize, "Too many concurrent predictors: " + maxActive.get());
+        assertTrue(created.size() <= maxSize, "Too many predictors created: " + created.size());
+    }
+
+    @Test
+    @DisplayName("Test closing the pool closes idle predictors, and in-use predictors when they are returned")
+    public void testClose() throws Exception {
+        var created = new CopyOnWriteArrayList<TestPredictor>();
+        var pool = createPool(2, created);
+        var inUse = new CountDownLatch(1);
+        var closed = new CountDownLatch(1);
+        var thread = new Thread(() -> {
+            try {
+                pool.call(p -> {
+                    inUse.countDown();
+                    await(closed);
+                    return p;
+                });
+            } catch (Exception e) {
+                // Not expected, but the assertions below would fail
+            }
+        });
+        thread.start();
+        assertTrue(inUse.await(10, TimeUnit.SECONDS));
+        var busy = created.get(0);
+
+        // Create a second predictor, which is idle once the call completes
+        var idle = pool.call(p -> p);
+        assertNotSame(busy, idle);
+
+        pool.close();
+        assertTrue(created.get(1).isClosed, "Idle predictor should be closed");
+        assertFalse(busy.isClosed, "Predictor in use should not be closed");
+
+        closed.countDown();
+        thread.join(10_000);
+        assertTrue(busy.isClosed, "Returned predictor should be closed");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("Test the pool can't be used after it has been closed")
+    public void testUseAfterClose() {
+        var pool = createPool(1, new CopyOnWriteArrayList<>());
+        pool.close();
+        assertThrows(IllegalStateException.class, () -> pool.call(p -> p));
+        assertDoesNotThrow(pool::close);
+    }
+
+}
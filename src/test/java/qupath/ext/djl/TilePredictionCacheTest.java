@@ -0,0 +1,204 @@
+package qupath.ext.djl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.djl.util.Utils;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.regions.ImageRegion;
+
+public class TilePredictionCacheTest {
+
+    private static final int TILE_SIZE = 64;
+
+    @TempDir
+    static Path tempDir;
+
+    private static String previousCacheDir;
+
+    private static ImageServer<BufferedImage> server;
+
+    @BeforeAll
+    public static void setCacheDir() {
+        previousCacheDir = System.getProperty("DJL_CACHE_DIR");
+        System.setProperty("DJL_CACHE_DIR", tempDir.resolve("cache").toString());
+        server = new WrappedBufferedImageServer("test", new BufferedImage(TILE_SIZE * 8, TILE_SIZE * 8, BufferedImage.TYPE_INT_RGB));
+    }
+
+    @AfterAll
+    public static void resetCacheDir() throws Exception {
+        server.close();
+        if (previousCacheDir == null)
+            System.clearProperty("DJL_CACHE_DIR");
+        else
+            System.setProperty("DJL_CACHE_DIR", previousCacheDir);
+    }
+
+    @BeforeEach
+    public void enableCache() {
+        TilePredictionCache.clear();
+        DjlTools.setPredictionCacheSize(100L * 1024 * 1024);
+    }
+
+    @AfterEach
+    public void disableCache() {
+        DjlTools.setPredictionCacheSize(0);
+        TilePredictionCache.clear();
+    }
+
+    private static TileRequest createTile(int index) {
+        int n = server.getWidth() / TILE_SIZE;
+        var region = ImageRegion.createInstance((index % n) * TILE_SIZE, (index / n) * TILE_SIZE, TILE_SIZE, TILE_SIZE, 0, 0);
+        return TileRequest.createInstance(server, 0, region);
+    }
+
+    private static BufferedImage createRandomImage(int type, long seed) {
+        var img = new BufferedImage(TILE_SIZE, TILE_SIZE, type);
+        var raster = img.getRaster();
+        var random = new Random(seed);
+        for (int b = 0; b < raster.getNumBands(); b++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int x = 0; x < TILE_SIZE; x++)
+                    raster.setSample(x, y, b, random.nextInt(256));
+            }
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        var r1 = expected.getRaster();
+        var r2 = actual.getRaster();
+        assertEquals(r1.getNumBands(), r2.getNumBands());
+        int n = expected.getWidth() * expected.getHeight() * r1.getNumBands();
+        assertArrayEquals(
+                r1.getPixels(0, 0, expected.getWidth(), expected.getHeight(), new double[n]),
+                r2.getPixels(0, 0, actual.getWidth(), actual.getHeight(), new double[n]));
+    }
+
+    private static List<Path> listTiles() throws IOException {
+        var dir = Utils.getCacheDir().resolve("qupath-predictions");
+        if (!Files.isDirectory(dir))
+            return List.of();
+        try (var stream = Files.walk(dir)) {
+            return stream.filter(p -> p.toString().endsWith(".tile")).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Test no cache is created when prediction caching is turned off")
+    public void testDisabled() {
+        DjlTools.setPredictionCacheSize(0);
+        assertNull(TilePredictionCache.create("model", server.getPath(), server.getMetadata()));
+    }
+
+    @Test
+    @DisplayName("Test tiles are read back with the same type and pixels")
+    public void testRoundTrip() {
+        var cache = TilePredictionCache.create("model", server.getPath(), server.getMetadata());
+        int ind = 0;
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY}) {
+            var tile = createTile(ind++);
+            var img = createRandomImage(type, type);
+            assertNull(cache.read(tile));
+            cache.write(tile, img);
+            assertSamePixels(img, cache.read(tile));
+        }
+    }
+
+    @Test
+    @DisplayName("Test floating point tiles are recreated using the server metadata")
+    public void testRoundTripFloat() {
+        var channels = ImageChannel.getDefaultChannelList(2);
+        var metadata = new ImageServerMetadata.Builder(server.getMetadata())
+                .pixelType(PixelType.FLOAT32)
+                .channels(channels)
+                .rgb(false)
+                .build();
+        var colorModel = ColorModelFactory.createColorModel(PixelType.FLOAT32, channels);
+        var img = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(TILE_SIZE, TILE_SIZE), false, null);
+        var raster = img.getRaster();
+        for (int b = 0; b < 2; b++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int x = 0; x < TILE_SIZE; x++)
+                    raster.setSample(x, y, b, (x - y) * 0.25f + b);
+            }
+        }
+        var cache = TilePredictionCache.create("model-float", server.getPath(), metadata);
+        var tile = createTile(0);
+        cache.write(tile, img);
+        assertSamePixels(img, cache.read(tile));
+    }
+
+    @Test
+    @DisplayName("Test tiles are separated by model and tile location")
+    public void testKeys() {
+        var cache1 = TilePredictionCache.create("model1", server.getPath(), server.getMetadata());
+        var cache2 = TilePredictionCache.create("model2", server.getPath(), server.getMetadata());
+        var img = createRandomImage(BufferedImage.TYPE_INT_RGB, 1);
+        cache1.write(createTile(0), img);
+        assertNotNull(cache1.read(createTile(0)));
+        assertNull(cache1.read(createTile(1)));
+        assertNull(cache2.read(createTile(0)));
+    }
+
+    @Test
+    @DisplayName("Test the least recently used tiles are evicted when the cache is full")
+    public void testEviction() throws IOException {
+        var cache = TilePredictionCache.create("model", server.getPath(), server.getMetadata());
+        var tiles = new ArrayList<TileRequest>();
+        for (int i = 0; i < 20; i++)
+            tiles.add(createTile(i));
+
+        // Random pixels don't compress, so all tiles have about the same size
+        for (int i = 0; i < 10; i++)
+            cache.write(tiles.get(i), createRandomImage(BufferedImage.TYPE_INT_RGB, i));
+        long tileBytes = Files.size(listTiles().get(0));
+        long maxBytes = tileBytes * 15;
+        DjlTools.setPredictionCacheSize(maxBytes);
+
+        // Make the first tiles old, then use the first one again
+        var old = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000L);
+        for (var path : listTiles())
+            Files.setLastModifiedTime(path, old);
+        assertNotNull(cache.read(tiles.get(0)));
+
+        for (int i = 10; i < 20; i++)
+            cache.write(tiles.get(i), createRandomImage(BufferedImage.TYPE_INT_RGB, i));
+
+        long total = 0;
+        for (var path : listTiles())
+            total += Files.size(path);
+        assertTrue(total <= maxBytes, "Cache size " + total + " exceeds limit " + maxBytes);
+        assertNotNull(cache.read(tiles.get(0)), "Recently used tile should be retained");
+        assertNull(cache.read(tiles.get(1)), "Least recently used tile should be evicted");
+        assertNotNull(cache.read(tiles.get(19)), "Newest tile should be retained");
+    }
+
+}